@@ -0,0 +1,74 @@
+package ch.fhnw.ima.memento;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Internal helper class which emits measurements as JDK Flight Recorder events (see
+ * {@link MetricsSink#flightRecorder()}). This is the only class referring to <code>jdk.jfr</code>: it is kept in a
+ * separate source set, which is only compiled by JDKs providing Flight Recorder events, and instantiated
+ * reflectively once Flight Recorder support has been checked.
+ */
+final class FlightRecorderSink implements MetricsSink {
+
+    @Override
+    public void recordLatency(Timer timer, String source, long nanos) {
+        LatencyEvent event = new LatencyEvent();
+        if (event.isEnabled()) {
+            event.operation = timer.name();
+            event.source = source;
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void recordGauge(Gauge gauge, long value) {
+        GaugeEvent event = new GaugeEvent();
+        if (event.isEnabled()) {
+            event.gauge = gauge.name();
+            event.value = value;
+            event.commit();
+        }
+    }
+
+    @Name("ch.fhnw.ima.memento.Latency")
+    @Label("Memento Latency")
+    @Description("Duration of a model or view operation, committed once it has finished")
+    @Category("Memento")
+    @StackTrace(false)
+    static final class LatencyEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Source")
+        String source;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+
+    }
+
+    @Name("ch.fhnw.ima.memento.Gauge")
+    @Label("Memento Gauge")
+    @Description("Size of a model or view")
+    @Category("Memento")
+    @StackTrace(false)
+    static final class GaugeEvent extends Event {
+
+        @Label("Gauge")
+        String gauge;
+
+        @Label("Value")
+        long value;
+
+    }
+
+}
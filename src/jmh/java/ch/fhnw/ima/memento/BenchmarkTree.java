@@ -0,0 +1,96 @@
+package ch.fhnw.ima.memento;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Generates models of a given {@link TreeShape} and size for benchmarks. Generation is deterministic, so that results
+ * of different runs (and different library versions) are comparable.
+ */
+final class BenchmarkTree {
+
+    private static final long SEED = 42;
+
+    // probability of forking a new branch in a BUSHY tree
+    private static final double FORK_PROBABILITY = 0.2;
+
+    // number of precomputed random picks, see pick()
+    private static final int PICK_COUNT = 1024;
+
+    final MementoModel<Integer> model;
+    final MementoId[] mementoIds;
+    final MementoBranchId[] branchIds;
+
+    private final int[] picks;
+    private int nextPick;
+
+    private BenchmarkTree(MementoModel<Integer> model, MementoId[] mementoIds, MementoBranchId[] branchIds) {
+        this.model = model;
+        this.mementoIds = mementoIds;
+        this.branchIds = branchIds;
+        Random random = new Random(SEED);
+        this.picks = new int[PICK_COUNT];
+        for (int i = 0; i < PICK_COUNT; i++) {
+            picks[i] = random.nextInt(Integer.MAX_VALUE);
+        }
+    }
+
+    static BenchmarkTree generate(TreeShape shape, int size) {
+        return generate(new MementoModel<>(), shape, size);
+    }
+
+    /**
+     * @param model an empty model, e.g. recorded by a journal
+     */
+    static BenchmarkTree generate(MementoModel<Integer> model, TreeShape shape, int size) {
+        Random random = new Random(SEED);
+        java.util.List<MementoId> mementoIds = new ArrayList<>(size);
+        java.util.List<MementoBranchId> branchIds = new ArrayList<>();
+        branchIds.add(model.getMasterBranchId());
+        mementoIds.add(model.appendToMasterBranch(originator(model, 0)));
+        for (int i = 1; i < size; i++) {
+            boolean fork = shape == TreeShape.WIDE || (shape == TreeShape.BUSHY && random.nextDouble() < FORK_PROBABILITY);
+            if (fork) {
+                MementoId forkPoint = shape == TreeShape.WIDE ? mementoIds.get(0) : mementoIds.get(random.nextInt(mementoIds.size()));
+                MementoRef mementoRef = model.appendToNewBranch(forkPoint, originator(model, i));
+                branchIds.add(mementoRef.getBranchId());
+                mementoIds.add(mementoRef.getMementoId());
+            } else {
+                MementoBranchId branchId = shape == TreeShape.DEEP ? model.getMasterBranchId() : branchIds.get(random.nextInt(branchIds.size()));
+                mementoIds.add(model.appendToBranch(branchId, originator(model, i)));
+            }
+        }
+        return new BenchmarkTree(model, mementoIds.toArray(new MementoId[0]), branchIds.toArray(new MementoBranchId[0]));
+    }
+
+    /**
+     * Creates mementos without notifying listeners.
+     */
+    static Originator<Integer> originator(MementoModel<Integer> model, int state) {
+        return originator(model.newMementoId(), state, false);
+    }
+
+    static Originator<Integer> originator(MementoId mementoId, int state, boolean shouldFireModelChanged) {
+        String text = String.valueOf(state);
+        return () -> new Originator.Capture<>(new Memento<>(mementoId, text, text, state), shouldFireModelChanged);
+    }
+
+    /**
+     * Cycles through a fixed sequence of random numbers, which is cheaper than drawing them during measurement.
+     *
+     * @return a number between 0 (inclusive) and bound (exclusive)
+     */
+    int pick(int bound) {
+        nextPick = (nextPick + 1) % PICK_COUNT;
+        return picks[nextPick] % bound;
+    }
+
+    MementoId pickMemento() {
+        return mementoIds[pick(mementoIds.length)];
+    }
+
+    MementoBranchId pickBranch() {
+        return branchIds[pick(branchIds.length)];
+    }
+
+}
@@ -0,0 +1,41 @@
+package ch.fhnw.ima.memento;
+
+import com.sun.javafx.application.PlatformImpl;
+import javafx.application.Platform;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Starts the JavaFX toolkit once per JVM, and runs work on the JavaFX application thread. Benchmarks using it are
+ * forked with the headless Monocle platform (see {@link MementoViewBenchmark}), so no display is needed.
+ */
+final class FxPlatform {
+
+    private static boolean started;
+
+    private FxPlatform() {
+    }
+
+    static synchronized void start() throws InterruptedException {
+        if (!started) {
+            CountDownLatch latch = new CountDownLatch(1);
+            PlatformImpl.startup(latch::countDown);
+            latch.await();
+            started = true;
+        }
+    }
+
+    /**
+     * Runs a task on the JavaFX application thread, after all previously queued work (e.g. model changes delivered to
+     * a view), and waits for its result.
+     */
+    static <T> T call(Callable<T> task) throws InterruptedException, ExecutionException {
+        FutureTask<T> future = new FutureTask<>(task);
+        Platform.runLater(future);
+        return future.get();
+    }
+
+}
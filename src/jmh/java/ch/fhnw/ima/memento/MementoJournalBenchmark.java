@@ -0,0 +1,75 @@
+package ch.fhnw.ima.memento;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recovery of a model from a {@link MementoJournal}, which has recorded the generation of a tree (one record per
+ * memento). Every recovery replays the whole journal, so it is measured as a single shot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MementoJournalBenchmark {
+
+    private static final StateSerializer<Integer> SERIALIZER = new StateSerializer<Integer>() {
+        @Override
+        public byte[] serialize(Integer state) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt(state).array();
+        }
+
+        @Override
+        public Integer deserialize(ByteBuffer bytes) {
+            return bytes.getInt();
+        }
+    };
+
+    @Param({"DEEP", "WIDE", "BUSHY"})
+    public TreeShape shape;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void writeJournal() throws IOException {
+        file = Files.createTempFile("memento", ".journal");
+        try (MementoJournal<Integer> journal = MementoJournal.open(file, SERIALIZER)) {
+            BenchmarkTree.generate(journal.recover(new MementoModel<>()), shape, size);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public MementoModel<Integer> recover() throws IOException {
+        try (MementoJournal<Integer> journal = MementoJournal.open(file, SERIALIZER)) {
+            return journal.recover(new MementoModel<>());
+        }
+    }
+
+}
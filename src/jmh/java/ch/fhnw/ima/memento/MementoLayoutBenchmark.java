@@ -0,0 +1,78 @@
+package ch.fhnw.ima.memento;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Layout of a whole model, incremental updates of a layout after a model change (as done by {@link MementoView}), and
+ * the lookup of the cells within a viewport. None of them needs a JavaFX toolkit. The tree is regenerated for every
+ * iteration, because appending lets it grow.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MementoLayoutBenchmark {
+
+    // viewport of 16 x 12 cells, roughly a maximized window
+    private static final int VIEWPORT_COLS = 16;
+    private static final int VIEWPORT_ROWS = 12;
+
+    @Param({"DEEP", "WIDE", "BUSHY"})
+    public TreeShape shape;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private BenchmarkTree tree;
+    private MementoLayout layout;
+    private int state;
+
+    @Setup(Level.Iteration)
+    public void generateTree() {
+        tree = BenchmarkTree.generate(shape, size);
+        layout = MementoLayout.of(tree.model);
+        state = size;
+    }
+
+    @Benchmark
+    public Object layout() {
+        return MementoLayout.of(tree.model);
+    }
+
+    @Benchmark
+    public Object updateAfterAppendToBranch() {
+        tree.model.appendToBranch(tree.pickBranch(), BenchmarkTree.originator(tree.model, state++));
+        layout = layout.updated(tree.model);
+        return layout;
+    }
+
+    @Benchmark
+    public Object updateAfterAppendToNewBranch() {
+        tree.model.appendToNewBranch(tree.pickMemento(), BenchmarkTree.originator(tree.model, state++));
+        layout = layout.updated(tree.model);
+        return layout;
+    }
+
+    @Benchmark
+    public Object getCellsInViewport() {
+        int minCol = tree.pick(Math.max(1, layout.getColCount() - VIEWPORT_COLS));
+        int minRow = tree.pick(Math.max(1, layout.getRowCount() - VIEWPORT_ROWS));
+        return layout.getCells(minCol, minCol + VIEWPORT_COLS, minRow, minRow + VIEWPORT_ROWS);
+    }
+
+}
@@ -0,0 +1,66 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Modifications and queries of a {@link MementoModel}. The tree is regenerated for every iteration, because
+ * appending lets it grow.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MementoModelBenchmark {
+
+    @Param({"DEEP", "WIDE", "BUSHY"})
+    public TreeShape shape;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private BenchmarkTree tree;
+    private int state;
+
+    @Setup(Level.Iteration)
+    public void generateTree() {
+        tree = BenchmarkTree.generate(shape, size);
+        state = size;
+    }
+
+    @Benchmark
+    public MementoId appendToBranch() {
+        return tree.model.appendToBranch(tree.pickBranch(), BenchmarkTree.originator(tree.model, state++));
+    }
+
+    @Benchmark
+    public MementoRef appendToNewBranch() {
+        return tree.model.appendToNewBranch(tree.pickMemento(), BenchmarkTree.originator(tree.model, state++));
+    }
+
+    @Benchmark
+    public boolean replace() {
+        return tree.model.replace(BenchmarkTree.originator(tree.pickMemento(), state++, false));
+    }
+
+    @Benchmark
+    public List<MementoId> getMementos() {
+        return tree.model.getMementos(tree.pickBranch());
+    }
+
+}
@@ -0,0 +1,81 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.control.Option;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.geometry.BoundingBox;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates of a virtualized {@link MementoView} in both render modes, running headless: appending a memento (model
+ * change, delivery to the view, layout, creating/moving nodes or repainting the canvas), and scrolling. Measurements
+ * include the hand-off to the JavaFX application thread, but not the rendering of the scene graph into pixels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw"})
+public class MementoViewBenchmark {
+
+    private static final double VIEWPORT_WIDTH = 800;
+    private static final double VIEWPORT_HEIGHT = 600;
+
+    @Param({"DEEP", "WIDE", "BUSHY"})
+    public TreeShape shape;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"NODES", "CANVAS"})
+    public MementoView.RenderMode renderMode;
+
+    private BenchmarkTree tree;
+    private MementoView<Integer> view;
+    private int state;
+
+    @Setup(Level.Iteration)
+    public void createView() throws Exception {
+        FxPlatform.start();
+        tree = BenchmarkTree.generate(shape, size);
+        state = size;
+        view = FxPlatform.call(() -> {
+            MementoView<Integer> mementoView = new MementoView<>(tree.model, new SimpleObjectProperty<>(Option.none()), branchId -> Color.GREY, renderMode);
+            mementoView.viewportProperty().set(Option.some(new BoundingBox(0, 0, VIEWPORT_WIDTH, VIEWPORT_HEIGHT)));
+            return mementoView;
+        });
+    }
+
+    @Benchmark
+    public Object appendToBranch() throws Exception {
+        MementoBranchId branchId = tree.pickBranch();
+        tree.model.appendToBranch(branchId, BenchmarkTree.originator(tree.model.newMementoId(), state++, true));
+        // the view is updated on the application thread, before anything queued afterwards
+        return FxPlatform.call(() -> view);
+    }
+
+    @Benchmark
+    public Object scroll() throws Exception {
+        return FxPlatform.call(() -> {
+            double x = tree.pick((int) Math.max(1, view.prefWidth(-1) - VIEWPORT_WIDTH));
+            double y = tree.pick((int) Math.max(1, view.prefHeight(-1) - VIEWPORT_HEIGHT));
+            view.viewportProperty().set(Option.some(new BoundingBox(x, y, VIEWPORT_WIDTH, VIEWPORT_HEIGHT)));
+            return view;
+        });
+    }
+
+}
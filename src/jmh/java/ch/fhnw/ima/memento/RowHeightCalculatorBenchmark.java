@@ -0,0 +1,64 @@
+package ch.fhnw.ima.memento;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row heights of branch suffixes (see {@link RowHeightCalculator}) at random positions of a generated tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowHeightCalculatorBenchmark {
+
+    @Param({"DEEP", "WIDE", "BUSHY"})
+    public TreeShape shape;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private BenchmarkTree tree;
+    private RowHeightCalculator<Integer> calculator;
+
+    // branch and index of every memento, looked up in advance
+    private MementoBranchId[] mementoBranchIds;
+    private int[] mementoIndices;
+
+    @Setup
+    public void generateTree() {
+        tree = BenchmarkTree.generate(shape, size);
+        calculator = new RowHeightCalculator<>(tree.model);
+        mementoBranchIds = new MementoBranchId[tree.mementoIds.length];
+        mementoIndices = new int[tree.mementoIds.length];
+        for (int i = 0; i < tree.mementoIds.length; i++) {
+            mementoBranchIds[i] = tree.model.getMementoRef(tree.mementoIds[i]).get().getBranchId();
+            mementoIndices[i] = tree.model.getIndex(tree.mementoIds[i]).get();
+        }
+    }
+
+    @Benchmark
+    public int calcRowHeight() {
+        int memento = tree.pick(mementoIndices.length);
+        return calculator.calcRowHeight(mementoBranchIds[memento], mementoIndices[memento]);
+    }
+
+    @Benchmark
+    public int calcBranchRowHeight() {
+        return calculator.calcRowHeight(tree.pickBranch());
+    }
+
+}
@@ -0,0 +1,24 @@
+package ch.fhnw.ima.memento;
+
+/**
+ * Shapes of the trees generated for benchmarks (see {@link BenchmarkTree}).
+ */
+public enum TreeShape {
+
+    /**
+     * All mementos on the master branch.
+     */
+    DEEP,
+
+    /**
+     * A single root memento, off which every other memento forks its own branch.
+     */
+    WIDE,
+
+    /**
+     * A random mix (with a fixed seed): mostly appending to the tips of existing branches, sometimes forking off an
+     * arbitrary memento, similar to a typical user session.
+     */
+    BUSHY
+
+}
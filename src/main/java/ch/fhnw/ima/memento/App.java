@@ -14,12 +14,14 @@ import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.ReadOnlyBooleanProperty;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.StringProperty;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
@@ -50,7 +52,7 @@ public class App extends Application {
         MementoModel<Integer> model = new MementoModel<>();
         ObjectProperty<Option<MementoRef>> selectionModel = new SimpleObjectProperty<>(Option.none());
         MementoView<Integer> mementoView = new MementoView<>(model, selectionModel, colorHandler);
-        Pane controlPanel = createControlPanel(model, mementoView.getSelectionModel(), mementoView.appendAllowedProperty());
+        Pane controlPanel = createControlPanel(model, mementoView.getSelectionModel(), mementoView.appendAllowedProperty(), mementoView.searchQueryProperty());
 
         model.addListener(mementoRef -> selectionModel.set(Option.some(mementoRef)));
 
@@ -59,7 +61,9 @@ public class App extends Application {
 
         BorderPane root = new BorderPane();
         root.setPadding(new Insets(5));
-        root.setCenter(new ScrollPane(mementoView));
+        ScrollPane scrollPane = new ScrollPane(mementoView);
+        mementoView.bindViewport(scrollPane);
+        root.setCenter(scrollPane);
         root.setBottom(controlPanel);
 
         Scene scene = new Scene(root);
@@ -76,7 +80,7 @@ public class App extends Application {
         stage.show();
     }
 
-    private Pane createControlPanel(MementoModel<Integer> model, ReadOnlyObjectProperty<Option<MementoRef>> selectionModel, ReadOnlyBooleanProperty appendAllowedProperty) {
+    private Pane createControlPanel(MementoModel<Integer> model, ReadOnlyObjectProperty<Option<MementoRef>> selectionModel, ReadOnlyBooleanProperty appendAllowedProperty, StringProperty searchQuery) {
         Label selectedMementoLabel = new Label("Selected:");
         Label selectedMementoValueLabel = new Label("–");
         selectionModel.addListener((observable, oldValue, newValue) -> {
@@ -87,6 +91,11 @@ public class App extends Application {
             }
         });
 
+        TextField searchField = new TextField();
+        searchField.setPromptText("Search");
+        searchField.setPrefColumnCount(6);
+        searchQuery.bind(searchField.textProperty());
+
         Button appendButton = new Button("Append");
         appendButton.disableProperty().bind(appendAllowedProperty.not());
         appendButton.setOnAction(e -> {
@@ -101,6 +110,13 @@ public class App extends Application {
             model.appendToNewBranch(mementoId, originator);
         });
 
+        Button pruneButton = new Button("Prune");
+        pruneButton.disableProperty().bind(Bindings.createBooleanBinding(() -> selectionModel.get().isEmpty(), selectionModel));
+        pruneButton.setOnAction(e -> {
+            MementoId mementoId = selectionModel.get().get().getMementoId();
+            model.pruneSubtree(mementoId);
+        });
+
         Button clearButton = new Button("Clear");
         clearButton.setOnAction(e -> {
             colorHandler.reset();
@@ -112,7 +128,7 @@ public class App extends Application {
         HBox centerBox = new HBox(5, selectedMementoLabel, selectedMementoValueLabel);
         centerBox.setAlignment(Pos.CENTER_LEFT);
 
-        HBox rightBox = new HBox(10, appendButton, forkButton, clearButton);
+        HBox rightBox = new HBox(10, searchField, appendButton, forkButton, pruneButton, clearButton);
         centerBox.setAlignment(Pos.CENTER_LEFT);
 
         BorderPane borderPane = new BorderPane();
@@ -0,0 +1,124 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+import io.vavr.control.Either;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Internal helper class which delivers model changes to a listener asynchronously (see
+ * {@link MementoModel#addListener(MementoModel.Listener, Executor)}).
+ * <p>
+ * Changes are queued, and a delivery is only scheduled if none is pending yet. All changes arriving until the
+ * delivery actually runs are thus coalesced into a single notification. Removals are passed on individually, in the
+ * order in which they happened relative to the changes. Deliveries never overlap, even if the executor is
+ * multi-threaded. Each delivery to the listener is measured (see {@link MetricsSink.Timer#LISTENER}).
+ * <p>
+ * An exception thrown by the listener is passed to the uncaught exception handler of the delivering thread, and the
+ * remaining changes are still delivered, so that a single failure does not silence the listener for good.
+ */
+final class CoalescingListener implements MementoModel.Listener {
+
+    private final MementoModel.Listener delegate;
+    private final Executor executor;
+    private final Supplier<MetricsSink> metricsSink;
+
+    // guarded by this: changed mementos (right) and removals (left)
+    private ArrayDeque<Either<MementoRemoval, MementoRef>> pendingEvents = new ArrayDeque<>();
+    private boolean deliveryScheduled;
+
+    CoalescingListener(MementoModel.Listener delegate, Executor executor, Supplier<MetricsSink> metricsSink) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.metricsSink = metricsSink;
+    }
+
+    MementoModel.Listener getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void modelChanged(MementoRef mementoRef) {
+        modelChanged(List.of(mementoRef));
+    }
+
+    @Override
+    public void modelChanged(List<MementoRef> mementoRefs) {
+        enqueue(mementoRefs.map(Either::right));
+    }
+
+    @Override
+    public void mementosRemoved(MementoRemoval removal) {
+        enqueue(List.of(Either.left(removal)));
+    }
+
+    private void enqueue(List<Either<MementoRemoval, MementoRef>> events) {
+        boolean scheduleDelivery;
+        synchronized (this) {
+            events.forEach(pendingEvents::add);
+            scheduleDelivery = !deliveryScheduled;
+            deliveryScheduled = true;
+        }
+        if (scheduleDelivery) {
+            executor.execute(this::deliver);
+        }
+    }
+
+    private void deliverChanges(List<MementoRef> mementoRefs) {
+        if (mementoRefs.size() == 1) {
+            notifyDelegate(listener -> listener.modelChanged(mementoRefs.head()));
+        } else {
+            notifyDelegate(listener -> listener.modelChanged(mementoRefs));
+        }
+    }
+
+    private void notifyDelegate(Consumer<MementoModel.Listener> notification) {
+        try {
+            MementoModel.notify(metricsSink.get(), delegate, notification);
+        } catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    private void deliver() {
+        boolean completed = false;
+        try {
+            while (true) {
+                ArrayDeque<Either<MementoRemoval, MementoRef>> events;
+                synchronized (this) {
+                    if (pendingEvents.isEmpty()) {
+                        deliveryScheduled = false;
+                        completed = true;
+                        return;
+                    }
+                    events = pendingEvents;
+                    pendingEvents = new ArrayDeque<>();
+                }
+                while (!events.isEmpty()) {
+                    if (events.peek().isLeft()) {
+                        MementoRemoval removal = events.poll().getLeft();
+                        notifyDelegate(listener -> listener.mementosRemoved(removal));
+                    } else {
+                        List<MementoRef> mementoRefs = List.empty();
+                        while (!events.isEmpty() && events.peek().isRight()) {
+                            mementoRefs = mementoRefs.prepend(events.poll().get());
+                        }
+                        deliverChanges(mementoRefs.reverse());
+                    }
+                }
+            }
+        } finally {
+            // e.g. after an error, the next change schedules a delivery again
+            if (!completed) {
+                synchronized (this) {
+                    deliveryScheduled = false;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.control.Option;
+
+import java.time.Duration;
+
+/**
+ * Bounds the history kept by a {@link MementoModel} (see {@link MementoModel#setCompactionPolicy(CompactionPolicy)}).
+ * <p>
+ * Compaction prunes whole subtrees (see {@link MementoModel#pruneSubtree(MementoId)}), so that the remaining mementos
+ * still form a tree. The path from the root to the focused memento (see {@link MementoModel#setFocus(MementoId)}),
+ * the last few mementos of each branch, and mementos which are still being captured are always kept, including all
+ * their ancestors.
+ * <p>
+ * Once the model holds more than the maximum number of mementos, the least recently extended subtrees are pruned
+ * until a tenth of the maximum is free again, so that compaction does not run on every single append. Subtrees which
+ * have not been extended for longer than the maximum age are pruned as well.
+ * <p>
+ * Policies are immutable, <code>with...</code> methods return a modified copy.
+ */
+public final class CompactionPolicy {
+
+    private final int maxCount;
+    private final Option<Duration> maxAge;
+    private final int keepLastPerBranch;
+
+    private CompactionPolicy(int maxCount, Option<Duration> maxAge, int keepLastPerBranch) {
+        if (maxCount < 1) {
+            throw new IllegalArgumentException("Maximum count must be positive: " + maxCount);
+        }
+        if (keepLastPerBranch < 0) {
+            throw new IllegalArgumentException("Number of kept mementos must not be negative: " + keepLastPerBranch);
+        }
+        this.maxCount = maxCount;
+        this.maxAge = maxAge;
+        this.keepLastPerBranch = keepLastPerBranch;
+    }
+
+    /**
+     * @return a policy keeping at most the given number of mementos
+     */
+    public static CompactionPolicy maxCount(int count) {
+        return new CompactionPolicy(count, Option.none(), 0);
+    }
+
+    /**
+     * @return a policy keeping mementos at most for the given time (with a precision of seconds)
+     */
+    public static CompactionPolicy maxAge(Duration age) {
+        return new CompactionPolicy(Integer.MAX_VALUE, Option.some(age), 0);
+    }
+
+    public CompactionPolicy withMaxCount(int count) {
+        return new CompactionPolicy(count, maxAge, keepLastPerBranch);
+    }
+
+    public CompactionPolicy withMaxAge(Duration age) {
+        return new CompactionPolicy(maxCount, Option.some(age), keepLastPerBranch);
+    }
+
+    /**
+     * @param count number of mementos at the end of each branch which are always kept
+     */
+    public CompactionPolicy withKeepLastPerBranch(int count) {
+        return new CompactionPolicy(maxCount, maxAge, count);
+    }
+
+    int getMaxCount() {
+        return maxCount;
+    }
+
+    Option<Duration> getMaxAge() {
+        return maxAge;
+    }
+
+    int getKeepLastPerBranch() {
+        return keepLastPerBranch;
+    }
+
+}
@@ -0,0 +1,99 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+import java.util.Arrays;
+
+/**
+ * Internal helper class which selects the subtrees to be pruned according to a {@link CompactionPolicy}.
+ * <p>
+ * Children are always numbered after their parents (see {@link MementoTopology}), so properties of whole subtrees
+ * (whether they must be kept, when they have last been extended) can be aggregated bottom-up in a single backwards
+ * loop over the dense topology.
+ */
+final class Compactor {
+
+    private static final int NONE = MementoTopology.NONE;
+
+    private Compactor() {
+    }
+
+    /**
+     * @return the roots of all subtrees to be pruned
+     */
+    static <S> List<MementoId> selectRoots(MementoTree<S> tree, CompactionPolicy policy, Option<MementoId> focus, long nowMillis) {
+        MementoTopology topology = tree.getTopology();
+        int count = topology.getMementoCount();
+        boolean[] kept = new boolean[count];
+        long[] lastExtended = new long[count];
+        for (int memento = 0; memento < count; memento++) {
+            Memento<S> m = tree.getMementoAt(memento);
+            if (m != null) {
+                kept[memento] = tree.isPending(m.getId());
+                lastExtended[memento] = tree.getAppendTime(memento);
+            }
+        }
+        for (int branch = 0; branch < topology.getBranchCount(); branch++) {
+            int memento = topology.getTip(branch);
+            for (int i = 0; i < policy.getKeepLastPerBranch() && isLive(tree, memento) && topology.getBranch(memento) == branch; i++) {
+                kept[memento] = true;
+                memento = topology.getParent(memento);
+            }
+        }
+        focus.flatMap(tree::getNumber).forEach(memento -> kept[memento] = true);
+
+        // aggregate bottom-up: ancestors of kept mementos are kept as well
+        for (int memento = count - 1; memento >= 0; memento--) {
+            int parent = isLive(tree, memento) ? topology.getParent(memento) : NONE;
+            if (parent != NONE) {
+                kept[parent] |= kept[memento];
+                lastExtended[parent] = Math.max(lastExtended[parent], lastExtended[memento]);
+            }
+        }
+
+        // top-down: descendants of pruned mementos are pruned as well
+        boolean[] pruned = new boolean[count];
+        int prunedCount = 0;
+        long expiry = policy.getMaxAge().map(maxAge -> nowMillis - maxAge.toMillis()).getOrElse(Long.MIN_VALUE);
+        for (int memento = 0; memento < count; memento++) {
+            if (isLive(tree, memento) && !kept[memento]) {
+                int parent = topology.getParent(memento);
+                pruned[memento] = (parent != NONE && pruned[parent]) || lastExtended[memento] <= expiry;
+                prunedCount += pruned[memento] ? 1 : 0;
+            }
+        }
+
+        int remainingCount = tree.getMementoCount() - prunedCount;
+        if (remainingCount > policy.getMaxCount()) {
+            // least recently extended first, descendants before their ancestors
+            int targetCount = policy.getMaxCount() - policy.getMaxCount() / 10;
+            long[] candidates = new long[count];
+            int candidateCount = 0;
+            for (int memento = 0; memento < count; memento++) {
+                if (isLive(tree, memento) && !kept[memento] && !pruned[memento]) {
+                    candidates[candidateCount++] = (lastExtended[memento] / 1000) << 32 | (0xffffffffL - memento);
+                }
+            }
+            Arrays.sort(candidates, 0, candidateCount);
+            for (int i = 0; i < candidateCount && remainingCount > targetCount; i++) {
+                pruned[(int) (0xffffffffL - (candidates[i] & 0xffffffffL))] = true;
+                remainingCount--;
+            }
+        }
+
+        List<MementoId> roots = List.empty();
+        for (int memento = count - 1; memento >= 0; memento--) {
+            int parent = pruned[memento] ? topology.getParent(memento) : NONE;
+            if (pruned[memento] && (parent == NONE || !pruned[parent])) {
+                roots = roots.prepend(tree.getMementoAt(memento).getId());
+            }
+        }
+        return roots;
+    }
+
+    private static <S> boolean isLive(MementoTree<S> tree, int memento) {
+        return memento != NONE && tree.getMementoAt(memento) != null;
+    }
+
+}
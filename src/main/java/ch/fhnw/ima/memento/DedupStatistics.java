@@ -0,0 +1,42 @@
+package ch.fhnw.ima.memento;
+
+/**
+ * Describes how well the states of a model are deduplicated (see {@link MementoModel#getDedupStatistics()}).
+ */
+public final class DedupStatistics {
+
+    private final long stateCount;
+    private final long distinctStateCount;
+
+    DedupStatistics(long stateCount, long distinctStateCount) {
+        this.stateCount = stateCount;
+        this.distinctStateCount = distinctStateCount;
+    }
+
+    /**
+     * @return the number of mementos whose states are kept
+     */
+    public long getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * @return the number of instances actually stored
+     */
+    public long getDistinctStateCount() {
+        return distinctStateCount;
+    }
+
+    /**
+     * @return the number of states per stored instance (1 if nothing has been deduplicated)
+     */
+    public double getDedupRatio() {
+        return distinctStateCount == 0 ? 1 : (double) stateCount / distinctStateCount;
+    }
+
+    @Override
+    public String toString() {
+        return "DedupStatistics <" + stateCount + " states, " + distinctStateCount + " distinct>";
+    }
+
+}
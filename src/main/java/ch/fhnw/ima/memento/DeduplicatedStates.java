@@ -0,0 +1,97 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Internal helper class which shares a single instance between all equivalent states of a model.
+ * <p>
+ * Distinct states are interned in a table keyed by the {@link StateEquivalence}, and reference counted, so that a
+ * state is dropped as soon as no memento refers to it anymore.
+ *
+ * @param <S> State type of captured mementos
+ */
+final class DeduplicatedStates<S> implements StateStrategy<S> {
+
+    private final StateEquivalence<S> equivalence;
+    private final Map<Interned<S>, Interned<S>> internedStates = new HashMap<>();
+    private final Map<MementoId, Interned<S>> statesByMemento = new HashMap<>();
+
+    DeduplicatedStates(StateEquivalence<S> equivalence) {
+        this.equivalence = equivalence;
+    }
+
+    @Override
+    public synchronized Memento<S> add(Memento<S> memento, Option<MementoId> parentId) {
+        return intern(memento);
+    }
+
+    @Override
+    public synchronized Memento<S> replace(Memento<S> memento, List<MementoId> childIds) {
+        release(memento.getId());
+        return intern(memento);
+    }
+
+    @Override
+    public synchronized void remove(MementoId mementoId) {
+        release(mementoId);
+    }
+
+    @Override
+    public synchronized void clear() {
+        internedStates.clear();
+        statesByMemento.clear();
+    }
+
+    synchronized DedupStatistics getStatistics() {
+        return new DedupStatistics(statesByMemento.size(), internedStates.size());
+    }
+
+    private Memento<S> intern(Memento<S> memento) {
+        Interned<S> candidate = new Interned<>(memento.getState(), equivalence);
+        Interned<S> interned = internedStates.computeIfAbsent(candidate, key -> key);
+        interned.referenceCount++;
+        statesByMemento.put(memento.getId(), interned);
+        return new Memento<>(memento.getId(), memento.getLabel(), memento.getToolTip(), interned.state);
+    }
+
+    private void release(MementoId mementoId) {
+        Interned<S> interned = statesByMemento.remove(mementoId);
+        if (interned != null && --interned.referenceCount == 0) {
+            internedStates.remove(interned);
+        }
+    }
+
+    private static final class Interned<S> {
+
+        private final S state;
+        private final int hash;
+        private final StateEquivalence<S> equivalence;
+        private int referenceCount;
+
+        private Interned(S state, StateEquivalence<S> equivalence) {
+            this.state = state;
+            this.hash = equivalence.hash(state);
+            this.equivalence = equivalence;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Interned<S> that = (Interned<S>) o;
+            return hash == that.hash && equivalence.equivalent(state, that.state);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
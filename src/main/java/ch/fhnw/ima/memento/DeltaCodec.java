@@ -0,0 +1,33 @@
+package ch.fhnw.ima.memento;
+
+/**
+ * Encodes a state as the difference to another (base) state.
+ * <p>
+ * Used by a {@link MementoModel} in delta mode (see {@link MementoModel#MementoModel(DeltaCodec, int, int)}), which
+ * only keeps the full state of every n-th memento along a path (a "keyframe"). All other states are stored as deltas
+ * to their parent state.
+ *
+ * @param <S> State type of captured mementos
+ */
+public interface DeltaCodec<S> {
+
+    /**
+     * @return a delta which transforms the base state into the target state
+     */
+    Delta<S> diff(S base, S target);
+
+    /**
+     * An encoded difference between two states.
+     *
+     * @param <S> State type of captured mementos
+     */
+    interface Delta<S> {
+
+        /**
+         * @return the target state this delta has been created for, given the same base state
+         */
+        S applyTo(S base);
+
+    }
+
+}
@@ -0,0 +1,161 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Internal helper class which keeps memento states as deltas (see {@link DeltaCodec}).
+ * <p>
+ * The full state is only kept for keyframes, i.e. for root mementos and for every n-th memento along a path. All
+ * other states are stored as a delta to their parent state, and are reconstructed by replaying the deltas starting
+ * from the nearest keyframe. Recently reconstructed states are kept in a least-recently-used cache, so that repeated
+ * navigation (and encoding of subsequent deltas) stays cheap.
+ *
+ * @param <S> State type of captured mementos
+ */
+final class DeltaStore<S> implements StateStrategy<S> {
+
+    private final DeltaCodec<S> codec;
+    private final int keyframeInterval;
+    private final java.util.Map<MementoId, S> cache;
+
+    private Map<MementoId, EncodedState<S>> encodedStates = HashMap.empty();
+
+    DeltaStore(DeltaCodec<S> codec, int keyframeInterval, int cacheCapacity) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be positive: " + keyframeInterval);
+        }
+        this.codec = codec;
+        this.keyframeInterval = keyframeInterval;
+        this.cache = new LinkedHashMap<MementoId, S>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<MementoId, S> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+    }
+
+    /**
+     * Encodes the state of a new memento.
+     *
+     * @return the memento to be stored in the model, which reconstructs its state on demand
+     */
+    @Override
+    public synchronized Memento<S> add(Memento<S> memento, Option<MementoId> parentId) {
+        MementoId mementoId = memento.getId();
+        int keyframeDistance = parentId.flatMap(encodedStates::get).map(parent -> parent.keyframeDistance + 1).getOrElse(0);
+        if (keyframeDistance == 0 || keyframeDistance >= keyframeInterval) {
+            encodedStates = encodedStates.put(mementoId, EncodedState.keyframe(memento.getState()));
+            return memento;
+        } else {
+            S state = memento.getState();
+            DeltaCodec.Delta<S> delta = codec.diff(getState(parentId.get()), state);
+            encodedStates = encodedStates.put(mementoId, EncodedState.delta(parentId.get(), delta, keyframeDistance));
+            cache.put(mementoId, state);
+            return new Memento<>(mementoId, memento.getLabel(), memento.getToolTip(), () -> getState(mementoId));
+        }
+    }
+
+    /**
+     * Encodes the new state of an existing memento. Because the deltas of its children are based on the old state,
+     * they are re-encoded as well.
+     *
+     * @return the memento to be stored in the model, which reconstructs its state on demand
+     */
+    @Override
+    public synchronized Memento<S> replace(Memento<S> memento, List<MementoId> childIds) {
+        MementoId mementoId = memento.getId();
+        Option<EncodedState<S>> existingState = encodedStates.get(mementoId);
+        if (existingState.isEmpty()) {
+            return memento;
+        }
+
+        List<MementoId> deltaChildIds = childIds.filter(childId -> encodedStates.get(childId).map(child -> !child.isKeyframe()).getOrElse(false));
+        List<S> childStates = deltaChildIds.map(this::getState);
+
+        cache.remove(mementoId);
+        S state = memento.getState();
+        Memento<S> result;
+        EncodedState<S> encodedState = existingState.get();
+        if (encodedState.isKeyframe()) {
+            encodedStates = encodedStates.put(mementoId, EncodedState.keyframe(state));
+            result = memento;
+        } else {
+            DeltaCodec.Delta<S> delta = codec.diff(getState(encodedState.baseId), state);
+            encodedStates = encodedStates.put(mementoId, EncodedState.delta(encodedState.baseId, delta, encodedState.keyframeDistance));
+            cache.put(mementoId, state);
+            result = new Memento<>(mementoId, memento.getLabel(), memento.getToolTip(), () -> getState(mementoId));
+        }
+
+        for (int i = 0; i < deltaChildIds.size(); i++) {
+            MementoId childId = deltaChildIds.get(i);
+            EncodedState<S> child = encodedStates.get(childId).get();
+            encodedStates = encodedStates.put(childId, EncodedState.delta(mementoId, codec.diff(state, childStates.get(i)), child.keyframeDistance));
+        }
+
+        return result;
+    }
+
+    synchronized S getState(MementoId mementoId) {
+        S cachedState = cache.get(mementoId);
+        if (cachedState != null) {
+            return cachedState;
+        }
+        EncodedState<S> encodedState = encodedStates.get(mementoId).getOrElseThrow(() -> new IllegalStateException("Unknown memento: " + mementoId));
+        if (encodedState.isKeyframe()) {
+            return encodedState.keyframe;
+        } else {
+            S state = encodedState.delta.applyTo(getState(encodedState.baseId));
+            cache.put(mementoId, state);
+            return state;
+        }
+    }
+
+    @Override
+    public synchronized void remove(MementoId mementoId) {
+        encodedStates = encodedStates.remove(mementoId);
+        cache.remove(mementoId);
+    }
+
+    @Override
+    public synchronized void clear() {
+        encodedStates = HashMap.empty();
+        cache.clear();
+    }
+
+    /**
+     * Either a full keyframe state, or a delta to the state of a base memento.
+     */
+    private static final class EncodedState<S> {
+
+        private final S keyframe;
+        private final MementoId baseId;
+        private final DeltaCodec.Delta<S> delta;
+        private final int keyframeDistance;
+
+        private EncodedState(S keyframe, MementoId baseId, DeltaCodec.Delta<S> delta, int keyframeDistance) {
+            this.keyframe = keyframe;
+            this.baseId = baseId;
+            this.delta = delta;
+            this.keyframeDistance = keyframeDistance;
+        }
+
+        static <S> EncodedState<S> keyframe(S state) {
+            return new EncodedState<>(state, null, null, 0);
+        }
+
+        static <S> EncodedState<S> delta(MementoId baseId, DeltaCodec.Delta<S> delta, int keyframeDistance) {
+            return new EncodedState<>(null, baseId, delta, keyframeDistance);
+        }
+
+        boolean isKeyframe() {
+            return delta == null;
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package ch.fhnw.ima.memento;
+
+import java.util.Arrays;
+
+/**
+ * Internal helper class: an immutable, growable vector of primitive ints.
+ * <p>
+ * Values are kept in a trie of 32-element <code>int</code> arrays (plus a separate tail), so that modifications only
+ * copy the path to the affected leaf and share everything else with the original vector. Appending usually only
+ * copies the tail. Unlike a vector of boxed integers, consecutive values are stored next to each other.
+ */
+final class IntVector {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final IntVector EMPTY = new IntVector(0, BITS, new Object[0], new int[0]);
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final int[] tail;
+
+    private IntVector(int size, int shift, Object[] root, int[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    static IntVector empty() {
+        return EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return leafFor(index)[index & MASK];
+    }
+
+    IntVector append(int value) {
+        int tailSize = size - tailOffset();
+        if (tailSize < WIDTH) {
+            int[] newTail = Arrays.copyOf(tail, tailSize + 1);
+            newTail[tailSize] = value;
+            return new IntVector(size + 1, shift, root, newTail);
+        }
+        // tail is full: push it into the trie, growing a new root level if the trie is full as well
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[]{root, newPath(shift, tail)};
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new IntVector(size + 1, newShift, newRoot, new int[]{value});
+    }
+
+    IntVector set(int index, int value) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        if (index >= tailOffset()) {
+            int[] newTail = tail.clone();
+            newTail[index & MASK] = value;
+            return new IntVector(size, shift, root, newTail);
+        }
+        return new IntVector(size, shift, (Object[]) set(shift, root, index, value), tail);
+    }
+
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    private int[] leafFor(int index) {
+        if (index >= tailOffset()) {
+            return tail;
+        }
+        Object node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = ((Object[]) node)[(index >>> level) & MASK];
+        }
+        return (int[]) node;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, int[] tailNode) {
+        int subIndex = ((size - 1) >>> level) & MASK;
+        Object[] newParent = Arrays.copyOf(parent, Math.max(parent.length, subIndex + 1));
+        Object child = subIndex < parent.length ? parent[subIndex] : null;
+        if (level == BITS) {
+            newParent[subIndex] = tailNode;
+        } else if (child != null) {
+            newParent[subIndex] = pushTail(level - BITS, (Object[]) child, tailNode);
+        } else {
+            newParent[subIndex] = newPath(level - BITS, tailNode);
+        }
+        return newParent;
+    }
+
+    private static Object newPath(int level, int[] leaf) {
+        return level == 0 ? leaf : new Object[]{newPath(level - BITS, leaf)};
+    }
+
+    private static Object set(int level, Object node, int index, int value) {
+        if (level == 0) {
+            int[] newLeaf = ((int[]) node).clone();
+            newLeaf[index & MASK] = value;
+            return newLeaf;
+        }
+        Object[] newNode = ((Object[]) node).clone();
+        int subIndex = (index >>> level) & MASK;
+        newNode[subIndex] = set(level - BITS, newNode[subIndex], index, value);
+        return newNode;
+    }
+
+}
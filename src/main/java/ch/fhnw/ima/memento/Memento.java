@@ -1,5 +1,9 @@
 package ch.fhnw.ima.memento;
 
+import io.vavr.control.Option;
+
+import java.util.function.Supplier;
+
 /**
  * An immutable snapshot of state.
  * Inspired by the classic <a href="https://en.wikipedia.org/wiki/Memento_pattern">Memento Pattern</a>.
@@ -12,15 +16,40 @@ public final class Memento<S> {
     private final MementoId id;
     private final String label;
     private final String toolTip;
-    private final S state;
+    private final Supplier<S> state;
 
     public Memento(MementoId id, String label, String toolTip, S state) {
+        this(id, label, toolTip, () -> state);
+    }
+
+    /**
+     * Constructs a memento whose state is provided on demand (e.g. reconstructed from a delta).
+     */
+    Memento(MementoId id, String label, String toolTip, Supplier<S> state) {
         this.id = id;
         this.label = label;
         this.toolTip = toolTip;
         this.state = state;
     }
 
+    /**
+     * Constructs a memento whose state is only loaded when it is first requested (e.g. to defer copying or
+     * serializing application state until a memento is actually restored). The loaded state is kept until it is
+     * {@link #release() released}, and loaded again on the next request.
+     *
+     * @param loader provides the state, may be called from any thread requesting it
+     */
+    public static <S> Memento<S> lazy(MementoId id, String label, String toolTip, Supplier<S> loader) {
+        return new Memento<>(id, label, toolTip, new LazyState<>(loader));
+    }
+
+    /**
+     * @return this memento stored under another id, sharing its state (which is thus neither copied nor loaded)
+     */
+    Memento<S> withId(MementoId id) {
+        return new Memento<>(id, label, toolTip, state);
+    }
+
     public MementoId getId() {
         return id;
     }
@@ -34,7 +63,64 @@ public final class Memento<S> {
     }
 
     public S getState() {
-        return state;
+        return state.get();
+    }
+
+    /**
+     * @return whether the state is currently held by this memento (always true, unless it is a {@link #lazy} one)
+     */
+    public boolean isLoaded() {
+        return !(state instanceof LazyState) || ((LazyState<S>) state).isLoaded();
+    }
+
+    /**
+     * Drops the state of a {@link #lazy} memento, which is loaded again on the next request. Has no effect on other
+     * mementos.
+     */
+    public void release() {
+        if (state instanceof LazyState) {
+            ((LazyState<S>) state).release();
+        }
+    }
+
+    /**
+     * Memoizes the state provided by a loader. The loaded state is held in a single reference, so that a concurrent
+     * release never causes a request to return a missing state.
+     */
+    private static final class LazyState<S> implements Supplier<S> {
+
+        private final Supplier<S> loader;
+
+        // none until loaded (the state itself may be null)
+        private volatile Option<S> loaded = Option.none();
+
+        private LazyState(Supplier<S> loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public S get() {
+            Option<S> current = loaded;
+            if (current.isEmpty()) {
+                synchronized (this) {
+                    current = loaded;
+                    if (current.isEmpty()) {
+                        current = Option.some(loader.get());
+                        loaded = current;
+                    }
+                }
+            }
+            return current.get();
+        }
+
+        boolean isLoaded() {
+            return loaded.isDefined();
+        }
+
+        synchronized void release() {
+            loaded = Option.none();
+        }
+
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,267 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.Function1;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.value.ObservableValue;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.VPos;
+import javafx.scene.Cursor;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Tooltip;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.text.TextAlignment;
+
+import static ch.fhnw.ima.memento.MementoView.*;
+
+/**
+ * Internal helper class which paints a {@link MementoLayout} onto a single {@link Canvas} instead of creating scene
+ * graph nodes for each memento (see {@link MementoView.RenderMode#CANVAS}).
+ * <p>
+ * The canvas only covers a given area of the layout (usually the viewport). Model, selection and hover changes only
+ * repaint the (dirty) regions which are actually affected. Clicks and hovering are mapped to mementos by hit-testing
+ * the layout coordinates.
+ *
+ * @param <S> State type of mementos kept in model
+ */
+final class MementoCanvas<S> extends Canvas {
+
+    // paint area around circles, accounting for stroke widths
+    private static final double PAINT_MARGIN = LINE_STROKE_WIDTH;
+
+    // largest canvas (in pixels per dimension), larger areas are only painted partially
+    private static final double MAX_SIZE = 8192;
+
+    private final MementoModel<S> model;
+    private final ObjectProperty<Option<MementoRef>> selectionModel;
+    private final ObservableValue<Set<MementoId>> searchMatches;
+    private final Function1<MementoBranchId, Color> colorProvider;
+    private final Tooltip tooltip = new Tooltip();
+
+    private MementoLayout layout = MementoLayout.empty();
+    private Bounds area = new BoundingBox(0, 0, 0, 0);
+    private Option<MementoLayout.Cell> hoveredCell = Option.none();
+
+    MementoCanvas(MementoModel<S> model, ObjectProperty<Option<MementoRef>> selectionModel, ObservableValue<Set<MementoId>> searchMatches, Function1<MementoBranchId, Color> colorProvider) {
+        this.model = model;
+        this.selectionModel = selectionModel;
+        this.searchMatches = searchMatches;
+        this.colorProvider = colorProvider;
+
+        selectionModel.addListener((observable, oldValue, newValue) -> {
+            Option<Bounds> dirtyRegion = union(getCellBounds(oldValue), getCellBounds(newValue));
+            dirtyRegion.forEach(this::repaint);
+        });
+
+        // only mementos which started or stopped matching have to be repainted
+        searchMatches.addListener((observable, oldValue, newValue) -> {
+            Option<Bounds> dirtyRegion = Option.none();
+            for (MementoId mementoId : oldValue.diff(newValue).addAll(newValue.diff(oldValue))) {
+                dirtyRegion = union(dirtyRegion, layout.getCell(mementoId).map(MementoCanvas::getCellBounds));
+            }
+            dirtyRegion.forEach(this::repaint);
+        });
+
+        setOnMouseMoved(e -> setHoveredCell(hitTest(area.getMinX() + e.getX(), area.getMinY() + e.getY())));
+        setOnMouseExited(e -> setHoveredCell(Option.none()));
+        setOnMouseClicked(e -> hitTest(area.getMinX() + e.getX(), area.getMinY() + e.getY())
+                .forEach(cell -> selectionModel.set(Option.some(cell.getRef()))));
+    }
+
+    /**
+     * @return the area (in layout coordinates) currently covered by this canvas
+     */
+    Bounds getArea() {
+        return area;
+    }
+
+    /**
+     * Paints a new layout and/or covers a new area. If the area is unchanged, only the regions of mementos which were
+     * added, moved or removed are repainted.
+     */
+    void update(MementoLayout newLayout, Bounds newArea) {
+        MementoLayout oldLayout = layout;
+        layout = newLayout;
+        hoveredCell = hoveredCell.flatMap(cell -> newLayout.getCell(cell.getRef().getMementoId()));
+        Bounds clampedArea = new BoundingBox(newArea.getMinX(), newArea.getMinY(),
+                Math.min(newArea.getWidth(), MAX_SIZE), Math.min(newArea.getHeight(), MAX_SIZE));
+        if (!clampedArea.equals(area)) {
+            area = clampedArea;
+            setWidth(area.getWidth());
+            setHeight(area.getHeight());
+            repaint(area);
+        } else if (oldLayout != newLayout) {
+            getChangedRegion(oldLayout, newLayout).forEach(this::repaint);
+        }
+    }
+
+    /**
+     * Repaints a single memento (e.g. after it has been replaced).
+     */
+    void refresh(MementoId mementoId) {
+        layout.getCell(mementoId).forEach(cell -> repaint(getCellBounds(cell)));
+    }
+
+    private Option<Bounds> getChangedRegion(MementoLayout oldLayout, MementoLayout newLayout) {
+        Map<MementoRef, MementoLayout.Cell> oldCells = getCells(oldLayout, area);
+        Map<MementoRef, MementoLayout.Cell> newCells = getCells(newLayout, area);
+        Option<Bounds> changedRegion = Option.none();
+        for (MementoLayout.Cell oldCell : oldCells.values()) {
+            if (newCells.get(oldCell.getRef()).map(newCell -> !newCell.samePosition(oldCell)).getOrElse(true)) {
+                changedRegion = union(changedRegion, Option.some(getCellBounds(oldCell)));
+            }
+        }
+        for (MementoLayout.Cell newCell : newCells.values()) {
+            if (oldCells.get(newCell.getRef()).map(oldCell -> !oldCell.samePosition(newCell)).getOrElse(true)) {
+                changedRegion = union(changedRegion, Option.some(getCellBounds(newCell)));
+            }
+        }
+        return changedRegion;
+    }
+
+    private void setHoveredCell(Option<MementoLayout.Cell> cell) {
+        Option<MementoRef> oldRef = hoveredCell.map(MementoLayout.Cell::getRef);
+        Option<MementoRef> newRef = cell.map(MementoLayout.Cell::getRef);
+        if (!oldRef.equals(newRef)) {
+            hoveredCell = cell;
+            union(getCellBounds(oldRef), getCellBounds(newRef)).forEach(this::repaint);
+            setCursor(cell.isDefined() ? Cursor.HAND : Cursor.DEFAULT);
+            Option<String> toolTip = newRef.flatMap(ref -> model.getMemento(ref.getMementoId())).map(Memento::getToolTip);
+            if (toolTip.isDefined()) {
+                tooltip.setText(toolTip.get());
+                Tooltip.install(this, tooltip);
+            } else {
+                Tooltip.uninstall(this, tooltip);
+            }
+        }
+    }
+
+    private Option<MementoLayout.Cell> hitTest(double x, double y) {
+        int col = (int) Math.floor(x / OFFSET_X);
+        int row = (int) Math.floor(y / OFFSET_Y);
+        return layout.getCells(col, col, row, row).find(cell -> {
+            double dx = x - (cell.getCol() * OFFSET_X + CIRCLE_RADIUS);
+            double dy = y - (cell.getRow() * OFFSET_Y + CIRCLE_RADIUS);
+            return cell.getCol() == col && cell.getRow() == row && dx * dx + dy * dy <= CIRCLE_RADIUS * CIRCLE_RADIUS;
+        });
+    }
+
+    private void repaint(Bounds region) {
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.save();
+        gc.translate(-area.getMinX(), -area.getMinY());
+        gc.beginPath();
+        gc.rect(region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight());
+        gc.clip();
+        gc.clearRect(region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight());
+
+        // all cells overlapping the region have to be repainted, lines first
+        List<MementoLayout.Cell> cells = getCells(layout, region).values().toList();
+        gc.setLineWidth(LINE_STROKE_WIDTH);
+        gc.setLineCap(StrokeLineCap.ROUND);
+        gc.setStroke(LINE_COLOR);
+        for (MementoLayout.Cell cell : cells) {
+            paintLines(gc, cell);
+        }
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.CENTER);
+        for (MementoLayout.Cell cell : cells) {
+            paintLabelledCircle(gc, cell);
+        }
+        gc.restore();
+    }
+
+    private static void paintLines(GraphicsContext gc, MementoLayout.Cell cell) {
+        double x = cell.getCol() * OFFSET_X + CIRCLE_RADIUS;
+        double y = cell.getRow() * OFFSET_Y + CIRCLE_RADIUS;
+        cell.getParent().forEach(parent -> {
+            double parentX = parent.getCol() * OFFSET_X + CIRCLE_RADIUS;
+            double parentY = parent.getRow() * OFFSET_Y + CIRCLE_RADIUS;
+            // straight line within a branch, L-shape connecting parent with branch start
+            if (cell.isBranchStart()) {
+                gc.strokeLine(parentX, parentY, parentX, y);
+            }
+            gc.strokeLine(parentX, y, x, y);
+        });
+    }
+
+    private void paintLabelledCircle(GraphicsContext gc, MementoLayout.Cell cell) {
+        MementoRef ref = cell.getRef();
+        model.getMemento(ref.getMementoId()).forEach(memento -> {
+            double x = cell.getCol() * OFFSET_X;
+            double y = cell.getRow() * OFFSET_Y;
+
+            boolean selected = selectionModel.get().map(selectedRef -> selectedRef.getMementoId().equals(ref.getMementoId())).getOrElse(false);
+            boolean isHovered = hoveredCell.map(hovered -> hovered.getRef().equals(ref)).getOrElse(false);
+
+            gc.setGlobalAlpha(model.isPending(ref.getMementoId()) ? PENDING_OPACITY : 1);
+            gc.setFill(colorProvider.apply(ref.getBranchId()));
+            gc.fillOval(x, y, 2 * CIRCLE_RADIUS, 2 * CIRCLE_RADIUS);
+            gc.setLineWidth(CIRCLE_STROKE_WIDTH);
+            boolean matched = searchMatches.getValue().contains(ref.getMementoId());
+            gc.setStroke(selected || isHovered ? CIRCLE_STROKE_COLOR_SELECTED : matched ? CIRCLE_STROKE_COLOR_MATCHED : CIRCLE_STROKE_COLOR_UNSELECTED);
+            gc.strokeOval(x, y, 2 * CIRCLE_RADIUS, 2 * CIRCLE_RADIUS);
+
+            if (memento.getLabel() != null) {
+                gc.setFill(Color.BLACK);
+                gc.fillText(memento.getLabel(), x + CIRCLE_RADIUS, y + CIRCLE_RADIUS);
+            }
+            gc.setGlobalAlpha(1);
+        });
+    }
+
+    private Option<Bounds> getCellBounds(Option<MementoRef> ref) {
+        return ref.flatMap(r -> layout.getCell(r.getMementoId())).map(MementoCanvas::getCellBounds);
+    }
+
+    /**
+     * @return the bounds of a memento's circle and the lines connecting it to its parent
+     */
+    private static Bounds getCellBounds(MementoLayout.Cell cell) {
+        double minX = cell.getCol() * OFFSET_X;
+        double minY = cell.getRow() * OFFSET_Y;
+        if (cell.getParent().isDefined()) {
+            minX = Math.min(minX, cell.getParent().get().getCol() * OFFSET_X);
+            minY = Math.min(minY, cell.getParent().get().getRow() * OFFSET_Y);
+        }
+        double maxX = cell.getCol() * OFFSET_X + 2 * CIRCLE_RADIUS;
+        double maxY = cell.getRow() * OFFSET_Y + 2 * CIRCLE_RADIUS;
+        return new BoundingBox(minX - PAINT_MARGIN, minY - PAINT_MARGIN,
+                maxX - minX + 2 * PAINT_MARGIN, maxY - minY + 2 * PAINT_MARGIN);
+    }
+
+    private static Map<MementoRef, MementoLayout.Cell> getCells(MementoLayout layout, Bounds region) {
+        // one additional column/row to include lines reaching into the region from neighbouring cells
+        int minCol = (int) Math.floor((region.getMinX() - 2 * CIRCLE_RADIUS) / OFFSET_X) - 1;
+        int maxCol = (int) Math.floor(region.getMaxX() / OFFSET_X) + 1;
+        int minRow = (int) Math.floor((region.getMinY() - 2 * CIRCLE_RADIUS) / OFFSET_Y) - 1;
+        int maxRow = (int) Math.floor(region.getMaxY() / OFFSET_Y) + 1;
+        Map<MementoRef, MementoLayout.Cell> cells = HashMap.empty();
+        for (MementoLayout.Cell cell : layout.getCells(minCol, maxCol, minRow, maxRow)) {
+            cells = cells.put(cell.getRef(), cell);
+        }
+        return cells;
+    }
+
+    private static Option<Bounds> union(Option<Bounds> a, Option<Bounds> b) {
+        if (a.isEmpty()) {
+            return b;
+        } else if (b.isEmpty()) {
+            return a;
+        } else {
+            double minX = Math.min(a.get().getMinX(), b.get().getMinX());
+            double minY = Math.min(a.get().getMinY(), b.get().getMinY());
+            double maxX = Math.max(a.get().getMaxX(), b.get().getMaxX());
+            double maxY = Math.max(a.get().getMaxY(), b.get().getMaxY());
+            return Option.some(new BoundingBox(minX, minY, maxX - minX, maxY - minY));
+        }
+    }
+
+}
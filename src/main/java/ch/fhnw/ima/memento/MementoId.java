@@ -1,6 +1,5 @@
 package ch.fhnw.ima.memento;
 
-import java.util.Objects;
 import java.util.UUID;
 
 /**
@@ -28,12 +27,12 @@ public interface MementoId {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             DefaultMementoId aDefault = (DefaultMementoId) o;
-            return Objects.equals(value, aDefault.value);
+            return value.equals(aDefault.value);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(value);
+            return value.hashCode();
         }
 
         @Override
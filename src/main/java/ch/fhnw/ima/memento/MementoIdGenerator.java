@@ -0,0 +1,152 @@
+package ch.fhnw.ima.memento;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the ids of mementos and branches. A model uses its generator for all ids it creates itself (branches,
+ * async placeholders, restored mementos), and originators can use it via {@link MementoModel#newMementoId()}.
+ */
+public interface MementoIdGenerator {
+
+    MementoId newMementoId();
+
+    MementoBranchId newBranchId();
+
+    /**
+     * Random {@link UUID UUIDs}, which are globally unique, but comparatively expensive to create.
+     */
+    static MementoIdGenerator random() {
+        return RandomIds.INSTANCE;
+    }
+
+    /**
+     * Numbers the ids with a 64-bit sequence, which is cheap to create, compare and hash. Ids are only unique within
+     * the returned generator, i.e. every model should get its own one.
+     */
+    static MementoIdGenerator sequential() {
+        return new SequentialIds();
+    }
+
+    final class RandomIds implements MementoIdGenerator {
+
+        private static final RandomIds INSTANCE = new RandomIds();
+
+        private RandomIds() {
+        }
+
+        @Override
+        public MementoId newMementoId() {
+            return new MementoId.DefaultMementoId();
+        }
+
+        @Override
+        public MementoBranchId newBranchId() {
+            return new RandomBranchId();
+        }
+
+        private static final class RandomBranchId implements MementoBranchId {
+
+            private final UUID value = UUID.randomUUID();
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) return true;
+                if (o == null || getClass() != o.getClass()) return false;
+                return value.equals(((RandomBranchId) o).value);
+            }
+
+            @Override
+            public int hashCode() {
+                return value.hashCode();
+            }
+
+            @Override
+            public String toString() {
+                return "MementoBranchId <" + value + ">";
+            }
+
+        }
+
+    }
+
+    final class SequentialIds implements MementoIdGenerator {
+
+        private final AtomicLong sequence = new AtomicLong();
+
+        private SequentialIds() {
+        }
+
+        @Override
+        public MementoId newMementoId() {
+            return new SequentialMementoId(this, sequence.incrementAndGet());
+        }
+
+        @Override
+        public MementoBranchId newBranchId() {
+            return new SequentialBranchId(this, sequence.incrementAndGet());
+        }
+
+        private static final class SequentialMementoId implements MementoId {
+
+            private final SequentialIds generator;
+            private final long value;
+
+            private SequentialMementoId(SequentialIds generator, long value) {
+                this.generator = generator;
+                this.value = value;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) return true;
+                if (o == null || getClass() != o.getClass()) return false;
+                SequentialMementoId that = (SequentialMementoId) o;
+                return value == that.value && generator == that.generator;
+            }
+
+            @Override
+            public int hashCode() {
+                return Long.hashCode(value);
+            }
+
+            @Override
+            public String toString() {
+                return "MementoId <#" + value + ">";
+            }
+
+        }
+
+        private static final class SequentialBranchId implements MementoBranchId {
+
+            private final SequentialIds generator;
+            private final long value;
+
+            private SequentialBranchId(SequentialIds generator, long value) {
+                this.generator = generator;
+                this.value = value;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) return true;
+                if (o == null || getClass() != o.getClass()) return false;
+                SequentialBranchId that = (SequentialBranchId) o;
+                return value == that.value && generator == that.generator;
+            }
+
+            @Override
+            public int hashCode() {
+                return Long.hashCode(value);
+            }
+
+            @Override
+            public String toString() {
+                return "MementoBranchId <#" + value + ">";
+            }
+
+        }
+
+    }
+
+}
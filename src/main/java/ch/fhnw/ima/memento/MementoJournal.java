@@ -0,0 +1,562 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only write-ahead journal, which allows to recover a {@link MementoModel} after a crash.
+ * <p>
+ * Every append, replace, clear and removal is recorded as a compact binary record. Mementos and branches are referred to by
+ * their sequence number within the journal, so ids are not persisted: recovered mementos get new ids. Records are
+ * encoded before the model is modified, but written once the model's lock has been released, so that other threads
+ * are not blocked by I/O. The modification only becomes visible once its record has been written. They are only forced to disk periodically (group commit), so that a burst of modifications
+ * costs a single sync. A crash may thus lose the modifications of the last sync interval, and a partially written
+ * record at the end of the journal is discarded during recovery.
+ * <p>
+ * Usage: {@link #open(Path, StateSerializer) open} the journal, {@link #recover(MementoModel) recover} a new model,
+ * and {@link #close() close} the journal when done.
+ *
+ * @param <S> State type of captured mementos
+ */
+public final class MementoJournal<S> implements AutoCloseable {
+
+    /**
+     * Default interval (in milliseconds) in which pending records are forced to disk.
+     */
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+
+    private static final int MAGIC = 0x4d4a4e4c; // "MJNL"
+    private static final byte VERSION = 1;
+    private static final int FILE_HEADER_SIZE = Integer.BYTES + Byte.BYTES;
+
+    // every record is prefixed with its payload length and checksum
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private static final byte APPEND = 1;
+    private static final byte APPEND_TO_NEW_BRANCH = 2;
+    private static final byte REPLACE = 3;
+    private static final byte CLEAR = 4;
+    private static final byte REMOVE = 5;
+
+    private static final int MASTER_BRANCH_NUMBER = 0;
+
+    private final FileChannel channel;
+    private final StateSerializer<S> serializer;
+    private final ScheduledExecutorService syncExecutor;
+    private final RecordWriter writer = new RecordWriter();
+    private final CRC32 crc = new CRC32();
+
+    private final Map<MementoId, Integer> mementoNumbers = new HashMap<>();
+    private final Map<MementoBranchId, Integer> branchNumbers = new HashMap<>();
+
+    // numbers of removed mementos and branches are not reused
+    private int nextMementoNumber;
+    private int nextBranchNumber = MASTER_BRANCH_NUMBER + 1;
+
+    // encoded records in the order of the modifications, until they are written (see #flush())
+    private final ArrayDeque<ByteBuffer> pendingRecords = new ArrayDeque<>();
+
+    private boolean recovered;
+
+    // guards writing and syncing, which happen outside the model's lock (acquired before this journal's own lock)
+    private final Object writeLock = new Object();
+    private boolean unsynced;
+    // a record may have been written partially, so that nothing must be appended afterwards
+    private IOException writeFailure;
+
+    private MementoJournal(FileChannel channel, StateSerializer<S> serializer, long syncIntervalMillis) {
+        this.channel = channel;
+        this.serializer = serializer;
+        if (syncIntervalMillis > 0) {
+            this.syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "memento-journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.syncExecutor.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncExecutor = null;
+        }
+    }
+
+    /**
+     * Opens (or creates) a journal, which forces pending records to disk every
+     * {@link #DEFAULT_SYNC_INTERVAL_MILLIS} milliseconds.
+     */
+    public static <S> MementoJournal<S> open(Path file, StateSerializer<S> serializer) throws IOException {
+        return open(file, serializer, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens (or creates) a journal.
+     *
+     * @param syncIntervalMillis interval in which pending records are forced to disk (0 forces the records of every
+     *                           modification before it returns)
+     */
+    public static <S> MementoJournal<S> open(Path file, StateSerializer<S> serializer, long syncIntervalMillis) throws IOException {
+        if (syncIntervalMillis < 0) {
+            throw new IllegalArgumentException("Sync interval must not be negative: " + syncIntervalMillis);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new MementoJournal<>(channel, serializer, syncIntervalMillis);
+    }
+
+    /**
+     * Replays all recorded modifications into an empty model, without notifying its listeners. Afterwards, all
+     * modifications of the model are recorded in this journal.
+     * <p>
+     * Records are replayed directly into the model's content, i.e. without capturing, compacting or measuring, and
+     * the search index is only built at the end.
+     */
+    public MementoModel<S> recover(MementoModel<S> model) throws IOException {
+        Tuple2<MementoTree<S>, Long> replayed;
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (recovered) {
+                    throw new IllegalStateException("Journal has already been recovered");
+                }
+                if (model.getTree().getMementoCount() > 0) {
+                    throw new IllegalArgumentException("Model must be empty");
+                }
+                replayed = replay(model);
+                long validSize = replayed._2;
+                channel.truncate(validSize);
+                channel.position(validSize);
+                if (validSize == 0) {
+                    ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).put(VERSION);
+                    header.flip();
+                    writeFully(header);
+                }
+                channel.force(true);
+                recovered = true;
+            }
+        }
+        model.recover(replayed._1.indexed(), this);
+        return model;
+    }
+
+    /**
+     * Writes and forces all pending records to disk.
+     */
+    public void sync() throws IOException {
+        synchronized (writeLock) {
+            writePendingRecords();
+            if (unsynced) {
+                channel.force(false);
+                unsynced = false;
+            }
+        }
+    }
+
+    /**
+     * Syncs pending records and closes the journal. Modifications of a recovered model must not happen afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (syncExecutor != null) {
+            syncExecutor.shutdownNow();
+        }
+        synchronized (writeLock) {
+            if (channel.isOpen()) {
+                try {
+                    sync();
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the pending records, and forces them to disk unless that happens periodically. Called by the model after
+     * releasing its lock, so that records of other threads may be written (and forced) along with the own ones.
+     */
+    void flush() {
+        try {
+            if (syncExecutor == null) {
+                sync();
+            } else {
+                synchronized (writeLock) {
+                    writePendingRecords();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    synchronized void recordAppend(MementoBranchId branchId, Memento<S> memento) {
+        Integer branchNumber = branchNumbers.get(branchId);
+        if (branchNumber == null) {
+            throw new IllegalStateException("Unknown branch: " + branchId);
+        }
+        // encoded first, so that a failing serializer leaves the numbers untouched
+        writer.reset(APPEND);
+        writer.writeInt(branchNumber);
+        writer.writeMemento(memento);
+        enqueue();
+        mementoNumbers.put(memento.getId(), nextMementoNumber++);
+    }
+
+    synchronized void recordAppendToNewBranch(MementoId branchRoot, MementoBranchId branchId, Memento<S> memento) {
+        int branchRootNumber = getMementoNumber(branchRoot);
+        writer.reset(APPEND_TO_NEW_BRANCH);
+        writer.writeInt(branchRootNumber);
+        writer.writeMemento(memento);
+        enqueue();
+        branchNumbers.put(branchId, nextBranchNumber++);
+        mementoNumbers.put(memento.getId(), nextMementoNumber++);
+    }
+
+    /**
+     * Records the appends and replacements of a batch, either all of them or none.
+     */
+    synchronized void recordAll(java.util.List<Consumer<MementoJournal<S>>> records) {
+        int pendingCount = pendingRecords.size();
+        int mementoNumber = nextMementoNumber;
+        int branchNumber = nextBranchNumber;
+        try {
+            records.forEach(record -> record.accept(this));
+        } catch (RuntimeException e) {
+            while (pendingRecords.size() > pendingCount) {
+                pendingRecords.removeLast();
+            }
+            mementoNumbers.values().removeIf(number -> number >= mementoNumber);
+            branchNumbers.values().removeIf(number -> number >= branchNumber);
+            nextMementoNumber = mementoNumber;
+            nextBranchNumber = branchNumber;
+            throw e;
+        }
+    }
+
+    synchronized void recordReplace(Memento<S> memento) {
+        writer.reset(REPLACE);
+        writer.writeInt(getMementoNumber(memento.getId()));
+        writer.writeMemento(memento);
+        enqueue();
+    }
+
+    synchronized void recordClear(MementoModel<S> model) {
+        mementoNumbers.clear();
+        branchNumbers.clear();
+        branchNumbers.put(model.getMasterBranchId(), MASTER_BRANCH_NUMBER);
+        nextMementoNumber = 0;
+        nextBranchNumber = MASTER_BRANCH_NUMBER + 1;
+        writer.reset(CLEAR);
+        enqueue();
+    }
+
+    /**
+     * @param roots the roots of the removed subtrees
+     */
+    synchronized void recordRemove(List<MementoId> roots, MementoRemoval removal) {
+        // placeholders are only recorded once they have been filled
+        List<Integer> rootNumbers = roots.flatMap(root -> Option.of(mementoNumbers.get(root)));
+        removal.getMementoRefs().forEach(ref -> mementoNumbers.remove(ref.getMementoId()));
+        removal.getBranchIds().forEach(branchNumbers::remove);
+        if (rootNumbers.isEmpty()) {
+            return;
+        }
+        writer.reset(REMOVE);
+        writer.writeInt(rootNumbers.size());
+        rootNumbers.forEach(writer::writeInt);
+        enqueue();
+    }
+
+    private int getMementoNumber(MementoId mementoId) {
+        Integer mementoNumber = mementoNumbers.get(mementoId);
+        if (mementoNumber == null) {
+            throw new IllegalStateException("Unknown memento: " + mementoId);
+        }
+        return mementoNumber;
+    }
+
+    /**
+     * @return the replayed (unindexed) tree, and the size of the valid part of the journal, i.e. without a trailing
+     * partial or corrupt record
+     */
+    private Tuple2<MementoTree<S>, Long> replay(MementoModel<S> model) throws IOException {
+        branchNumbers.put(model.getMasterBranchId(), MASTER_BRANCH_NUMBER);
+        MementoTree<S> tree = model.getTree().unindexed();
+        long size = channel.size();
+        if (size == 0) {
+            return Tuple.of(tree, 0L);
+        }
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        if (size < FILE_HEADER_SIZE || in.readInt() != MAGIC) {
+            throw new IOException("Not a memento journal");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported journal version: " + version);
+        }
+
+        ArrayList<MementoId> mementoIds = new ArrayList<>();
+        ArrayList<MementoBranchId> branchIds = new ArrayList<>();
+        branchIds.add(model.getMasterBranchId());
+        long validSize = FILE_HEADER_SIZE;
+        byte[] payload = new byte[256];
+        while (true) {
+            int length;
+            int checksum;
+            try {
+                length = in.readInt();
+                checksum = in.readInt();
+                if (length < 1 || validSize + RECORD_HEADER_SIZE + length > size) {
+                    break;
+                }
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, 2 * payload.length)];
+                }
+                in.readFully(payload, 0, length);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            RecordReader reader = new RecordReader(ByteBuffer.wrap(payload, 0, length));
+            switch (reader.readType()) {
+                case APPEND: {
+                    MementoBranchId branchId = branchIds.get(reader.readInt());
+                    Memento<S> memento = reader.readMemento(model.newMementoId());
+                    tree = model.appending(branchId, memento).apply(tree);
+                    mementoIds.add(memento.getId());
+                    break;
+                }
+                case APPEND_TO_NEW_BRANCH: {
+                    MementoId branchRoot = mementoIds.get(reader.readInt());
+                    MementoBranchId branchId = model.newBranchId();
+                    Memento<S> memento = reader.readMemento(model.newMementoId());
+                    tree = model.forking(branchRoot, branchId, memento).apply(tree);
+                    branchIds.add(branchId);
+                    mementoIds.add(memento.getId());
+                    break;
+                }
+                case REPLACE: {
+                    MementoId mementoId = mementoIds.get(reader.readInt());
+                    tree = model.replacing(reader.readMemento(mementoId)).apply(tree);
+                    break;
+                }
+                case REMOVE: {
+                    ArrayList<MementoId> roots = new ArrayList<>();
+                    for (int i = reader.readInt(); i > 0; i--) {
+                        roots.add(mementoIds.get(reader.readInt()));
+                    }
+                    tree = model.pruning(roots).apply(tree);
+                    break;
+                }
+                case CLEAR:
+                    tree = model.clearing().apply(tree);
+                    mementoIds.clear();
+                    branchIds.clear();
+                    branchIds.add(model.getMasterBranchId());
+                    break;
+                default:
+                    throw new IOException("Unknown record type");
+            }
+            validSize += RECORD_HEADER_SIZE + length;
+        }
+
+        // removed mementos and branches keep their numbers
+        for (int i = 0; i < mementoIds.size(); i++) {
+            if (tree.contains(mementoIds.get(i))) {
+                mementoNumbers.put(mementoIds.get(i), i);
+            }
+        }
+        for (int i = 0; i < branchIds.size(); i++) {
+            if (i == MASTER_BRANCH_NUMBER || tree.getForkPoint(branchIds.get(i)).isDefined()) {
+                branchNumbers.put(branchIds.get(i), i);
+            }
+        }
+        nextMementoNumber = mementoIds.size();
+        nextBranchNumber = branchIds.size();
+        return Tuple.of(tree, validSize);
+    }
+
+    private void enqueue() {
+        ByteBuffer payload = writer.getPayload();
+        crc.reset();
+        crc.update(payload.array(), 0, payload.limit());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.limit())
+                .putInt(payload.limit()).putInt((int) crc.getValue()).put(payload);
+        record.flip();
+        pendingRecords.add(record);
+    }
+
+    private synchronized ByteBuffer pollPendingRecord() {
+        return pendingRecords.poll();
+    }
+
+    // holding the write lock
+    private void writePendingRecords() throws IOException {
+        if (writeFailure != null) {
+            throw writeFailure;
+        }
+        for (ByteBuffer record = pollPendingRecord(); record != null; record = pollPendingRecord()) {
+            try {
+                writeFully(record);
+            } catch (IOException e) {
+                writeFailure = e;
+                throw e;
+            }
+            unsynced = true;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            synchronized (writeLock) {
+                if (channel.isOpen()) {
+                    sync();
+                }
+            }
+        } catch (IOException e) {
+            // retried in the next interval, and reported by close() at the latest
+        }
+    }
+
+    /**
+     * Encodes records, using variable-length integers to keep them compact.
+     */
+    private final class RecordWriter {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        void reset(byte type) {
+            buffer.clear();
+            buffer.put(type);
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7f) != 0) {
+                buffer.put((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeInt(bytes.length);
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void writeString(String value) {
+            // 0 encodes null
+            if (value == null) {
+                writeInt(0);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeInt(bytes.length + 1);
+                ensureCapacity(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+
+        void writeMemento(Memento<S> memento) {
+            writeString(memento.getLabel());
+            writeString(memento.getToolTip());
+            writeBytes(serializer.serialize(memento.getState()));
+        }
+
+        ByteBuffer getPayload() {
+            ByteBuffer payload = buffer.duplicate();
+            payload.flip();
+            return payload;
+        }
+
+        private void ensureCapacity(int additionalBytes) {
+            if (buffer.remaining() < additionalBytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + additionalBytes));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+
+    }
+
+    private final class RecordReader {
+
+        private final ByteBuffer buffer;
+
+        RecordReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readType() {
+            return buffer.get();
+        }
+
+        int readInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        String readString() {
+            int length = readInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+
+        /**
+         * @return the recorded memento, with the given id
+         */
+        Memento<S> readMemento(MementoId mementoId) {
+            String label = readString();
+            String toolTip = readString();
+            int length = readInt();
+            ByteBuffer state = buffer.slice();
+            state.limit(length);
+            buffer.position(buffer.position() + length);
+            return new Memento<>(mementoId, label, toolTip, serializer.deserialize(state.asReadOnlyBuffer()));
+        }
+
+    }
+
+}
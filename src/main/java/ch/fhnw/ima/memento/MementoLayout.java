@@ -0,0 +1,361 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Iterator;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+
+/**
+ * Internal helper class to calculate the grid positions of all mementos in a model.
+ * <p>
+ * A layout is an immutable value: it only contains grid coordinates (columns and rows), no scene graph nodes. This
+ * allows views to compare consecutive layouts and to only touch the nodes whose position actually changed.
+ * <p>
+ * Mementos of a branch are laid out in consecutive columns of the same row. A branch forked off a memento starts in
+ * the next column, below the remaining part of the base branch (see {@link RowHeightCalculator}). Every branch thus
+ * occupies exactly one row, which allows to efficiently look up the cells located in a given area.
+ * <p>
+ * Layouts are brought up to date incrementally (see {@link #updated(MementoModel)}): an appended memento only adds
+ * its own cell, and a newly forked branch only moves the rows below it.
+ */
+final class MementoLayout {
+
+    private static final MementoLayout EMPTY = new MementoLayout(0, HashMap.empty(), HashMap.empty(), HashMap.empty(), 0, 0, Option.none());
+
+    // version of the tree this layout has been calculated for
+    private final long version;
+    private final Map<MementoId, Cell> cells;
+    private final Map<Integer, Vector<Cell>> cellsByRow;
+    private final Map<Integer, List<MementoId>> branchStartsByParentCol;
+    private final int colCount;
+    private final int rowCount;
+    // cells which have been added or moved since the previous layout, none if calculated from scratch
+    private final Option<Tuple2<Long, List<Cell>>> changedCells;
+
+    private MementoLayout(long version, Map<MementoId, Cell> cells, Map<Integer, Vector<Cell>> cellsByRow, Map<Integer, List<MementoId>> branchStartsByParentCol, int colCount, int rowCount, Option<Tuple2<Long, List<Cell>>> changedCells) {
+        this.version = version;
+        this.cells = cells;
+        this.cellsByRow = cellsByRow;
+        this.branchStartsByParentCol = branchStartsByParentCol;
+        this.colCount = colCount;
+        this.rowCount = rowCount;
+        this.changedCells = changedCells;
+    }
+
+    static MementoLayout empty() {
+        return EMPTY;
+    }
+
+    static <S> MementoLayout of(MementoModel<S> model) {
+        return of(model.getTree(), model.getMasterBranchId());
+    }
+
+    private static <S> MementoLayout of(MementoTree<S> tree, MementoBranchId masterBranchId) {
+        Builder<S> builder = new Builder<>(tree);
+        tree.getBranchNumber(masterBranchId).forEach(masterBranch -> builder.layoutBranch(masterBranch, 0, 0, Option.none()));
+        return new MementoLayout(tree.getVersion(), builder.cells, builder.cellsByRow, builder.branchStartsByParentCol, builder.colCount, builder.rowCount, Option.none());
+    }
+
+    /**
+     * Brings this layout up to date with the current tree of a model, replaying the mementos appended since this
+     * layout has been calculated. The layout is calculated from scratch if mementos have been removed meanwhile, or if
+     * there are more changes than cells.
+     */
+    <S> MementoLayout updated(MementoModel<S> model) {
+        MementoTree<S> tree = model.getTree();
+        if (tree.getVersion() == version) {
+            return this;
+        }
+        Option<List<MementoModelSnapshot.Change>> changes = tree.getVersion() > version ? tree.getChangesSince(version) : Option.none();
+        boolean incremental = changes.map(c -> c.size() <= size() && !c.exists(change -> change.getType() == MementoModelSnapshot.Change.Type.CLEARED
+                || change.getType() == MementoModelSnapshot.Change.Type.REMOVED)).getOrElse(false);
+        if (!incremental) {
+            return of(tree, model.getMasterBranchId());
+        }
+        Appender appender = new Appender(this);
+        List<MementoRef> appended = changes.get().filter(change -> change.getType() == MementoModelSnapshot.Change.Type.APPENDED)
+                .map(change -> change.getMementoRef().get());
+        for (int i = 0; i < appended.size(); i++) {
+            appender.append(tree, model.getMasterBranchId(), appended.get(i), i == appended.size() - 1);
+        }
+        return new MementoLayout(tree.getVersion(), appender.cells, appender.cellsByRow, appender.branchStartsByParentCol, appender.colCount, appender.rowCount, Option.some(Tuple.of(version, appender.changedCells)));
+    }
+
+    /**
+     * @return the cells which have been added or moved since an earlier layout, or none if they are unknown (i.e. all
+     * cells have to be compared)
+     */
+    Option<List<Cell>> getChangedCells(MementoLayout earlier) {
+        if (earlier == this) {
+            return Option.some(List.empty());
+        }
+        return changedCells.filter(changed -> changed._1 == earlier.version).map(Tuple2::_2);
+    }
+
+    /**
+     * @return all cells in drawing order (parents before children)
+     */
+    Iterable<Cell> getCells() {
+        return Iterator.range(0, rowCount).flatMap(row -> cellsByRow.getOrElse(row, Vector.empty()));
+    }
+
+    Option<Cell> getCell(MementoId mementoId) {
+        return cells.get(mementoId);
+    }
+
+    /**
+     * Looks up all cells located in the given (inclusive) area, plus the cells whose connecting lines cross it.
+     * <p>
+     * The effort is proportional to the size of the area rather than to the size of the layout.
+     */
+    List<Cell> getCells(int minCol, int maxCol, int minRow, int maxRow) {
+        List<Cell> result = List.empty();
+        for (int row = Math.max(0, minRow); row <= maxRow; row++) {
+            for (Vector<Cell> rowCells : cellsByRow.get(row)) {
+                int firstCol = rowCells.head().getCol();
+                int fromIndex = Math.max(0, minCol - firstCol);
+                int toIndex = Math.min(rowCells.size(), maxCol - firstCol + 1);
+                for (int i = fromIndex; i < toIndex; i++) {
+                    result = result.prepend(rowCells.get(i));
+                }
+            }
+        }
+        // vertical part of L-shapes connecting branches which start below the area
+        for (int col = Math.max(0, minCol); col <= maxCol; col++) {
+            for (List<MementoId> branchStarts : branchStartsByParentCol.get(col)) {
+                for (Cell cell : branchStarts.map(mementoId -> cells.get(mementoId).get())) {
+                    if (cell.getRow() > maxRow && cell.getParent().get().getRow() <= maxRow) {
+                        result = result.prepend(cell);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    boolean contains(MementoRef mementoRef) {
+        return getCell(mementoRef.getMementoId()).map(cell -> cell.getRef().equals(mementoRef)).getOrElse(false);
+    }
+
+    int size() {
+        return cells.size();
+    }
+
+    int getColCount() {
+        return colCount;
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Grid position of a single memento, including the position of its parent (if any).
+     */
+    static final class Cell {
+
+        private final MementoRef ref;
+        private final int col;
+        private final int row;
+        private final Option<Cell> parent;
+        private final boolean branchStart;
+
+        private Cell(MementoRef ref, int col, int row, Option<Cell> parent, boolean branchStart) {
+            this.ref = ref;
+            this.col = col;
+            this.row = row;
+            this.parent = parent;
+            this.branchStart = branchStart;
+        }
+
+        MementoRef getRef() {
+            return ref;
+        }
+
+        int getCol() {
+            return col;
+        }
+
+        int getRow() {
+            return row;
+        }
+
+        Option<Cell> getParent() {
+            return parent;
+        }
+
+        /**
+         * @return whether this is the first memento of a branch, i.e. whether it is connected to its parent by an
+         * L-shape rather than a straight line
+         */
+        boolean isBranchStart() {
+            return branchStart;
+        }
+
+        /**
+         * @return whether this cell and its connection to the parent are located at the same position as in the
+         * other cell
+         */
+        boolean samePosition(Cell other) {
+            return col == other.col && row == other.row && parent.map(Cell::getCol).equals(other.parent.map(Cell::getCol))
+                    && parent.map(Cell::getRow).equals(other.parent.map(Cell::getRow));
+        }
+
+    }
+
+    /**
+     * Traverses the dense topology of a single, consistent tree.
+     */
+    private static final class Builder<S> {
+
+        private final MementoTree<S> tree;
+        private final MementoTopology topology;
+        private Map<MementoId, Cell> cells = HashMap.empty();
+        private Map<Integer, Vector<Cell>> cellsByRow = HashMap.empty();
+        private Map<Integer, List<MementoId>> branchStartsByParentCol = HashMap.empty();
+        private int colCount;
+        private int rowCount;
+
+        private Builder(MementoTree<S> tree) {
+            this.tree = tree;
+            this.topology = tree.getTopology();
+        }
+
+        private void layoutBranch(int branch, int col, int row, Option<Cell> parent) {
+            MementoBranchId branchId = tree.getBranchIdAt(branch);
+            int rowHeight = topology.getRowHeight(branch);
+            int[] mementos = topology.getMementos(branch);
+            for (int i = 0; i < mementos.length; i++) {
+                MementoId mementoId = tree.getMementoAt(mementos[i]).getId();
+                Cell cell = new Cell(new MementoRef(mementoId, branchId), col + i, row, parent, i == 0 && parent.isDefined());
+                cells = cells.put(mementoId, cell);
+                cellsByRow = cellsByRow.put(row, cellsByRow.getOrElse(row, Vector.empty()).append(cell));
+                if (cell.isBranchStart()) {
+                    int parentCol = col - 1;
+                    branchStartsByParentCol = branchStartsByParentCol.put(parentCol, branchStartsByParentCol.getOrElse(parentCol, List.empty()).prepend(mementoId));
+                }
+                colCount = Math.max(colCount, col + i + 1);
+                rowCount = Math.max(rowCount, row + 1);
+
+                // row height of the remaining suffix (i + 1), derived incrementally rather than recalculated
+                rowHeight -= topology.getForkedRowHeight(mementos[i]);
+
+                int siblingRowHeightAcc = 0;
+                for (int childBranch = topology.getFirstForkedBranch(mementos[i]); childBranch != MementoTopology.NONE; childBranch = topology.getNextSibling(childBranch)) {
+                    layoutBranch(childBranch, col + i + 1, row + rowHeight + siblingRowHeightAcc, Option.some(cell));
+                    siblingRowHeightAcc += topology.getRowHeight(childBranch);
+                }
+
+                parent = Option.some(cell);
+            }
+        }
+
+    }
+
+    /**
+     * Adds the cells of appended mementos to an existing layout.
+     */
+    private static final class Appender {
+
+        private Map<MementoId, Cell> cells;
+        private Map<Integer, Vector<Cell>> cellsByRow;
+        private Map<Integer, List<MementoId>> branchStartsByParentCol;
+        private int colCount;
+        private int rowCount;
+        private List<Cell> changedCells = List.empty();
+
+        private Appender(MementoLayout layout) {
+            this.cells = layout.cells;
+            this.cellsByRow = layout.cellsByRow;
+            this.branchStartsByParentCol = layout.branchStartsByParentCol;
+            this.colCount = layout.colCount;
+            this.rowCount = layout.rowCount;
+        }
+
+        /**
+         * @param last whether the tree does not contain any mementos appended later on, i.e. whether its row heights
+         *             apply
+         */
+        private <S> void append(MementoTree<S> tree, MementoBranchId masterBranchId, MementoRef mementoRef, boolean last) {
+            Option<MementoId> parentId = tree.getParent(mementoRef.getMementoId());
+            if (parentId.isEmpty()) {
+                // the root of the master branch (a memento of another root branch is never laid out)
+                if (cells.isEmpty() && mementoRef.getBranchId().equals(masterBranchId)) {
+                    add(new Cell(mementoRef, 0, 0, Option.none(), false));
+                }
+                return;
+            }
+            Option<Cell> parent = cells.get(parentId.get());
+            if (parent.isEmpty()) {
+                return;
+            }
+            int col = parent.get().getCol() + 1;
+            if (parent.get().getRef().getBranchId().equals(mementoRef.getBranchId())) {
+                add(new Cell(mementoRef, col, parent.get().getRow(), parent, false));
+            } else {
+                int row = getForkedRow(tree, parent.get(), last);
+                moveRowsDown(row);
+                add(new Cell(mementoRef, col, row, parent, true));
+                branchStartsByParentCol = branchStartsByParentCol.put(col - 1, branchStartsByParentCol.getOrElse(col - 1, List.empty()).prepend(mementoRef.getMementoId()));
+            }
+        }
+
+        /**
+         * A new branch is the last one below its fork point, i.e. it follows all rows of the fork point's subtree: the
+         * remaining part of the base branch, plus the branches forked off the fork point before or off mementos to the
+         * right of it.
+         */
+        private <S> int getForkedRow(MementoTree<S> tree, Cell forkPoint, boolean last) {
+            MementoId forkPointId = forkPoint.getRef().getMementoId();
+            // calculating the row height of the remaining part takes as many steps as there are mementos to the left
+            int maxSteps = last ? tree.getIndex(forkPointId).get() + 1 : Integer.MAX_VALUE;
+            int row = forkPoint.getRow() + 1;
+            for (int steps = 0; row < rowCount && cellsByRow.get(row).get().head().getParent().get().getCol() >= forkPoint.getCol(); steps++) {
+                if (steps == maxSteps) {
+                    return forkPoint.getRow() + tree.getRowHeight(forkPoint.getRef().getBranchId(), maxSteps)
+                            + tree.getForkedRowHeight(forkPointId) - 1;
+                }
+                row++;
+            }
+            return row;
+        }
+
+        private void add(Cell cell) {
+            cells = cells.put(cell.getRef().getMementoId(), cell);
+            cellsByRow = cellsByRow.put(cell.getRow(), cellsByRow.getOrElse(cell.getRow(), Vector.empty()).append(cell));
+            colCount = Math.max(colCount, cell.getCol() + 1);
+            rowCount = Math.max(rowCount, cell.getRow() + 1);
+            changedCells = changedCells.prepend(cell);
+        }
+
+        /**
+         * Moves all cells located in the given row or below it one row down. Parents are located above (or to the left
+         * of) their children, so they are moved first.
+         */
+        private void moveRowsDown(int fromRow) {
+            List<Vector<Cell>> movedRows = List.empty();
+            for (int row = fromRow; row < rowCount; row++) {
+                Vector<Cell> movedRow = Vector.empty();
+                for (Cell cell : cellsByRow.get(row).get()) {
+                    Option<Cell> parent = cell.getParent().map(p -> p.getRow() >= fromRow ? cells.get(p.getRef().getMementoId()).get() : p);
+                    Cell moved = new Cell(cell.getRef(), cell.getCol(), row + 1, parent, cell.isBranchStart());
+                    cells = cells.put(moved.getRef().getMementoId(), moved);
+                    changedCells = changedCells.prepend(moved);
+                    movedRow = movedRow.append(moved);
+                }
+                movedRows = movedRows.prepend(movedRow);
+            }
+            for (Vector<Cell> movedRow : movedRows) {
+                cellsByRow = cellsByRow.put(movedRow.head().getRow(), movedRow);
+            }
+            cellsByRow = cellsByRow.remove(fromRow);
+            rowCount++;
+        }
+
+    }
+
+}
@@ -1,13 +1,21 @@
 package ch.fhnw.ima.memento;
 
-import io.vavr.collection.HashMap;
-import io.vavr.collection.LinkedHashMap;
 import io.vavr.collection.List;
-import io.vavr.collection.Map;
+import io.vavr.collection.Vector;
 import io.vavr.control.Option;
 
-import java.util.Objects;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
  * Takes care of a {@link Memento} tree.
@@ -17,6 +25,13 @@ import java.util.UUID;
  * <p>
  * Mementos are created by an {@link Originator}, who knows how to capture application state.
  * <p>
+ * A model is thread-safe: mementos can be captured and appended from many threads at once, and readers always see a
+ * consistent tree. Plain models are lock-free, whereas models with a state strategy (delta mode, retention policy,
+ * state store or deduplication) or a journal serialize their modifications. Listeners are notified on the modifying
+ * thread, unless they are added with an executor.
+ * <p>
+ * Captures, listener notifications and row height calculations can be measured with a {@link MetricsSink}.
+ * <p>
  * Loosely inspired by the classic <a href="https://en.wikipedia.org/wiki/Memento_pattern">Memento Pattern</a>, in
  * which this class takes the role of the caretaker.
  *
@@ -25,20 +40,166 @@ import java.util.UUID;
  */
 public final class MementoModel<S> {
 
+    // minimum interval between compactions which are only due to the maximum age
+    private static final long COMPACTION_INTERVAL_MILLIS = 1000;
+
+    private final MementoIdGenerator idGenerator;
     private final MementoBranchId masterBranchId;
+    private final Option<StateStrategy<S>> stateStrategy;
+
+    // All content is kept in one immutable tree, which is swapped atomically
+    private final AtomicReference<MementoTree<S>> tree = new AtomicReference<>(MementoTree.empty());
+    private final AtomicReference<List<Listener>> listeners = new AtomicReference<>(List.empty());
+    private volatile Option<MementoJournal<S>> journal = Option.none();
 
-    private List<Listener> listeners = List.empty();
-    private Map<MementoId, Memento<S>> mementos = LinkedHashMap.empty();
-    private Map<MementoId, List<MementoBranchId>> branchesByMemento = HashMap.empty();
-    private Map<MementoBranchId, List<MementoId>> mementosByBranch = HashMap.empty();
+    // guarded by this: with a journal, the most recent tree, whose records may not have been written yet (see update)
+    private MementoTree<S> latestTree = MementoTree.empty();
+
+    // Completion of placeholders which are still being captured, see appendToBranchAsync
+    private final ConcurrentHashMap<MementoId, CompletableFuture<MementoRef>> pendingCaptures = new ConcurrentHashMap<>();
+
+    private volatile Option<MementoId> focus = Option.none();
+    private volatile Option<CompactionPolicy> compactionPolicy = Option.none();
+    private volatile long lastCompactionMillis;
+    // memento count after the last compaction if it could not get below the maximum count (none otherwise)
+    private volatile int stalledCount = -1;
+
+    private volatile MetricsSink metricsSink = MetricsSink.none();
 
     @SuppressWarnings("WeakerAccess")
     public MementoModel() {
-        this.masterBranchId = new MementoBranchIdImpl();
+        this(MementoIdGenerator.random());
+    }
+
+    /**
+     * Constructs a model which creates its ids with the given generator, e.g. {@link MementoIdGenerator#sequential()}
+     * instead of the default random UUIDs.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MementoModel(MementoIdGenerator idGenerator) {
+        this(idGenerator, Option.none());
+    }
+
+    /**
+     * Constructs a model in delta mode: only every n-th state along a path is kept in full (a "keyframe"), all other
+     * states are stored as deltas to their parent state. Originators still capture full states, which are then encoded
+     * by the model. {@link Memento#getState()} reconstructs the state by replaying the deltas from the nearest keyframe.
+     *
+     * @param deltaCodec       creates and applies deltas between states
+     * @param keyframeInterval maximum number of steps between keyframes (1 means that all states are kept in full)
+     * @param cacheCapacity    number of recently reconstructed states to keep
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MementoModel(DeltaCodec<S> deltaCodec, int keyframeInterval, int cacheCapacity) {
+        this(MementoIdGenerator.random(), deltaCodec, keyframeInterval, cacheCapacity);
+    }
+
+    /**
+     * Like {@link #MementoModel(DeltaCodec, int, int)}, with the given id generator.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MementoModel(MementoIdGenerator idGenerator, DeltaCodec<S> deltaCodec, int keyframeInterval, int cacheCapacity) {
+        this(idGenerator, Option.some(new DeltaStore<>(deltaCodec, keyframeInterval, cacheCapacity)));
+    }
+
+    /**
+     * Constructs a model which bounds the memory retained by states. Once the policy's capacity is exceeded, states
+     * are evicted (but the mementos themselves are kept). {@link Memento#getState()} restores evicted states via the
+     * policy's spill target or recapturer, and fails with an {@link IllegalStateException} if neither can provide it.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MementoModel(RetentionPolicy<S> retentionPolicy) {
+        this(MementoIdGenerator.random(), retentionPolicy);
+    }
+
+    /**
+     * Like {@link #MementoModel(RetentionPolicy)}, with the given id generator.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MementoModel(MementoIdGenerator idGenerator, RetentionPolicy<S> retentionPolicy) {
+        this(idGenerator, Option.some(new RetainedStates<>(retentionPolicy)));
+    }
+
+    /**
+     * Constructs a model which keeps states serialized in a store (e.g. off-heap, see {@link OffHeapStateStore}), and
+     * only a small handle per memento on the heap. {@link Memento#getState()} deserializes the state on every call.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MementoModel(StateStore stateStore, StateSerializer<S> stateSerializer) {
+        this(MementoIdGenerator.random(), stateStore, stateSerializer);
+    }
+
+    /**
+     * Like {@link #MementoModel(StateStore, StateSerializer)}, with the given id generator.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MementoModel(MementoIdGenerator idGenerator, StateStore stateStore, StateSerializer<S> stateSerializer) {
+        this(idGenerator, Option.some(new SerializedStates<>(stateStore, stateSerializer)));
+    }
+
+    /**
+     * Constructs a model which shares a single instance between all equivalent states, e.g. when toggling a setting
+     * back and forth. Memory is thus proportional to the number of distinct states (see
+     * {@link #getDedupStatistics()}). States must not be modified after they have been captured.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MementoModel(StateEquivalence<S> stateEquivalence) {
+        this(MementoIdGenerator.random(), stateEquivalence);
+    }
+
+    /**
+     * Like {@link #MementoModel(StateEquivalence)}, with the given id generator.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public MementoModel(MementoIdGenerator idGenerator, StateEquivalence<S> stateEquivalence) {
+        this(idGenerator, Option.some(new DeduplicatedStates<>(stateEquivalence)));
+    }
+
+    private MementoModel(MementoIdGenerator idGenerator, Option<StateStrategy<S>> stateStrategy) {
+        this.idGenerator = idGenerator;
+        this.masterBranchId = idGenerator.newBranchId();
+        this.stateStrategy = stateStrategy;
+    }
+
+    /**
+     * Creates a new id with the generator of this model. Originators should use it for the mementos they capture.
+     */
+    public MementoId newMementoId() {
+        return idGenerator.newMementoId();
+    }
+
+    /**
+     * @return how well states are deduplicated, or none if this model does not deduplicate states (see
+     * {@link #MementoModel(StateEquivalence)})
+     */
+    @SuppressWarnings("unchecked")
+    public Option<DedupStatistics> getDedupStatistics() {
+        return stateStrategy.filter(DeduplicatedStates.class::isInstance)
+                .map(strategy -> ((DeduplicatedStates<S>) strategy).getStatistics());
+    }
+
+    /**
+     * Takes a consistent, read-only snapshot of the current content in constant time. Subsequent modifications of the
+     * model do not affect the snapshot's structure, labels and tool tips.
+     * <p>
+     * States are shared with the model, though: if the model keeps states as deltas, within a retention policy or in a
+     * state store, the states of mementos which have been removed from the model meanwhile (pruned, compacted or
+     * cleared) may have been dropped, and {@link Memento#getState()} then fails with an {@link IllegalStateException}.
+     */
+    public MementoModelSnapshot<S> snapshot() {
+        return new MementoModelSnapshot<>(masterBranchId, tree.get());
     }
 
     public Option<Memento<S>> getMemento(MementoId mementoId) {
-        return mementos.get(mementoId);
+        return tree.get().getMemento(mementoId);
+    }
+
+    /**
+     * @return whether a memento is a placeholder, whose state is still being captured (see
+     * {@link #appendToBranchAsync(MementoBranchId, Originator, Executor)})
+     */
+    public boolean isPending(MementoId mementoId) {
+        return tree.get().isPending(mementoId);
     }
 
     public MementoBranchId getMasterBranchId() {
@@ -46,15 +207,131 @@ public final class MementoModel<S> {
     }
 
     public List<MementoId> getMementos(MementoBranchId branchId) {
-        return mementosByBranch.get(branchId).getOrElse(List.empty());
+        return getIndexedMementos(branchId).toList();
+    }
+
+    /**
+     * Provides the mementos of a branch with effectively constant time access by index.
+     */
+    Vector<MementoId> getIndexedMementos(MementoBranchId branchId) {
+        return tree.get().getIndexedMementos(branchId);
+    }
+
+    public Option<MementoId> getMementoId(MementoBranchId branchId, int index) {
+        return tree.get().getMementoId(branchId, index);
+    }
+
+    /**
+     * @return the last memento of a branch (if any)
+     */
+    public Option<MementoId> getTip(MementoBranchId branchId) {
+        return tree.get().getTip(branchId);
+    }
+
+    /**
+     * @return whether the referenced memento is the last one of its branch, i.e. whether it can be appended to
+     */
+    public boolean isTip(MementoRef mementoRef) {
+        return getTip(mementoRef.getBranchId()).map(tip -> tip.equals(mementoRef.getMementoId())).getOrElse(false);
     }
 
     public List<MementoId> getAllMementosFlattened() {
-        return mementos.keySet().toList();
+        return tree.get().getMementoIds();
     }
 
     public List<MementoBranchId> getBranches(MementoId mementoId) {
-        return branchesByMemento.getOrElse(mementoId, List.empty());
+        return tree.get().getBranches(mementoId);
+    }
+
+    /**
+     * Finds mementos by their label and tooltip. The query is split into tokens (consecutive letters or digits), each
+     * of which must be a prefix of some token of the label or tooltip, ignoring case. E.g. "sel re" matches "Select
+     * region". Labels and tooltips are indexed as mementos are appended, replaced or removed, so the effort mostly
+     * depends on the number of matches, not on the size of the tree.
+     *
+     * @return the matching mementos in the order in which they have been appended (empty for a blank query)
+     */
+    public List<MementoRef> search(String query) {
+        return tree.get().search(query);
+    }
+
+    /**
+     * @return the branch in which a memento is located
+     */
+    public Option<MementoRef> getMementoRef(MementoId mementoId) {
+        return tree.get().getBranchId(mementoId).map(branchId -> new MementoRef(mementoId, branchId));
+    }
+
+    /**
+     * @return the index of a memento within its branch
+     */
+    public Option<Integer> getIndex(MementoId mementoId) {
+        return tree.get().getIndex(mementoId);
+    }
+
+    /**
+     * @return the memento off which a branch has been forked (empty for the master branch)
+     */
+    public Option<MementoId> getForkPoint(MementoBranchId branchId) {
+        return tree.get().getForkPoint(branchId);
+    }
+
+    /**
+     * @return the predecessor of a memento within its branch or, for the first memento of a branch, the memento off
+     * which the branch has been forked (empty for the root memento)
+     */
+    public Option<MementoId> getParent(MementoId mementoId) {
+        return tree.get().getParent(mementoId);
+    }
+
+    /**
+     * Returns the lineage of a memento, i.e. the memento itself followed by all its ancestors up to (and including)
+     * the root memento. The effort is proportional to the length of the path.
+     *
+     * @return the path to the root memento, or an empty list if the memento is not part of this model
+     */
+    public List<MementoId> getPathToRoot(MementoId mementoId) {
+        return tree.get().getPathToRoot(mementoId);
+    }
+
+    /**
+     * @return the number of ancestors of a memento (0 for the root memento)
+     */
+    public Option<Integer> getDepth(MementoId mementoId) {
+        return tree.get().getDepth(mementoId);
+    }
+
+    /**
+     * Finds the deepest memento which is an ancestor of (or equal to) both given mementos, e.g. to determine the
+     * minimal set of steps to get from one state to another. Runs in logarithmic time.
+     *
+     * @return the lowest common ancestor, or none if any of the mementos is not part of this model
+     */
+    public Option<MementoId> lowestCommonAncestor(MementoId a, MementoId b) {
+        return tree.get().lowestCommonAncestor(a, b);
+    }
+
+    /**
+     * @return the number of steps needed to get from one memento to the other via their lowest common ancestor, or
+     * none if any of the mementos is not part of this model
+     */
+    public Option<Integer> distance(MementoId a, MementoId b) {
+        MementoTree<S> current = tree.get();
+        return current.lowestCommonAncestor(a, b).map(lca -> current.getDepth(a).get() + current.getDepth(b).get() - 2 * current.getDepth(lca).get());
+    }
+
+    /**
+     * Sets the memento which is currently in focus (e.g. selected by the user). States along its path to the root can
+     * be treated preferentially, see {@link RetentionPolicy.Eviction#FOCUS_PATH_LAST}, and the path is never
+     * compacted, see {@link CompactionPolicy}.
+     */
+    public void setFocus(MementoId mementoId) {
+        focus = Option.some(mementoId);
+        if (stateStrategy.isDefined()) {
+            synchronized (this) {
+                stateStrategy.get().setFocus(getPathToRoot(mementoId));
+            }
+        }
     }
 
     public MementoId appendToMasterBranch(Originator<S> originator) {
@@ -62,58 +339,592 @@ public final class MementoModel<S> {
     }
 
     public MementoId appendToBranch(MementoBranchId branchId, Originator<S> originator) {
-        Originator.Capture<S> result = originator.createCapture();
-        Memento<S> memento = result.getMemento();
-        MementoId mementoId = memento.getId();
-        mementos = mementos.put(mementoId, memento);
-        List<MementoId> existingMementoIds = mementosByBranch.getOrElse(branchId, List.empty());
-        mementosByBranch = mementosByBranch.put(branchId, existingMementoIds.append(memento.getId()));
-        if (result.isShouldFireModelChanged()) {
-            fireModelChanged(new MementoRef(mementoId, branchId));
+        Originator.Capture<S> capture = capture(originator);
+        Memento<S> memento = capture.getMemento();
+        update(appending(branchId, memento), (j, updated) -> j.recordAppend(branchId, memento));
+        if (capture.isShouldFireModelChanged()) {
+            fireModelChanged(new MementoRef(memento.getId(), branchId));
         }
-        return mementoId;
+        compactIfDue();
+        return memento.getId();
     }
 
     public MementoRef appendToNewBranch(MementoId branchRoot, Originator<S> originator) {
-        MementoBranchId branchId = new MementoBranchIdImpl();
-        List<MementoBranchId> existingBranches = branchesByMemento.getOrElse(branchRoot, List.empty());
-        branchesByMemento = branchesByMemento.put(branchRoot, existingBranches.append(branchId));
-        MementoId mementoId = appendToBranch(branchId, originator);
-        return new MementoRef(mementoId, branchId);
+        MementoBranchId branchId = idGenerator.newBranchId();
+        Originator.Capture<S> capture = capture(originator);
+        Memento<S> memento = capture.getMemento();
+        update(forking(branchRoot, branchId, memento), (j, updated) -> j.recordAppendToNewBranch(branchRoot, branchId, memento));
+        MementoRef mementoRef = new MementoRef(memento.getId(), branchId);
+        if (capture.isShouldFireModelChanged()) {
+            fireModelChanged(mementoRef);
+        }
+        compactIfDue();
+        return mementoRef;
     }
 
     public boolean replace(Originator<S> originator) {
-        Originator.Capture<S> capture = originator.createCapture();
+        Originator.Capture<S> capture = capture(originator);
         Memento<S> memento = capture.getMemento();
         MementoId mementoId = memento.getId();
-        mementos = mementos.replaceValue(mementoId, memento);
+        MementoTree<S> updated = update(replacing(memento), (j, tree) -> {
+            if (tree.isCaptured(mementoId)) {
+                j.recordReplace(memento);
+            }
+        });
 
         if (capture.isShouldFireModelChanged()) {
-            for (MementoBranchId branchId : getBranches(mementoId)) {
+            for (MementoBranchId branchId : updated.getBranches(mementoId)) {
                 fireModelChanged(new MementoRef(mementoId, branchId));
             }
         }
 
-        return mementos.containsKey(mementoId);
+        return updated.isCaptured(mementoId);
     }
 
     public void clear() {
-        mementos = LinkedHashMap.empty();
-        branchesByMemento = HashMap.empty();
-        mementosByBranch = HashMap.empty();
+        update(clearing(), (j, updated) -> j.recordClear(this));
+    }
+
+    /**
+     * Removes a memento together with all its descendants, i.e. its successors within the branch and all branches
+     * forked off any of them. If the memento is the first one of a branch, the branch is removed as well (except for
+     * the master branch, which is only emptied). Listeners are notified once (see
+     * {@link Listener#mementosRemoved(MementoRemoval)}).
+     * <p>
+     * The effort is proportional to the number of removed mementos (plus the depth of the affected branch).
+     *
+     * @return what has been removed (nothing if the memento is not part of this model)
+     */
+    public MementoRemoval pruneSubtree(MementoId mementoId) {
+        return prune(current -> List.of(mementoId), true);
+    }
+
+    /**
+     * Removes a branch including all branches forked off it (see {@link #pruneSubtree(MementoId)}).
+     *
+     * @throws IllegalArgumentException for the master branch (use {@link #clear()} instead)
+     */
+    public MementoRemoval pruneBranch(MementoBranchId branchId) {
+        if (branchId.equals(masterBranchId)) {
+            throw new IllegalArgumentException("Master branch cannot be pruned");
+        }
+        return prune(current -> current.getMementoId(branchId, 0), true);
+    }
+
+    /**
+     * Sets the policy according to which the history is compacted automatically after appending mementos (none
+     * disables compaction). The maximum age is checked at most once per second.
+     */
+    public void setCompactionPolicy(Option<CompactionPolicy> compactionPolicy) {
+        this.compactionPolicy = compactionPolicy;
+        compact();
+    }
+
+    /**
+     * Compacts the history according to the current {@link CompactionPolicy} right away.
+     *
+     * @return what has been removed
+     */
+    public MementoRemoval compact() {
+        Option<CompactionPolicy> policy = compactionPolicy;
+        if (policy.isEmpty()) {
+            return new MementoRemoval(List.empty(), List.empty());
+        }
+        lastCompactionMillis = System.currentTimeMillis();
+        MementoRemoval removal = prune(current -> Compactor.selectRoots(current, policy.get(), focus, System.currentTimeMillis()), true);
+        int remainingCount = tree.get().getMementoCount();
+        stalledCount = remainingCount > policy.get().getMaxCount() ? remainingCount : -1;
+        return removal;
+    }
+
+    private void compactIfDue() {
+        for (CompactionPolicy policy : compactionPolicy) {
+            int count = tree.get().getMementoCount();
+            // if too many mementos had to be kept, the next attempt waits until a tenth more have been appended
+            int stalled = stalledCount;
+            boolean tooMany = count > policy.getMaxCount() && (stalled < 0 || count - stalled >= Math.max(1, stalled / 10));
+            boolean ageDue = policy.getMaxAge().isDefined() && System.currentTimeMillis() - lastCompactionMillis >= COMPACTION_INTERVAL_MILLIS;
+            if (tooMany || ageDue) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Removes the given subtrees in a single modification.
+     *
+     * @param selectRoots selects the roots of the subtrees to be removed from the current tree
+     */
+    MementoRemoval prune(Function<MementoTree<S>, Iterable<MementoId>> selectRoots, boolean fireMementosRemoved) {
+        AtomicReference<List<MementoId>> roots = new AtomicReference<>();
+        AtomicReference<MementoRemoval> removal = new AtomicReference<>();
+        update(current -> {
+            roots.set(List.ofAll(selectRoots.apply(current)).filter(current::contains));
+            MementoTree<S> pruned = pruning(roots.get()).apply(current);
+            removal.set(getRemoval(current, pruned));
+            return pruned;
+        }, (j, updated) -> {
+            if (!removal.get().isEmpty()) {
+                j.recordRemove(roots.get(), removal.get());
+            }
+        });
+        if (!removal.get().isEmpty() && fireMementosRemoved) {
+            fireMementosRemoved(removal.get());
+        }
+        return removal.get();
+    }
+
+    /**
+     * Like {@link #appendToBranchAsync(MementoBranchId, Originator, Executor)}, capturing in the common pool.
+     */
+    public CompletableFuture<MementoRef> appendToBranchAsync(MementoBranchId branchId, Originator<S> originator) {
+        return appendToBranchAsync(branchId, originator, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Appends a memento whose state is captured asynchronously, e.g. because capturing would block the UI for too
+     * long. A pending placeholder (see {@link #isPending(MementoId)}) is appended immediately, so that the tree slot is
+     * reserved (and can be drawn). Once the capture has finished, the placeholder is filled with the captured memento.
+     * <p>
+     * The memento is stored under the id of the placeholder (not the one chosen by the originator). Placeholders are
+     * filled in order along a path, i.e. overlapping captures on a branch never overtake each other. If a capture
+     * fails (or the executor rejects it), the returned future completes exceptionally and the placeholder is removed,
+     * along with anything appended on top of it.
+     *
+     * @param executor runs the capture
+     * @return completes with a reference to the memento once it has been filled in
+     */
+    public CompletableFuture<MementoRef> appendToBranchAsync(MementoBranchId branchId, Originator<S> originator, Executor executor) {
+        MementoRef mementoRef = new MementoRef(idGenerator.newMementoId(), branchId);
+        Memento<S> placeholder = createPlaceholder(mementoRef.getMementoId());
+        return appendAsync(mementoRef, Option.none(), current -> current.withAppended(branchId, placeholder), originator, executor);
+    }
+
+    /**
+     * Like {@link #appendToNewBranchAsync(MementoId, Originator, Executor)}, capturing in the common pool.
+     */
+    public CompletableFuture<MementoRef> appendToNewBranchAsync(MementoId branchRoot, Originator<S> originator) {
+        return appendToNewBranchAsync(branchRoot, originator, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Forks off a new branch immediately, and appends a memento whose state is captured asynchronously (see
+     * {@link #appendToBranchAsync(MementoBranchId, Originator, Executor)}).
+     */
+    public CompletableFuture<MementoRef> appendToNewBranchAsync(MementoId branchRoot, Originator<S> originator, Executor executor) {
+        MementoBranchId branchId = idGenerator.newBranchId();
+        MementoRef mementoRef = new MementoRef(idGenerator.newMementoId(), branchId);
+        Memento<S> placeholder = createPlaceholder(mementoRef.getMementoId());
+        return appendAsync(mementoRef, Option.some(branchRoot),
+                current -> current.withBranch(branchRoot, branchId).withAppended(branchId, placeholder), originator, executor);
+    }
+
+    private static <S> Memento<S> createPlaceholder(MementoId mementoId) {
+        return new Memento<>(mementoId, null, null, () -> {
+            throw new IllegalStateException("Memento is still being captured: " + mementoId);
+        });
+    }
+
+    private CompletableFuture<MementoRef> appendAsync(MementoRef mementoRef, Option<MementoId> branchRoot, UnaryOperator<MementoTree<S>> reservation, Originator<S> originator, Executor executor) {
+        MementoId mementoId = mementoRef.getMementoId();
+        CompletableFuture<MementoRef> filled = new CompletableFuture<>();
+        // registered before reserving, so that placeholders appended on top will wait for this one
+        pendingCaptures.put(mementoId, filled);
+        MementoTree<S> reserved = update(current -> reservation.apply(current).withPending(mementoId), (j, updated) -> {
+        });
+        fireModelChanged(mementoRef);
+        compactIfDue();
+
+        CompletableFuture<?> parentFilled = reserved.getParent(mementoId)
+                .flatMap(parentId -> Option.of(pendingCaptures.get(parentId)))
+                .map(future -> future.handle((ref, e) -> ref))
+                .getOrElse(() -> CompletableFuture.completedFuture(null));
+        try {
+            CompletableFuture.supplyAsync(() -> capture(originator), executor)
+                    .thenCombine(parentFilled, (capture, ignored) -> capture)
+                    .whenComplete((capture, e) -> {
+                        if (e != null) {
+                            abandon(mementoId, filled, e);
+                        } else {
+                            fill(mementoRef, branchRoot, capture, filled);
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            abandon(mementoId, filled, e);
+        }
+        return filled;
+    }
+
+    /**
+     * Removes a placeholder which will never be filled, along with anything appended on top of it.
+     */
+    private void abandon(MementoId mementoId, CompletableFuture<MementoRef> filled, Throwable cause) {
+        try {
+            prune(current -> current.isPending(mementoId) ? List.of(mementoId) : List.empty(), true);
+        } finally {
+            pendingCaptures.remove(mementoId);
+            filled.completeExceptionally(cause);
+        }
+    }
+
+    private void fill(MementoRef mementoRef, Option<MementoId> branchRoot, Originator.Capture<S> capture, CompletableFuture<MementoRef> filled) {
+        MementoId mementoId = mementoRef.getMementoId();
+        MementoBranchId branchId = mementoRef.getBranchId();
+        Memento<S> memento = capture.getMemento().withId(mementoId);
+        try {
+            MementoTree<S> updated = update(current -> {
+                if (!current.isPending(mementoId)) {
+                    return current;
+                }
+                Option<MementoId> parentId = current.getParent(mementoId);
+                requireJournalable(current, parentId);
+                return current.withReplaced(stateStrategy.map(strategy -> strategy.add(memento, parentId)).getOrElse(memento));
+            }, (j, tree) -> {
+                if (tree.isCaptured(mementoId)) {
+                    if (branchRoot.isDefined()) {
+                        j.recordAppendToNewBranch(branchRoot.get(), branchId, memento);
+                    } else {
+                        j.recordAppend(branchId, memento);
+                    }
+                }
+            });
+            pendingCaptures.remove(mementoId);
+            if (!updated.contains(mementoId)) {
+                filled.completeExceptionally(new CancellationException("Memento has been removed while being captured: " + mementoId));
+                return;
+            }
+            if (capture.isShouldFireModelChanged()) {
+                fireModelChanged(mementoRef);
+            }
+            filled.complete(mementoRef);
+        } catch (RuntimeException e) {
+            abandon(mementoId, filled, e);
+        }
+    }
+
+    /**
+     * Applies many modifications atomically: other threads either see all or none of them. Listeners are notified
+     * only once at the end, with all changes aggregated (see {@link Listener#modelChanged(List)}), so that e.g. a view
+     * is only updated once. If an operation fails, none of the modifications are applied.
+     */
+    public void batch(Consumer<BatchWriter<S>> operations) {
+        Batch batch;
+        if (stateStrategy.isEmpty() && journal.isEmpty()) {
+            batch = new Batch(tree.get());
+            operations.accept(batch);
+            // the tree may have been swapped meanwhile, in which case the modifications are re-applied
+            if (!tree.compareAndSet(batch.base, batch.working)) {
+                tree.updateAndGet(current -> {
+                    MementoTree<S> updated = current;
+                    for (UnaryOperator<MementoTree<S>> modification : batch.modifications) {
+                        updated = modification.apply(updated);
+                    }
+                    return updated;
+                });
+            }
+        } else {
+            Option<MementoJournal<S>> currentJournal;
+            try {
+                synchronized (this) {
+                    currentJournal = journal;
+                    batch = new Batch(getLatestTree());
+                    try {
+                        operations.accept(batch);
+                        // all or none of the modifications are recorded, and only recorded ones are applied
+                        currentJournal.forEach(j -> j.recordAll(batch.records));
+                    } catch (RuntimeException e) {
+                        batch.rollBack();
+                        throw e;
+                    }
+                    setLatestTree(batch.working);
+                }
+            } finally {
+                stateStrategy.forEach(StateStrategy::flush);
+            }
+            currentJournal.forEach(j -> {
+                j.flush();
+                publish(batch.working);
+            });
+        }
+        recordSize(tree.get());
+        if (!batch.changedMementoRefs.isEmpty()) {
+            fireModelChanged(batch.changedMementoRefs);
+        }
+        compactIfDue();
+    }
+
+    /**
+     * @return the current content, e.g. to traverse the dense topology (see {@link MementoLayout})
+     */
+    MementoTree<S> getTree() {
+        return tree.get();
+    }
+
+    MementoBranchId newBranchId() {
+        return idGenerator.newBranchId();
+    }
+
+    /**
+     * Sets content which has been built at once (see {@link MementoTree#of(io.vavr.collection.Vector,
+     * io.vavr.collection.Vector, int[], int[])}) without notifying listeners, e.g. when loading a snapshot.
+     */
+    void load(MementoTree<S> loaded) {
+        synchronized (this) {
+            tree.set(loaded);
+            latestTree = loaded;
+        }
+        recordSize(loaded);
+    }
+
+    /**
+     * Sets the content replayed from a journal without notifying listeners, and records all subsequent modifications
+     * in the journal (see {@link MementoJournal#recover(MementoModel)}).
+     */
+    void recover(MementoTree<S> recovered, MementoJournal<S> journal) {
+        synchronized (this) {
+            tree.set(recovered);
+            latestTree = recovered;
+            this.journal = Option.some(journal);
+        }
+        stateStrategy.forEach(StateStrategy::flush);
+        recordSize(recovered);
+    }
+
+    /**
+     * Returns the number of rows occupied by a branch including all of its sub-branches.
+     */
+    int getRowHeight(MementoBranchId branchId) {
+        return tree.get().getRowHeight(branchId);
+    }
+
+    /**
+     * Returns the number of rows occupied by the suffix of a branch starting at the given index (see
+     * {@link RowHeightCalculator}).
+     */
+    int getRowHeight(MementoBranchId branchId, int index) {
+        MetricsSink sink = metricsSink;
+        if (sink == MetricsSink.none()) {
+            return tree.get().getRowHeight(branchId, index);
+        }
+        long start = System.nanoTime();
+        int rowHeight = tree.get().getRowHeight(branchId, index);
+        sink.recordLatency(MetricsSink.Timer.ROW_HEIGHT, null, System.nanoTime() - start);
+        return rowHeight;
+    }
+
+    /**
+     * Returns the summed row heights of all branches forked off a memento (0 if there are none).
+     */
+    int getForkedRowHeight(MementoId mementoId) {
+        return tree.get().getForkedRowHeight(mementoId);
+    }
+
+    /**
+     * @return the memento to be stored for a memento which is about to be appended (see {@link StateStrategy})
+     */
+    private Memento<S> store(MementoTree<S> current, MementoBranchId branchId, Memento<S> memento) {
+        return stateStrategy.map(strategy -> strategy.add(memento, current.getParentOfAppended(branchId))).getOrElse(memento);
+    }
+
+    // modifications of the tree, which are also used to replay a journal
+    UnaryOperator<MementoTree<S>> appending(MementoBranchId branchId, Memento<S> memento) {
+        return current -> {
+            requireJournalable(current, current.getParentOfAppended(branchId));
+            return current.withAppended(branchId, store(current, branchId, memento));
+        };
+    }
+
+    UnaryOperator<MementoTree<S>> forking(MementoId branchRoot, MementoBranchId branchId, Memento<S> memento) {
+        return current -> {
+            requireJournalable(current, Option.some(branchRoot));
+            MementoTree<S> forked = current.withBranch(branchRoot, branchId);
+            return forked.withAppended(branchId, store(forked, branchId, memento));
+        };
+    }
+
+    /**
+     * Placeholders are only journaled once they have been captured, so journaled mementos must not depend on them.
+     */
+    private void requireJournalable(MementoTree<S> current, Option<MementoId> parentId) {
+        if (journal.isDefined() && parentId.map(current::isPending).getOrElse(false)) {
+            throw new IllegalStateException("Parent memento is still being captured: " + parentId.get());
+        }
+    }
+
+    UnaryOperator<MementoTree<S>> replacing(Memento<S> memento) {
+        MementoId mementoId = memento.getId();
+        return current -> current.isCaptured(mementoId)
+                ? current.withReplaced(stateStrategy.map(strategy -> strategy.replace(memento, current.getChildren(mementoId))).getOrElse(memento))
+                : current;
+    }
+
+    UnaryOperator<MementoTree<S>> clearing() {
+        return current -> {
+            stateStrategy.forEach(StateStrategy::clear);
+            return current.cleared();
+        };
+    }
+
+    /**
+     * @param roots the roots of the subtrees to be removed (roots which are not contained are ignored)
+     */
+    UnaryOperator<MementoTree<S>> pruning(Iterable<MementoId> roots) {
+        return current -> {
+            MementoTree<S> pruned = current.withoutSubtrees(roots);
+            stateStrategy.forEach(strategy -> getRemoval(current, pruned).getMementoRefs().forEach(ref -> strategy.remove(ref.getMementoId())));
+            return pruned;
+        };
+    }
+
+    private static <S> MementoRemoval getRemoval(MementoTree<S> current, MementoTree<S> pruned) {
+        return pruned == current ? new MementoRemoval(List.empty(), List.empty()) : pruned.getLastChange().get().getRemoval().get();
+    }
+
+    /**
+     * Applies a modification to the tree. Concurrent modifications are lock-free (the modification is simply retried
+     * if another thread has swapped the tree in between), unless a state strategy or journal is involved: their side
+     * effects must happen exactly once and in order, so that these modifications are serialized.
+     * <p>
+     * With a journal, the record is encoded first, and a modification which cannot be recorded is not applied. Records
+     * are only written (and synced) after the lock has been released, just like the strategy's deferred work (see
+     * {@link StateStrategy#flush()}), and the modified tree is only published once its record has been written.
+     *
+     * @param record records the modification in the journal, given the modified tree
+     * @return the modified tree
+     */
+    private MementoTree<S> update(UnaryOperator<MementoTree<S>> modification, BiConsumer<MementoJournal<S>, MementoTree<S>> record) {
+        MementoTree<S> updated;
+        if (stateStrategy.isEmpty() && journal.isEmpty()) {
+            updated = tree.updateAndGet(modification);
+        } else {
+            Option<MementoJournal<S>> currentJournal;
+            MementoTree<S> modified;
+            try {
+                synchronized (this) {
+                    currentJournal = journal;
+                    modified = modification.apply(getLatestTree());
+                    currentJournal.forEach(j -> record.accept(j, modified));
+                    setLatestTree(modified);
+                }
+            } finally {
+                stateStrategy.forEach(StateStrategy::flush);
+            }
+            currentJournal.forEach(j -> {
+                j.flush();
+                publish(modified);
+            });
+            updated = modified;
+        }
+        recordSize(updated);
+        return updated;
+    }
+
+    // holding the lock
+    private MementoTree<S> getLatestTree() {
+        return journal.isDefined() ? latestTree : tree.get();
+    }
+
+    // holding the lock: without a journal, modifications are published right away
+    private void setLatestTree(MementoTree<S> modified) {
+        if (journal.isDefined()) {
+            latestTree = modified;
+        } else {
+            tree.set(modified);
+        }
+    }
+
+    /**
+     * Publishes a tree whose journal records have been written, unless a later one has been published meanwhile (by
+     * a thread which has written the records of this tree along with its own ones).
+     */
+    private void publish(MementoTree<S> written) {
+        tree.accumulateAndGet(written, (current, candidate) -> candidate.getVersion() > current.getVersion() ? candidate : current);
+    }
+
+    private void recordSize(MementoTree<S> updated) {
+        MetricsSink sink = metricsSink;
+        if (sink != MetricsSink.none()) {
+            sink.recordGauge(MetricsSink.Gauge.MEMENTOS, updated.getMementoCount());
+            sink.recordGauge(MetricsSink.Gauge.BRANCHES, updated.getBranchCount());
+        }
+    }
+
+    private Originator.Capture<S> capture(Originator<S> originator) {
+        MetricsSink sink = metricsSink;
+        if (sink == MetricsSink.none()) {
+            return originator.createCapture();
+        }
+        long start = System.nanoTime();
+        try {
+            return originator.createCapture();
+        } finally {
+            sink.recordLatency(MetricsSink.Timer.CAPTURE, null, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Sets the sink receiving measurements of this model (see {@link MetricsSink.Timer} and
+     * {@link MetricsSink.Gauge}). {@link MetricsSink#none() None} by default.
+     */
+    public void setMetricsSink(MetricsSink metricsSink) {
+        this.metricsSink = metricsSink;
     }
 
     public void addListener(Listener listener) {
-        listeners = listeners.append(listener);
+        listeners.updateAndGet(current -> current.append(listener));
+    }
+
+    /**
+     * Adds a listener which is notified asynchronously via the given executor, e.g. <code>Platform::runLater</code>
+     * for listeners updating the UI. Changes which happen before a pending notification is delivered are coalesced,
+     * and the listener is notified once for all of them (see {@link Listener#modelChanged(List)}).
+     */
+    public void addListener(Listener listener, Executor executor) {
+        addListener(new CoalescingListener(listener, executor, () -> metricsSink));
     }
 
     public void removeListener(Listener listener) {
-        listeners = listeners.remove(listener);
+        listeners.updateAndGet(current -> current.filter(l -> l != listener
+                && !(l instanceof CoalescingListener && ((CoalescingListener) l).getDelegate() == listener)));
     }
 
     private void fireModelChanged(MementoRef mementoRef) {
-        for (Listener listener : listeners) {
-            listener.modelChanged(mementoRef);
+        fire(listener -> listener.modelChanged(mementoRef));
+    }
+
+    private void fireModelChanged(List<MementoRef> mementoRefs) {
+        fire(listener -> listener.modelChanged(mementoRefs));
+    }
+
+    private void fireMementosRemoved(MementoRemoval removal) {
+        fire(listener -> listener.mementosRemoved(removal));
+    }
+
+    private void fire(Consumer<Listener> notification) {
+        MetricsSink sink = metricsSink;
+        for (Listener listener : listeners.get()) {
+            // asynchronous listeners time their actual deliveries
+            if (listener instanceof CoalescingListener) {
+                notification.accept(listener);
+            } else {
+                notify(sink, listener, notification);
+            }
+        }
+    }
+
+    /**
+     * Notifies a listener, measuring how long it takes (see {@link MetricsSink.Timer#LISTENER}).
+     */
+    static void notify(MetricsSink sink, Listener listener, Consumer<Listener> notification) {
+        if (sink == MetricsSink.none()) {
+            notification.accept(listener);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            notification.accept(listener);
+        } finally {
+            sink.recordLatency(MetricsSink.Timer.LISTENER, listener.getClass().getName(), System.nanoTime() - start);
         }
     }
 
@@ -121,34 +932,140 @@ public final class MementoModel<S> {
 
         void modelChanged(MementoRef mementoRef);
 
+        /**
+         * Notifies about several changes at once (e.g. after a {@link #batch(Consumer) batch}). By default, each
+         * change is passed on individually.
+         */
+        default void modelChanged(List<MementoRef> mementoRefs) {
+            mementoRefs.forEach(this::modelChanged);
+        }
+
+        /**
+         * Notifies about mementos which have been removed at once (e.g. by {@link #pruneSubtree(MementoId)} or
+         * compaction). Ignored by default.
+         */
+        default void mementosRemoved(MementoRemoval removal) {
+        }
+
+    }
+
+    /**
+     * Modifies a model within a {@link #batch(Consumer) batch}. The methods behave like the corresponding ones of
+     * the model, but the modifications only become visible at the end of the batch.
+     *
+     * @param <S> State type of captured mementos
+     */
+    public interface BatchWriter<S> {
+
+        MementoId appendToMasterBranch(Originator<S> originator);
+
+        MementoId appendToBranch(MementoBranchId branchId, Originator<S> originator);
+
+        MementoRef appendToNewBranch(MementoId branchRoot, Originator<S> originator);
+
+        boolean replace(Originator<S> originator);
+
     }
 
-    private static final class MementoBranchIdImpl implements MementoBranchId {
+    private final class Batch implements BatchWriter<S> {
+
+        private final MementoTree<S> base;
+        private final java.util.List<UnaryOperator<MementoTree<S>>> modifications = new ArrayList<>();
+        private final java.util.List<Consumer<MementoJournal<S>>> records = new ArrayList<>();
+
+        private MementoTree<S> working;
+        private List<MementoRef> changedMementoRefs = List.empty();
 
-        private final UUID value;
+        // undo what the state strategy has taken over, latest first, in case the batch fails
+        private List<Runnable> strategyRollbacks = List.empty();
 
-        private MementoBranchIdImpl() {
-            this.value = UUID.randomUUID();
+        private Batch(MementoTree<S> base) {
+            this.base = base;
+            this.working = base;
+        }
+
+        @Override
+        public MementoId appendToMasterBranch(Originator<S> originator) {
+            return appendToBranch(masterBranchId, originator);
         }
 
         @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            MementoBranchIdImpl mementoMementoBranchIdImpl = (MementoBranchIdImpl) o;
-            return Objects.equals(value, mementoMementoBranchIdImpl.value);
+        public MementoId appendToBranch(MementoBranchId branchId, Originator<S> originator) {
+            Originator.Capture<S> capture = capture(originator);
+            Memento<S> memento = capture.getMemento();
+            apply(appending(branchId, memento), j -> j.recordAppend(branchId, memento));
+            added(memento.getId());
+            MementoRef mementoRef = new MementoRef(memento.getId(), branchId);
+            if (capture.isShouldFireModelChanged()) {
+                changedMementoRefs = changedMementoRefs.append(mementoRef);
+            }
+            return memento.getId();
         }
 
         @Override
-        public int hashCode() {
-            return Objects.hash(value);
+        public MementoRef appendToNewBranch(MementoId branchRoot, Originator<S> originator) {
+            MementoBranchId branchId = idGenerator.newBranchId();
+            Originator.Capture<S> capture = capture(originator);
+            Memento<S> memento = capture.getMemento();
+            apply(forking(branchRoot, branchId, memento), j -> j.recordAppendToNewBranch(branchRoot, branchId, memento));
+            added(memento.getId());
+            MementoRef mementoRef = new MementoRef(memento.getId(), branchId);
+            if (capture.isShouldFireModelChanged()) {
+                changedMementoRefs = changedMementoRefs.append(mementoRef);
+            }
+            return mementoRef;
         }
 
         @Override
-        public String toString() {
-            return "MementoBranchId <" + value + ">";
+        public boolean replace(Originator<S> originator) {
+            Originator.Capture<S> capture = capture(originator);
+            Memento<S> memento = capture.getMemento();
+            MementoId mementoId = memento.getId();
+            boolean contained = working.isCaptured(mementoId);
+            if (contained) {
+                keepPrevious(mementoId);
+            }
+            apply(replacing(memento), j -> {
+                if (contained) {
+                    j.recordReplace(memento);
+                }
+            });
+            if (capture.isShouldFireModelChanged()) {
+                changedMementoRefs = changedMementoRefs.appendAll(working.getBranches(mementoId).map(branchId -> new MementoRef(mementoId, branchId)));
+            }
+            return contained;
+        }
+
+        private void apply(UnaryOperator<MementoTree<S>> modification, Consumer<MementoJournal<S>> record) {
+            working = modification.apply(working);
+            modifications.add(modification);
+            records.add(record);
+        }
+
+        private void added(MementoId mementoId) {
+            for (StateStrategy<S> strategy : stateStrategy) {
+                strategyRollbacks = strategyRollbacks.prepend(() -> strategy.remove(mementoId));
+            }
+        }
+
+        // the previous state is kept, as the strategy may not be able to provide it once it has been replaced
+        private void keepPrevious(MementoId mementoId) {
+            for (StateStrategy<S> strategy : stateStrategy) {
+                Memento<S> previous = working.getMemento(mementoId).get();
+                Memento<S> restored = new Memento<>(mementoId, previous.getLabel(), previous.getToolTip(), previous.getState());
+                List<MementoId> childIds = working.getChildren(mementoId);
+                strategyRollbacks = strategyRollbacks.prepend(() -> strategy.replace(restored, childIds));
+            }
+        }
+
+        /**
+         * Reverts the state strategy, as none of the modifications are applied: added states are removed, and
+         * replaced ones are restored.
+         */
+        private void rollBack() {
+            strategyRollbacks.forEach(Runnable::run);
         }
 
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,230 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+import java.util.Objects;
+
+/**
+ * An immutable, read-only view of a {@link MementoModel} at a certain version (see {@link MementoModel#snapshot()}).
+ * <p>
+ * Every modification of a model increments its version. Consumers can remember the version of the last snapshot they
+ * processed, and later ask a newer snapshot for the changes since then (see {@link #getChangesSince(long)}), instead
+ * of rescanning the whole tree.
+ * <p>
+ * States of mementos are shared with the model, and may no longer be available once the model has removed the
+ * mementos (see {@link MementoModel#snapshot()}). Consumers which need them should read them while the model still
+ * contains the mementos.
+ *
+ * @param <S> State type of captured mementos
+ */
+public final class MementoModelSnapshot<S> {
+
+    private final MementoBranchId masterBranchId;
+    private final MementoTree<S> tree;
+
+    MementoModelSnapshot(MementoBranchId masterBranchId, MementoTree<S> tree) {
+        this.masterBranchId = masterBranchId;
+        this.tree = tree;
+    }
+
+    /**
+     * @return the number of modifications the model had seen when this snapshot was taken
+     */
+    public long getVersion() {
+        return tree.getVersion();
+    }
+
+    /**
+     * Describes how the model evolved from an earlier version to the version of this snapshot. Only the most recent
+     * modifications are kept, so consumers which fall too far behind have to rescan the snapshot.
+     *
+     * @return the changes in the order in which they happened, or none if they are no longer available
+     */
+    public Option<List<Change>> getChangesSince(long earlierVersion) {
+        return tree.getChangesSince(earlierVersion);
+    }
+
+    public Option<Memento<S>> getMemento(MementoId mementoId) {
+        return tree.getMemento(mementoId);
+    }
+
+    /**
+     * @see MementoModel#isPending(MementoId)
+     */
+    public boolean isPending(MementoId mementoId) {
+        return tree.isPending(mementoId);
+    }
+
+    public MementoBranchId getMasterBranchId() {
+        return masterBranchId;
+    }
+
+    public List<MementoId> getMementos(MementoBranchId branchId) {
+        return tree.getIndexedMementos(branchId).toList();
+    }
+
+    public Option<MementoId> getMementoId(MementoBranchId branchId, int index) {
+        return tree.getMementoId(branchId, index);
+    }
+
+    /**
+     * @see MementoModel#getTip(MementoBranchId)
+     */
+    public Option<MementoId> getTip(MementoBranchId branchId) {
+        return tree.getTip(branchId);
+    }
+
+    public List<MementoId> getAllMementosFlattened() {
+        return tree.getMementoIds();
+    }
+
+    public List<MementoBranchId> getBranches(MementoId mementoId) {
+        return tree.getBranches(mementoId);
+    }
+
+    /**
+     * @see MementoModel#search(String)
+     */
+    public List<MementoRef> search(String query) {
+        return tree.search(query);
+    }
+
+    /**
+     * @see MementoModel#getMementoRef(MementoId)
+     */
+    public Option<MementoRef> getMementoRef(MementoId mementoId) {
+        return tree.getBranchId(mementoId).map(branchId -> new MementoRef(mementoId, branchId));
+    }
+
+    /**
+     * @see MementoModel#getIndex(MementoId)
+     */
+    public Option<Integer> getIndex(MementoId mementoId) {
+        return tree.getIndex(mementoId);
+    }
+
+    /**
+     * @see MementoModel#getForkPoint(MementoBranchId)
+     */
+    public Option<MementoId> getForkPoint(MementoBranchId branchId) {
+        return tree.getForkPoint(branchId);
+    }
+
+    /**
+     * @see MementoModel#getParent(MementoId)
+     */
+    public Option<MementoId> getParent(MementoId mementoId) {
+        return tree.getParent(mementoId);
+    }
+
+    /**
+     * @see MementoModel#getPathToRoot(MementoId)
+     */
+    public List<MementoId> getPathToRoot(MementoId mementoId) {
+        return tree.getPathToRoot(mementoId);
+    }
+
+    /**
+     * @see MementoModel#getDepth(MementoId)
+     */
+    public Option<Integer> getDepth(MementoId mementoId) {
+        return tree.getDepth(mementoId);
+    }
+
+    /**
+     * @see MementoModel#lowestCommonAncestor(MementoId, MementoId)
+     */
+    public Option<MementoId> lowestCommonAncestor(MementoId a, MementoId b) {
+        return tree.lowestCommonAncestor(a, b);
+    }
+
+    /**
+     * A single modification of a model.
+     */
+    public static final class Change {
+
+        private final Type type;
+        private final Option<MementoRef> mementoRef;
+        private final Option<MementoRemoval> removal;
+
+        private Change(Type type, Option<MementoRef> mementoRef, Option<MementoRemoval> removal) {
+            this.type = type;
+            this.mementoRef = mementoRef;
+            this.removal = removal;
+        }
+
+        static Change appended(MementoRef mementoRef) {
+            return new Change(Type.APPENDED, Option.some(mementoRef), Option.none());
+        }
+
+        static Change replaced(MementoRef mementoRef) {
+            return new Change(Type.REPLACED, Option.some(mementoRef), Option.none());
+        }
+
+        static Change cleared() {
+            return new Change(Type.CLEARED, Option.none(), Option.none());
+        }
+
+        static Change removed(MementoRemoval removal) {
+            return new Change(Type.REMOVED, Option.none(), Option.some(removal));
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return the affected memento (none if the model has been cleared or mementos have been removed)
+         */
+        public Option<MementoRef> getMementoRef() {
+            return mementoRef;
+        }
+
+        /**
+         * @return the removed mementos (only defined for {@link Type#REMOVED})
+         */
+        public Option<MementoRemoval> getRemoval() {
+            return removal;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Change change = (Change) o;
+            return type == change.type && Objects.equals(mementoRef, change.mementoRef) && Objects.equals(removal, change.removal);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, mementoRef, removal);
+        }
+
+        @Override
+        public String toString() {
+            return type + mementoRef.map(ref -> " " + ref.getMementoId()).orElse(removal.map(r -> " " + r)).getOrElse("");
+        }
+
+        public enum Type {
+
+            /**
+             * A memento has been appended, either to an existing branch or to a newly forked one (in which case it is
+             * at index 0 of its branch).
+             */
+            APPENDED,
+
+            REPLACED,
+
+            CLEARED,
+
+            /**
+             * Subtrees have been pruned (see {@link #getRemoval()}).
+             */
+            REMOVED
+
+        }
+
+    }
+
+}
@@ -0,0 +1,58 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+
+import java.util.Objects;
+
+/**
+ * Describes which mementos and branches have been removed from a model at once (see
+ * {@link MementoModel#pruneSubtree(MementoId)}, {@link MementoModel#pruneBranch(MementoBranchId)} and
+ * {@link CompactionPolicy}).
+ */
+public final class MementoRemoval {
+
+    private final List<MementoRef> mementoRefs;
+    private final List<MementoBranchId> branchIds;
+
+    MementoRemoval(List<MementoRef> mementoRefs, List<MementoBranchId> branchIds) {
+        this.mementoRefs = mementoRefs;
+        this.branchIds = branchIds;
+    }
+
+    /**
+     * @return the removed mementos, including the branches they were located in
+     */
+    public List<MementoRef> getMementoRefs() {
+        return mementoRefs;
+    }
+
+    /**
+     * @return the branches which have been removed entirely (a partially removed branch keeps its remaining mementos)
+     */
+    public List<MementoBranchId> getBranchIds() {
+        return branchIds;
+    }
+
+    public boolean isEmpty() {
+        return mementoRefs.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MementoRemoval that = (MementoRemoval) o;
+        return Objects.equals(mementoRefs, that.mementoRefs) && Objects.equals(branchIds, that.branchIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mementoRefs, branchIds);
+    }
+
+    @Override
+    public String toString() {
+        return "MementoRemoval <" + mementoRefs.size() + " mementos, " + branchIds.size() + " branches>";
+    }
+
+}
@@ -0,0 +1,233 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.Vector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Saves a complete {@link MementoModel} to a single file, and loads it again.
+ * <p>
+ * The topology is laid out in flat tables: mementos are numbered such that the mementos of a branch are contiguous,
+ * and each branch is described by its fork point and its length. Labels and tool tips follow, and the serialized
+ * states make up the rest of the file. Loading only reads the tables, labels and tool tips: the states are
+ * memory-mapped and only decoded when {@link Memento#getState()} is called (on every call), so that opening even a
+ * huge snapshot is fast and only touches the pages which are actually used.
+ * <p>
+ * Ids are not persisted, i.e. loaded mementos and branches get new ids.
+ */
+public final class MementoSnapshot {
+
+    private static final int MAGIC = 0x4d534e50; // "MSNP"
+    private static final int VERSION = 1;
+
+    // magic, version, branch count, memento count
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    // fork point and length per branch, state offset and length per memento
+    private static final int BRANCH_ENTRY_SIZE = 2 * Integer.BYTES;
+    private static final int MEMENTO_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+    private static final int NO_FORK_POINT = -1;
+
+    // largest region mapped at once
+    private static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+
+    private MementoSnapshot() {
+    }
+
+    /**
+     * Writes all mementos of a model (including their states) to a file, which is created or overwritten. The model is
+     * written as of a single {@link MementoModel#snapshot() snapshot}, i.e. concurrent modifications are not included.
+     * Pending placeholders (see {@link MementoModel#isPending(MementoId)}) have no state yet, so they are skipped
+     * together with all their descendants.
+     */
+    public static <S> void write(MementoModel<S> model, Path file, StateSerializer<S> serializer) throws IOException {
+        MementoModelSnapshot<S> snapshot = model.snapshot();
+
+        // breadth-first, so that fork points are numbered before the branches forked off them
+        ArrayList<MementoBranchId> branchIds = new ArrayList<>();
+        ArrayList<Integer> branchLengths = new ArrayList<>();
+        ArrayList<MementoId> mementoIds = new ArrayList<>();
+        Map<MementoId, Integer> mementoNumbers = new HashMap<>();
+        Deque<MementoBranchId> pendingBranches = new ArrayDeque<>();
+        pendingBranches.add(snapshot.getMasterBranchId());
+        while (!pendingBranches.isEmpty()) {
+            MementoBranchId branchId = pendingBranches.poll();
+            int length = 0;
+            for (MementoId mementoId : snapshot.getMementos(branchId).takeWhile(mementoId -> !snapshot.isPending(mementoId))) {
+                mementoNumbers.put(mementoId, mementoIds.size());
+                mementoIds.add(mementoId);
+                snapshot.getBranches(mementoId).forEach(pendingBranches::add);
+                length++;
+            }
+            // branches are only written if they contain mementos (except for the master branch)
+            if (length > 0 || branchIds.isEmpty()) {
+                branchIds.add(branchId);
+                branchLengths.add(length);
+            }
+        }
+
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        for (MementoId mementoId : mementoIds) {
+            Memento<S> memento = snapshot.getMemento(mementoId).get();
+            writeString(strings, memento.getLabel());
+            writeString(strings, memento.getToolTip());
+        }
+
+        long tablesSize = (long) branchIds.size() * BRANCH_ENTRY_SIZE + (long) mementoIds.size() * MEMENTO_ENTRY_SIZE;
+        long payloadStart = HEADER_SIZE + tablesSize + strings.size();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer tables = ByteBuffer.allocate(Math.toIntExact(HEADER_SIZE + tablesSize));
+            tables.putInt(MAGIC).putInt(VERSION).putInt(branchIds.size()).putInt(mementoIds.size());
+            for (int branch = 0; branch < branchIds.size(); branch++) {
+                tables.putInt(snapshot.getForkPoint(branchIds.get(branch)).map(mementoNumbers::get).getOrElse(NO_FORK_POINT));
+                tables.putInt(branchLengths.get(branch));
+            }
+
+            // states are streamed, the tables are written once their offsets are known
+            channel.position(payloadStart);
+            long offset = payloadStart;
+            for (MementoId mementoId : mementoIds) {
+                ByteBuffer state = ByteBuffer.wrap(serializer.serialize(snapshot.getMemento(mementoId).get().getState()));
+                tables.putLong(offset).putInt(state.remaining());
+                offset += state.remaining();
+                writeFully(channel, state, -1);
+            }
+
+            tables.flip();
+            writeFully(channel, tables, 0);
+            writeFully(channel, ByteBuffer.wrap(strings.toByteArray()), HEADER_SIZE + tablesSize);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Loads a snapshot into a new model, whose states are decoded from the memory-mapped file on demand. The file must
+     * not be modified while the model is in use.
+     */
+    public static <S> MementoModel<S> read(Path file, StateSerializer<S> serializer) throws IOException {
+        return read(file, serializer, MementoIdGenerator.random());
+    }
+
+    /**
+     * Like {@link #read(Path, StateSerializer)}, creating the ids of the loaded model with the given generator.
+     */
+    public static <S> MementoModel<S> read(Path file, StateSerializer<S> serializer, MementoIdGenerator idGenerator) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a memento snapshot");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a memento snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version: " + version);
+            }
+            int branchCount = header.getInt();
+            int mementoCount = header.getInt();
+
+            long tablesSize = (long) branchCount * BRANCH_ENTRY_SIZE + (long) mementoCount * MEMENTO_ENTRY_SIZE;
+            ByteBuffer tables = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, tablesSize);
+            int[] forkPoints = new int[branchCount];
+            int[] branchLengths = new int[branchCount];
+            for (int i = 0; i < branchCount; i++) {
+                forkPoints[i] = tables.getInt();
+                branchLengths[i] = tables.getInt();
+            }
+            long[] stateOffsets = new long[mementoCount];
+            int[] stateLengths = new int[mementoCount];
+            for (int i = 0; i < mementoCount; i++) {
+                stateOffsets[i] = tables.getLong();
+                stateLengths[i] = tables.getInt();
+            }
+
+            long stringsStart = HEADER_SIZE + tablesSize;
+            long payloadStart = mementoCount > 0 ? stateOffsets[0] : channel.size();
+            ByteBuffer strings = channel.map(FileChannel.MapMode.READ_ONLY, stringsStart, payloadStart - stringsStart);
+            ByteBuffer[] states = mapStates(channel, stateOffsets, stateLengths);
+
+            // the tables already describe the dense topology, so the content is built at once
+            MementoModel<S> model = new MementoModel<>(idGenerator);
+            ArrayList<Memento<S>> mementos = new ArrayList<>(mementoCount);
+            for (ByteBuffer state : states) {
+                Supplier<S> stateSupplier = () -> serializer.deserialize(state.duplicate());
+                mementos.add(new Memento<>(model.newMementoId(), readString(strings), readString(strings), stateSupplier));
+            }
+            ArrayList<MementoBranchId> branchIds = new ArrayList<>(branchCount);
+            for (int branch = 0; branch < branchCount; branch++) {
+                branchIds.add(forkPoints[branch] == NO_FORK_POINT ? model.getMasterBranchId() : model.newBranchId());
+            }
+            model.load(MementoTree.of(Vector.ofAll(mementos), Vector.ofAll(branchIds), forkPoints, branchLengths));
+            return model;
+        }
+    }
+
+    /**
+     * Maps the states in as few regions as possible. Mappings stay valid after the channel has been closed.
+     */
+    private static ByteBuffer[] mapStates(FileChannel channel, long[] offsets, int[] lengths) throws IOException {
+        ByteBuffer[] states = new ByteBuffer[offsets.length];
+        MappedByteBuffer region = null;
+        long regionStart = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            long end = offsets[i] + lengths[i];
+            if (region == null || end > regionStart + region.capacity()) {
+                regionStart = offsets[i];
+                long regionSize = Math.min(MAX_REGION_SIZE, channel.size() - regionStart);
+                region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+            }
+            ByteBuffer state = region.duplicate();
+            state.position((int) (offsets[i] - regionStart));
+            state.limit(state.position() + lengths[i]);
+            states[i] = state.slice().asReadOnlyBuffer();
+        }
+        return states;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (position < 0) {
+                channel.write(buffer);
+            } else {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        // -1 encodes null
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        int length = value == null ? -1 : bytes.length;
+        out.write(length >>> 24);
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,147 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Seq;
+import io.vavr.collection.SortedSet;
+import io.vavr.collection.TreeSet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Internal helper class: an immutable index over the labels and tooltips of mementos, which allows searching them by
+ * token prefixes (see {@link MementoModel#search(String)}).
+ * <p>
+ * Texts are split into tokens (consecutive letters or digits, compared case-insensitively), and every prefix of a
+ * token up to {@link #INDEXED_PREFIX_LENGTH} characters is mapped to the numbers of the mementos containing it. Adding
+ * or removing a memento therefore only touches the entries of its own tokens. Longer query tokens are looked up by
+ * their indexed prefix, and the candidates are verified against the actual texts.
+ */
+final class MementoTextIndex {
+
+    static final int INDEXED_PREFIX_LENGTH = 8;
+
+    private static final MementoTextIndex EMPTY = new MementoTextIndex(HashMap.empty());
+
+    private final Map<String, SortedSet<Integer>> mementosByPrefix;
+
+    private MementoTextIndex(Map<String, SortedSet<Integer>> mementosByPrefix) {
+        this.mementosByPrefix = mementosByPrefix;
+    }
+
+    static MementoTextIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Indexes many mementos at once, which is cheaper than adding them one by one.
+     *
+     * @param mementos the mementos by number (removed mementos are null)
+     */
+    static MementoTextIndex of(Seq<? extends Memento<?>> mementos) {
+        java.util.Map<String, java.util.List<Integer>> mementosByPrefix = new java.util.HashMap<>();
+        int memento = 0;
+        for (Memento<?> contents : mementos) {
+            if (contents != null) {
+                for (String prefix : getIndexedPrefixes(contents)) {
+                    mementosByPrefix.computeIfAbsent(prefix, p -> new ArrayList<>()).add(memento);
+                }
+            }
+            memento++;
+        }
+        return mementosByPrefix.isEmpty() ? EMPTY : new MementoTextIndex(HashMap.ofAll(mementosByPrefix).<SortedSet<Integer>>mapValues(TreeSet::ofAll));
+    }
+
+    MementoTextIndex withMemento(int memento, Memento<?> contents) {
+        Map<String, SortedSet<Integer>> updated = mementosByPrefix;
+        for (String prefix : getIndexedPrefixes(contents)) {
+            SortedSet<Integer> mementos = updated.get(prefix).getOrElse(TreeSet::empty);
+            updated = updated.put(prefix, mementos.add(memento));
+        }
+        return updated == mementosByPrefix ? this : new MementoTextIndex(updated);
+    }
+
+    /**
+     * @param contents the memento as it has been indexed
+     */
+    MementoTextIndex withoutMemento(int memento, Memento<?> contents) {
+        Map<String, SortedSet<Integer>> updated = mementosByPrefix;
+        for (String prefix : getIndexedPrefixes(contents)) {
+            SortedSet<Integer> mementos = updated.get(prefix).getOrElse(TreeSet::empty).remove(memento);
+            updated = mementos.isEmpty() ? updated.remove(prefix) : updated.put(prefix, mementos);
+        }
+        return updated == mementosByPrefix ? this : new MementoTextIndex(updated);
+    }
+
+    /**
+     * @param mementos provides the contents of the indexed mementos by number
+     * @return the numbers of all mementos matching every token of the query, in ascending order
+     */
+    List<Integer> search(String query, IntFunction<Memento<?>> mementos) {
+        List<String> queryTokens = tokenize(query).distinct();
+        if (queryTokens.isEmpty()) {
+            return List.empty();
+        }
+        List<SortedSet<Integer>> candidateSets = List.empty();
+        for (String token : queryTokens) {
+            SortedSet<Integer> candidates = mementosByPrefix.getOrElse(truncate(token), TreeSet.empty());
+            if (candidates.isEmpty()) {
+                return List.empty();
+            }
+            candidateSets = candidateSets.prepend(candidates);
+        }
+        List<SortedSet<Integer>> bySize = candidateSets.sortBy(SortedSet::size);
+        boolean verify = queryTokens.exists(token -> token.length() > INDEXED_PREFIX_LENGTH);
+        return bySize.head().toList()
+                .filter(memento -> bySize.tail().forAll(candidates -> candidates.contains(memento)))
+                .filter(memento -> !verify || matches(tokenize(mementos.apply(memento)), queryTokens));
+    }
+
+    private static boolean matches(List<String> tokens, List<String> queryTokens) {
+        return queryTokens.forAll(queryToken -> tokens.exists(token -> token.startsWith(queryToken)));
+    }
+
+    private static Set<String> getIndexedPrefixes(Memento<?> contents) {
+        Set<String> prefixes = new LinkedHashSet<>();
+        for (String token : tokenize(contents)) {
+            for (int length = 1; length <= Math.min(token.length(), INDEXED_PREFIX_LENGTH); length++) {
+                prefixes.add(token.substring(0, length));
+            }
+        }
+        return prefixes;
+    }
+
+    private static List<String> tokenize(Memento<?> contents) {
+        // placeholders of pending mementos have neither label nor tooltip
+        return tokenize(contents.getLabel()).appendAll(tokenize(contents.getToolTip()));
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null) {
+            return List.empty();
+        }
+        String lowerCase = text.toLowerCase(Locale.ROOT);
+        List<String> tokens = List.empty();
+        int start = -1;
+        for (int i = 0; i <= lowerCase.length(); i++) {
+            boolean partOfToken = i < lowerCase.length() && Character.isLetterOrDigit(lowerCase.charAt(i));
+            if (partOfToken && start < 0) {
+                start = i;
+            } else if (!partOfToken && start >= 0) {
+                tokens = tokens.prepend(lowerCase.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens.reverse();
+    }
+
+    private static String truncate(String token) {
+        return token.length() > INDEXED_PREFIX_LENGTH ? token.substring(0, INDEXED_PREFIX_LENGTH) : token;
+    }
+
+}
@@ -0,0 +1,405 @@
+package ch.fhnw.ima.memento;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.IntConsumer;
+
+/**
+ * Internal helper class which holds the (immutable) topology of a {@link MementoTree} in a dense representation.
+ * <p>
+ * Mementos and branches are numbered in the order in which they have been added, and all links between them are
+ * kept in primitive {@link IntVector int vectors} indexed by these numbers (<code>-1</code> denotes "none"). This
+ * keeps the footprint of a memento to a few ints, and lets traversals run in tight loops without any lookups.
+ * Mapping numbers to ids is left to the tree.
+ * <p>
+ * Numbers are never reused: removed mementos and branches are simply unlinked, and their slots are left behind
+ * (until the tree renumbers everything, see {@link MementoTree#reclaimed()}).
+ */
+final class MementoTopology {
+
+    static final int NONE = -1;
+
+    private static final MementoTopology EMPTY = new MementoTopology(IntVector.empty(), IntVector.empty(),
+            IntVector.empty(), IntVector.empty(), IntVector.empty(), IntVector.empty(), IntVector.empty(),
+            IntVector.empty(), IntVector.empty(), IntVector.empty(), IntVector.empty(), IntVector.empty(),
+            IntVector.empty(), IntVector.empty());
+
+    // per memento
+    private final IntVector branchByMemento;
+    private final IntVector indexByMemento;
+    private final IntVector parentByMemento;
+    private final IntVector depthByMemento;
+    private final IntVector jumpByMemento;
+    private final IntVector forkedRowHeightByMemento;
+    // forked row heights summed up within each branch, see getForkedRowHeightBefore
+    private final IntVector forkedRowHeightSumByMemento;
+    private final IntVector firstForkedBranchByMemento;
+    private final IntVector lastForkedBranchByMemento;
+
+    // per branch
+    private final IntVector forkPointByBranch;
+    private final IntVector rowHeightByBranch;
+    private final IntVector nextSiblingByBranch;
+    private final IntVector firstMementoByBranch;
+    private final IntVector tipByBranch;
+
+    private MementoTopology(IntVector branchByMemento,
+                            IntVector indexByMemento,
+                            IntVector parentByMemento,
+                            IntVector depthByMemento,
+                            IntVector jumpByMemento,
+                            IntVector forkedRowHeightByMemento,
+                            IntVector forkedRowHeightSumByMemento,
+                            IntVector firstForkedBranchByMemento,
+                            IntVector lastForkedBranchByMemento,
+                            IntVector forkPointByBranch,
+                            IntVector rowHeightByBranch,
+                            IntVector nextSiblingByBranch,
+                            IntVector firstMementoByBranch,
+                            IntVector tipByBranch) {
+        this.branchByMemento = branchByMemento;
+        this.indexByMemento = indexByMemento;
+        this.parentByMemento = parentByMemento;
+        this.depthByMemento = depthByMemento;
+        this.jumpByMemento = jumpByMemento;
+        this.forkedRowHeightByMemento = forkedRowHeightByMemento;
+        this.forkedRowHeightSumByMemento = forkedRowHeightSumByMemento;
+        this.firstForkedBranchByMemento = firstForkedBranchByMemento;
+        this.lastForkedBranchByMemento = lastForkedBranchByMemento;
+        this.forkPointByBranch = forkPointByBranch;
+        this.rowHeightByBranch = rowHeightByBranch;
+        this.nextSiblingByBranch = nextSiblingByBranch;
+        this.firstMementoByBranch = firstMementoByBranch;
+        this.tipByBranch = tipByBranch;
+    }
+
+    static MementoTopology empty() {
+        return EMPTY;
+    }
+
+    int getMementoCount() {
+        return branchByMemento.size();
+    }
+
+    int getBranchCount() {
+        return forkPointByBranch.size();
+    }
+
+    int getBranch(int memento) {
+        return branchByMemento.get(memento);
+    }
+
+    int getIndex(int memento) {
+        return indexByMemento.get(memento);
+    }
+
+    int getParent(int memento) {
+        return parentByMemento.get(memento);
+    }
+
+    int getDepth(int memento) {
+        return depthByMemento.get(memento);
+    }
+
+    int getForkedRowHeight(int memento) {
+        return forkedRowHeightByMemento.get(memento);
+    }
+
+    /**
+     * Sums up the forked row heights of the first mementos of a branch in logarithmically many steps.
+     * <p>
+     * The sums form a Fenwick tree per branch: the memento at position <code>p</code> (i.e. index <code>p - 1</code>)
+     * holds the sum over the positions <code>(p - lowbit(p), p]</code>, where <code>lowbit(p)</code> is the lowest set
+     * bit of <code>p</code>. Any prefix is thus covered by as many sums as <code>p</code> has set bits, and changing a
+     * forked row height only touches as many later sums.
+     *
+     * @param index the number of mementos to sum up
+     */
+    int getForkedRowHeightBefore(int branch, int index) {
+        int sum = 0;
+        for (int position = index; position > 0; position -= Integer.lowestOneBit(position)) {
+            sum += forkedRowHeightSumByMemento.get(getMemento(branch, position - 1));
+        }
+        return sum;
+    }
+
+    /**
+     * @return the first branch forked off a memento (further ones follow via {@link #getNextSibling(int)})
+     */
+    int getFirstForkedBranch(int memento) {
+        return firstForkedBranchByMemento.get(memento);
+    }
+
+    /**
+     * @return the successor of a memento within its branch
+     */
+    int getSuccessor(int memento) {
+        int branch = branchByMemento.get(memento);
+        int index = indexByMemento.get(memento) + 1;
+        return index < getLength(branch) ? getMemento(branch, index) : NONE;
+    }
+
+    int getForkPoint(int branch) {
+        return forkPointByBranch.get(branch);
+    }
+
+    int getRowHeight(int branch) {
+        return rowHeightByBranch.get(branch);
+    }
+
+    int getNextSibling(int branch) {
+        return nextSiblingByBranch.get(branch);
+    }
+
+    int getLength(int branch) {
+        int tip = tipByBranch.get(branch);
+        return tip == NONE ? 0 : indexByMemento.get(tip) + 1;
+    }
+
+    int getFirst(int branch) {
+        return firstMementoByBranch.get(branch);
+    }
+
+    int getTip(int branch) {
+        return tipByBranch.get(branch);
+    }
+
+    /**
+     * The mementos of a branch are consecutive ancestors of its tip, hence they can be reached via jumps.
+     */
+    int getMemento(int branch, int index) {
+        int tip = tipByBranch.get(branch);
+        return getAncestor(tip, depthByMemento.get(tip) - (getLength(branch) - 1 - index));
+    }
+
+    /**
+     * @return the mementos of a branch, in order
+     */
+    int[] getMementos(int branch) {
+        int[] mementos = new int[getLength(branch)];
+        int memento = tipByBranch.get(branch);
+        for (int i = mementos.length - 1; i >= 0; i--) {
+            mementos[i] = memento;
+            memento = parentByMemento.get(memento);
+        }
+        return mementos;
+    }
+
+    /**
+     * Follows jump pointers, which lead to an ancestor in logarithmically many steps (see {@link #withMemento(int)}).
+     */
+    int getAncestor(int memento, int depth) {
+        while (depthByMemento.get(memento) > depth) {
+            int jump = jumpByMemento.get(memento);
+            memento = depthByMemento.get(jump) >= depth ? jump : parentByMemento.get(memento);
+        }
+        return memento;
+    }
+
+    int lowestCommonAncestor(int a, int b) {
+        int depth = Math.min(depthByMemento.get(a), depthByMemento.get(b));
+        a = getAncestor(a, depth);
+        b = getAncestor(b, depth);
+        // jump targets only depend on the depth, i.e. both stay at the same depth
+        while (a != b) {
+            if (parentByMemento.get(a) == NONE) {
+                // different roots
+                return NONE;
+            }
+            int jumpA = jumpByMemento.get(a);
+            int jumpB = jumpByMemento.get(b);
+            if (jumpA != jumpB) {
+                a = jumpA;
+                b = jumpB;
+            } else {
+                a = parentByMemento.get(a);
+                b = parentByMemento.get(b);
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Adds a new (empty) branch, which gets the next branch number. A freshly forked branch occupies exactly one row,
+     * i.e. every branch on the path from the fork point up to the root branch grows by one row. This keeps updates
+     * proportional to the depth of the fork point.
+     *
+     * @param forkPoint the memento the branch is forked off, or {@link #NONE} for a root branch
+     */
+    MementoTopology withBranch(int forkPoint) {
+        int branch = getBranchCount();
+        IntVector newRowHeightByBranch = rowHeightByBranch;
+        IntVector newForkedRowHeightByMemento = forkedRowHeightByMemento;
+        IntVector newForkedRowHeightSumByMemento = forkedRowHeightSumByMemento;
+        for (int memento = forkPoint; memento != NONE; memento = forkPointByBranch.get(branchByMemento.get(memento))) {
+            int currentBranch = branchByMemento.get(memento);
+            newForkedRowHeightByMemento = newForkedRowHeightByMemento.set(memento, newForkedRowHeightByMemento.get(memento) + 1);
+            newForkedRowHeightSumByMemento = addForkedRowHeight(newForkedRowHeightSumByMemento, memento, 1);
+            newRowHeightByBranch = newRowHeightByBranch.set(currentBranch, newRowHeightByBranch.get(currentBranch) + 1);
+        }
+
+        IntVector newFirstForkedBranchByMemento = firstForkedBranchByMemento;
+        IntVector newLastForkedBranchByMemento = lastForkedBranchByMemento;
+        IntVector newNextSiblingByBranch = nextSiblingByBranch.append(NONE);
+        if (forkPoint != NONE) {
+            int lastSibling = lastForkedBranchByMemento.get(forkPoint);
+            if (lastSibling == NONE) {
+                newFirstForkedBranchByMemento = newFirstForkedBranchByMemento.set(forkPoint, branch);
+            } else {
+                newNextSiblingByBranch = newNextSiblingByBranch.set(lastSibling, branch);
+            }
+            newLastForkedBranchByMemento = newLastForkedBranchByMemento.set(forkPoint, branch);
+        }
+
+        return new MementoTopology(branchByMemento, indexByMemento, parentByMemento, depthByMemento, jumpByMemento,
+                newForkedRowHeightByMemento, newForkedRowHeightSumByMemento, newFirstForkedBranchByMemento,
+                newLastForkedBranchByMemento, forkPointByBranch.append(forkPoint), newRowHeightByBranch.append(1),
+                newNextSiblingByBranch, firstMementoByBranch.append(NONE), tipByBranch.append(NONE));
+    }
+
+    /**
+     * Appends a new memento to a branch, which gets the next memento number.
+     * <p>
+     * Besides its parent, every memento points to a further ancestor ("jump"), chosen such that jumps form a skew
+     * binary structure: any ancestor can be reached in logarithmically many steps, at the cost of a single int per
+     * memento.
+     */
+    MementoTopology withMemento(int branch) {
+        int memento = getMementoCount();
+        int tip = tipByBranch.get(branch);
+        int parent = tip != NONE ? tip : forkPointByBranch.get(branch);
+
+        int depth = 0;
+        int jump = memento;
+        if (parent != NONE) {
+            depth = depthByMemento.get(parent) + 1;
+            int parentJump = jumpByMemento.get(parent);
+            int parentJumpJump = jumpByMemento.get(parentJump);
+            boolean equalJumps = depthByMemento.get(parent) - depthByMemento.get(parentJump) == depthByMemento.get(parentJump) - depthByMemento.get(parentJumpJump);
+            jump = equalJumps ? parentJumpJump : parent;
+        }
+
+        // the new memento has no forked rows yet, its sum only covers preceding positions (see getForkedRowHeightBefore)
+        int index = tip == NONE ? 0 : indexByMemento.get(tip) + 1;
+        int position = index + 1;
+        int sum = 0;
+        for (int covered = position - 1; covered > position - Integer.lowestOneBit(position); covered -= Integer.lowestOneBit(covered)) {
+            sum += forkedRowHeightSumByMemento.get(getAncestor(tip, depthByMemento.get(tip) - (index - covered)));
+        }
+
+        return new MementoTopology(branchByMemento.append(branch), indexByMemento.append(index),
+                parentByMemento.append(parent), depthByMemento.append(depth), jumpByMemento.append(jump),
+                forkedRowHeightByMemento.append(0), forkedRowHeightSumByMemento.append(sum),
+                firstForkedBranchByMemento.append(NONE), lastForkedBranchByMemento.append(NONE), forkPointByBranch,
+                rowHeightByBranch, nextSiblingByBranch,
+                tip == NONE ? firstMementoByBranch.set(branch, memento) : firstMementoByBranch,
+                tipByBranch.set(branch, memento));
+    }
+
+    /**
+     * Reports everything which {@link #withoutSubtree(int)} removes: the memento, its successors within the branch,
+     * and all branches forked off any of them (recursively). The branch of the memento is removed as well if the
+     * memento is its first one, unless it is a root branch (which is only emptied).
+     */
+    void collectSubtree(int memento, IntConsumer removedMementos, IntConsumer removedBranches) {
+        int branch = branchByMemento.get(memento);
+        if (indexByMemento.get(memento) == 0 && forkPointByBranch.get(branch) != NONE) {
+            removedBranches.accept(branch);
+        }
+        Deque<Integer> suffixStarts = new ArrayDeque<>();
+        suffixStarts.push(memento);
+        while (!suffixStarts.isEmpty()) {
+            int start = suffixStarts.pop();
+            // walk the suffix backwards from the tip
+            for (int current = tipByBranch.get(branchByMemento.get(start)); ; current = parentByMemento.get(current)) {
+                removedMementos.accept(current);
+                for (int forked = firstForkedBranchByMemento.get(current); forked != NONE; forked = nextSiblingByBranch.get(forked)) {
+                    removedBranches.accept(forked);
+                    if (firstMementoByBranch.get(forked) != NONE) {
+                        suffixStarts.push(firstMementoByBranch.get(forked));
+                    }
+                }
+                if (current == start) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a memento and everything which depends on it (see {@link #collectSubtree(int, IntConsumer, IntConsumer)}).
+     * Only the remaining part of the branch and the path from its fork point up to the root branch are touched, i.e.
+     * the effort is proportional to the removed suffix plus the depth of the fork point.
+     */
+    MementoTopology withoutSubtree(int memento) {
+        int branch = branchByMemento.get(memento);
+        int index = indexByMemento.get(memento);
+        int forkPoint = forkPointByBranch.get(branch);
+        boolean branchRemoved = index == 0 && forkPoint != NONE;
+
+        // rows which disappear: the whole branch, or the branches forked off the removed suffix
+        int removedRows = 0;
+        if (branchRemoved) {
+            removedRows = rowHeightByBranch.get(branch);
+        } else {
+            for (int current = tipByBranch.get(branch); ; current = parentByMemento.get(current)) {
+                removedRows += forkedRowHeightByMemento.get(current);
+                if (current == memento) {
+                    break;
+                }
+            }
+        }
+
+        IntVector newRowHeightByBranch = branchRemoved ? rowHeightByBranch : rowHeightByBranch.set(branch, rowHeightByBranch.get(branch) - removedRows);
+        IntVector newForkedRowHeightByMemento = forkedRowHeightByMemento;
+        IntVector newForkedRowHeightSumByMemento = forkedRowHeightSumByMemento;
+        if (removedRows > 0) {
+            for (int current = forkPoint; current != NONE; current = forkPointByBranch.get(branchByMemento.get(current))) {
+                int currentBranch = branchByMemento.get(current);
+                newForkedRowHeightByMemento = newForkedRowHeightByMemento.set(current, newForkedRowHeightByMemento.get(current) - removedRows);
+                newForkedRowHeightSumByMemento = addForkedRowHeight(newForkedRowHeightSumByMemento, current, -removedRows);
+                newRowHeightByBranch = newRowHeightByBranch.set(currentBranch, newRowHeightByBranch.get(currentBranch) - removedRows);
+            }
+        }
+
+        IntVector newFirstForkedBranchByMemento = firstForkedBranchByMemento;
+        IntVector newLastForkedBranchByMemento = lastForkedBranchByMemento;
+        IntVector newNextSiblingByBranch = nextSiblingByBranch;
+        if (branchRemoved) {
+            // unlink the branch from its siblings
+            int previous = NONE;
+            for (int sibling = firstForkedBranchByMemento.get(forkPoint); sibling != branch; sibling = nextSiblingByBranch.get(sibling)) {
+                previous = sibling;
+            }
+            int next = nextSiblingByBranch.get(branch);
+            if (previous == NONE) {
+                newFirstForkedBranchByMemento = newFirstForkedBranchByMemento.set(forkPoint, next);
+            } else {
+                newNextSiblingByBranch = newNextSiblingByBranch.set(previous, next);
+            }
+            if (next == NONE) {
+                newLastForkedBranchByMemento = newLastForkedBranchByMemento.set(forkPoint, previous);
+            }
+        }
+
+        return new MementoTopology(branchByMemento, indexByMemento, parentByMemento, depthByMemento, jumpByMemento,
+                newForkedRowHeightByMemento, newForkedRowHeightSumByMemento, newFirstForkedBranchByMemento,
+                newLastForkedBranchByMemento, forkPointByBranch, newRowHeightByBranch, newNextSiblingByBranch,
+                index == 0 ? firstMementoByBranch.set(branch, NONE) : firstMementoByBranch,
+                tipByBranch.set(branch, index == 0 ? NONE : parentByMemento.get(memento)));
+    }
+
+    /**
+     * Updates the sums covering a memento whose forked row height changes (see {@link #getForkedRowHeightBefore}).
+     */
+    private IntVector addForkedRowHeight(IntVector sums, int memento, int delta) {
+        int branch = branchByMemento.get(memento);
+        int length = getLength(branch);
+        for (int position = indexByMemento.get(memento) + 1; position <= length; position += Integer.lowestOneBit(position)) {
+            int covering = getMemento(branch, position - 1);
+            sums = sums.set(covering, sums.get(covering) + delta);
+        }
+        return sums;
+    }
+
+}
@@ -0,0 +1,569 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.collection.Set;
+import io.vavr.collection.Vector;
+import io.vavr.control.Option;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Internal helper class which holds the complete (immutable) content of a {@link MementoModel}: its mementos and
+ * their topology.
+ * <p>
+ * Modifications return a new tree, sharing structure with the original one. This allows the model to swap its
+ * content atomically, and readers to always see a consistent tree. Each modification increments the version of the
+ * tree, and the most recent changes are logged (see {@link MementoModelSnapshot#getChangesSince(long)}).
+ * <p>
+ * Mementos and branches are numbered, and the topology is kept in a dense {@link MementoTopology} based on these
+ * numbers. The tree itself only maps ids to numbers and back. Numbers are only valid within a tree: once removals
+ * have left behind more slots than there are mementos, everything is renumbered (see {@link #reclaimed()}).
+ *
+ * @param <S> State type of captured mementos
+ */
+final class MementoTree<S> {
+
+    // maximum number of changes kept to describe how a tree evolved from earlier versions
+    static final int CHANGE_LOG_CAPACITY = 10_000;
+
+    private static final int NONE = MementoTopology.NONE;
+
+    // removed slots are only reclaimed once they outnumber the contained ones, see withoutSubtrees
+    private static final int MIN_RECLAIMED_SLOTS = 64;
+
+    private static final MementoTree<?> EMPTY = new MementoTree<>(0, Vector.empty(), Vector.empty(), HashMap.empty(),
+            Vector.empty(), HashMap.empty(), MementoTopology.empty(), IntVector.empty(), MementoTextIndex.empty(), true, HashSet.empty());
+
+    // every change increments the version, the most recent changes are logged
+    private final long version;
+    private final Vector<MementoModelSnapshot.Change> changes;
+
+    // mementos and branches by number, and vice versa (removed mementos leave a null behind)
+    private final Vector<Memento<S>> mementos;
+    private final Map<MementoId, Integer> mementoNumbers;
+    private final Vector<MementoBranchId> branchIds;
+    private final Map<MementoBranchId, Integer> branchNumbers;
+
+    private final MementoTopology topology;
+
+    // in seconds since the epoch (unsigned), see CompactionPolicy
+    private final IntVector appendTimes;
+
+    // labels and tooltips by token prefix, see MementoModel#search(String); not maintained while unindexed
+    private final MementoTextIndex textIndex;
+    private final boolean indexed;
+
+    // Placeholders of mementos which are still being captured
+    private final Set<MementoId> pendingMementos;
+
+    private MementoTree(long version,
+                        Vector<MementoModelSnapshot.Change> changes,
+                        Vector<Memento<S>> mementos,
+                        Map<MementoId, Integer> mementoNumbers,
+                        Vector<MementoBranchId> branchIds,
+                        Map<MementoBranchId, Integer> branchNumbers,
+                        MementoTopology topology,
+                        IntVector appendTimes,
+                        MementoTextIndex textIndex,
+                        boolean indexed,
+                        Set<MementoId> pendingMementos) {
+        this.version = version;
+        this.changes = changes;
+        this.mementos = mementos;
+        this.mementoNumbers = mementoNumbers;
+        this.branchIds = branchIds;
+        this.branchNumbers = branchNumbers;
+        this.topology = topology;
+        this.appendTimes = appendTimes;
+        this.textIndex = textIndex;
+        this.indexed = indexed;
+        this.pendingMementos = pendingMementos;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <S> MementoTree<S> empty() {
+        return (MementoTree<S>) EMPTY;
+    }
+
+    /**
+     * Builds a tree at once (e.g. when loading a {@link MementoSnapshot}), which is much cheaper than appending the
+     * mementos one by one. Nothing is logged, i.e. the changes leading to the tree are unknown.
+     *
+     * @param mementos      the mementos, such that the mementos of each branch are contiguous and in order
+     * @param branchIds     the branches in the order of their mementos, i.e. fork points precede the branches forked
+     *                      off them, and sibling branches are in order
+     * @param forkPoints    the number of the fork point per branch, or -1 for root branches
+     * @param branchLengths the number of mementos per branch
+     */
+    static <S> MementoTree<S> of(Vector<Memento<S>> mementos, Vector<MementoBranchId> branchIds, int[] forkPoints, int[] branchLengths) {
+        if (mementos.isEmpty()) {
+            return empty();
+        }
+        java.util.Map<MementoId, Integer> mementoNumbers = new java.util.HashMap<>();
+        java.util.Map<MementoBranchId, Integer> branchNumbers = new java.util.HashMap<>();
+        MementoTopology topology = MementoTopology.empty();
+        IntVector appendTimes = IntVector.empty();
+        int appendTime = (int) (System.currentTimeMillis() / 1000);
+        int memento = 0;
+        for (int branch = 0; branch < branchIds.size(); branch++) {
+            branchNumbers.put(branchIds.get(branch), branch);
+            topology = topology.withBranch(forkPoints[branch]);
+            for (int i = 0; i < branchLengths[branch]; i++, memento++) {
+                mementoNumbers.put(mementos.get(memento).getId(), memento);
+                topology = topology.withMemento(branch);
+                appendTimes = appendTimes.append(appendTime);
+            }
+        }
+        return new MementoTree<>(1, Vector.empty(), mementos, HashMap.ofAll(mementoNumbers), branchIds,
+                HashMap.ofAll(branchNumbers), topology, appendTimes, MementoTextIndex.of(mementos), true, HashSet.empty());
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the changes which lead from an earlier version to this tree, or none if they are no longer logged
+     */
+    Option<List<MementoModelSnapshot.Change>> getChangesSince(long earlierVersion) {
+        if (earlierVersion > version || earlierVersion < 0) {
+            throw new IllegalArgumentException("Invalid version: " + earlierVersion);
+        }
+        long changeCount = version - earlierVersion;
+        return changeCount <= changes.size()
+                ? Option.some(changes.drop(changes.size() - (int) changeCount).toList())
+                : Option.none();
+    }
+
+    Option<Memento<S>> getMemento(MementoId mementoId) {
+        return mementoNumbers.get(mementoId).map(mementos::get);
+    }
+
+    boolean contains(MementoId mementoId) {
+        return mementoNumbers.containsKey(mementoId);
+    }
+
+    /**
+     * @return the number of contained mementos
+     */
+    int getMementoCount() {
+        return mementoNumbers.size();
+    }
+
+    /**
+     * @return the number of branches which contain (or have contained) mementos, or have been forked
+     */
+    int getBranchCount() {
+        return branchNumbers.size();
+    }
+
+    Option<Integer> getNumber(MementoId mementoId) {
+        return mementoNumbers.get(mementoId);
+    }
+
+    /**
+     * @return all mementos in the order in which they have been appended
+     */
+    List<MementoId> getMementoIds() {
+        return mementos.filter(Objects::nonNull).map(Memento::getId).toList();
+    }
+
+    Vector<MementoId> getIndexedMementos(MementoBranchId branchId) {
+        int branch = branchNumbers.getOrElse(branchId, NONE);
+        if (branch == NONE) {
+            return Vector.empty();
+        }
+        int[] members = topology.getMementos(branch);
+        MementoId[] mementoIds = new MementoId[members.length];
+        for (int i = 0; i < members.length; i++) {
+            mementoIds[i] = idOf(members[i]);
+        }
+        return Vector.of(mementoIds);
+    }
+
+    Option<MementoId> getMementoId(MementoBranchId branchId, int index) {
+        int branch = branchNumbers.getOrElse(branchId, NONE);
+        return branch != NONE && index >= 0 && index < topology.getLength(branch)
+                ? Option.some(idOf(topology.getMemento(branch, index)))
+                : Option.none();
+    }
+
+    Option<MementoId> getTip(MementoBranchId branchId) {
+        return branchNumbers.get(branchId).flatMap(branch -> idOption(topology.getTip(branch)));
+    }
+
+    /**
+     * @return the number of mementos in a branch
+     */
+    int getLength(MementoBranchId branchId) {
+        return branchNumbers.get(branchId).map(topology::getLength).getOrElse(0);
+    }
+
+    List<MementoBranchId> getBranches(MementoId mementoId) {
+        int memento = mementoNumbers.getOrElse(mementoId, NONE);
+        if (memento == NONE) {
+            return List.empty();
+        }
+        List<MementoBranchId> branches = List.empty();
+        for (int branch = topology.getFirstForkedBranch(memento); branch != NONE; branch = topology.getNextSibling(branch)) {
+            branches = branches.prepend(branchIds.get(branch));
+        }
+        return branches.reverse();
+    }
+
+    Option<MementoBranchId> getBranchId(MementoId mementoId) {
+        return mementoNumbers.get(mementoId).map(memento -> branchIds.get(topology.getBranch(memento)));
+    }
+
+    Option<Integer> getIndex(MementoId mementoId) {
+        return mementoNumbers.get(mementoId).map(topology::getIndex);
+    }
+
+    Option<MementoId> getForkPoint(MementoBranchId branchId) {
+        return branchNumbers.get(branchId).flatMap(branch -> idOption(topology.getForkPoint(branch)));
+    }
+
+    Option<MementoId> getParent(MementoId mementoId) {
+        return mementoNumbers.get(mementoId).flatMap(memento -> idOption(topology.getParent(memento)));
+    }
+
+    List<MementoId> getPathToRoot(MementoId mementoId) {
+        List<MementoId> rootToMemento = List.empty();
+        for (int memento = mementoNumbers.getOrElse(mementoId, NONE); memento != NONE; memento = topology.getParent(memento)) {
+            rootToMemento = rootToMemento.prepend(idOf(memento));
+        }
+        return rootToMemento.reverse();
+    }
+
+    /**
+     * @return the successor within the same branch, followed by the first mementos of all branches forked off
+     */
+    List<MementoId> getChildren(MementoId mementoId) {
+        int memento = mementoNumbers.getOrElse(mementoId, NONE);
+        if (memento == NONE) {
+            return List.empty();
+        }
+        List<MementoId> children = List.empty();
+        for (int branch = topology.getFirstForkedBranch(memento); branch != NONE; branch = topology.getNextSibling(branch)) {
+            if (topology.getFirst(branch) != NONE) {
+                children = children.prepend(idOf(topology.getFirst(branch)));
+            }
+        }
+        int successor = topology.getSuccessor(memento);
+        if (successor != NONE) {
+            children = children.prepend(idOf(successor));
+        }
+        return children.reverse();
+    }
+
+    Option<Integer> getDepth(MementoId mementoId) {
+        return mementoNumbers.get(mementoId).map(topology::getDepth);
+    }
+
+    Option<MementoId> lowestCommonAncestor(MementoId a, MementoId b) {
+        Option<Integer> numberA = mementoNumbers.get(a);
+        Option<Integer> numberB = mementoNumbers.get(b);
+        if (numberA.isEmpty() || numberB.isEmpty()) {
+            return Option.none();
+        }
+        return idOption(topology.lowestCommonAncestor(numberA.get(), numberB.get()));
+    }
+
+    int getRowHeight(MementoBranchId branchId) {
+        return branchNumbers.get(branchId).map(topology::getRowHeight).getOrElse(1);
+    }
+
+    int getForkedRowHeight(MementoId mementoId) {
+        return mementoNumbers.get(mementoId).map(topology::getForkedRowHeight).getOrElse(0);
+    }
+
+    /**
+     * @return the row height of the suffix of a branch starting at the given index (see {@link RowHeightCalculator})
+     */
+    int getRowHeight(MementoBranchId branchId, int index) {
+        int branch = branchNumbers.getOrElse(branchId, NONE);
+        if (branch == NONE || index >= topology.getLength(branch)) {
+            return 1;
+        }
+        return topology.getRowHeight(branch) - topology.getForkedRowHeightBefore(branch, Math.max(index, 0));
+    }
+
+    /**
+     * Gives direct access to the dense topology, e.g. for layouts which traverse the whole tree. Use together with
+     * {@link #getMementoAt(int)} and {@link #getBranchIdAt(int)}.
+     */
+    MementoTopology getTopology() {
+        return topology;
+    }
+
+    /**
+     * @return the memento with the given number, or null if it has been removed
+     */
+    Memento<S> getMementoAt(int memento) {
+        return mementos.get(memento);
+    }
+
+    MementoBranchId getBranchIdAt(int branch) {
+        return branchIds.get(branch);
+    }
+
+    /**
+     * @return the number of a branch (or none if it does not contain any mementos yet)
+     */
+    Option<Integer> getBranchNumber(MementoBranchId branchId) {
+        return branchNumbers.get(branchId);
+    }
+
+    /**
+     * @return the parent of a memento which is about to be appended to a branch
+     */
+    Option<MementoId> getParentOfAppended(MementoBranchId branchId) {
+        return getTip(branchId).orElse(() -> getForkPoint(branchId));
+    }
+
+    /**
+     * @param memento the memento to be stored (see {@link StateStrategy})
+     */
+    MementoTree<S> withAppended(MementoBranchId branchId, Memento<S> memento) {
+        MementoId mementoId = memento.getId();
+        // branches which have not been forked (i.e. the master branch) are added on demand
+        MementoTree<S> withBranch = branchNumbers.containsKey(branchId) ? this : withBranch(NONE, branchId);
+        int branch = withBranch.branchNumbers.get(branchId).get();
+        return new MementoTree<>(
+                version + 1,
+                log(MementoModelSnapshot.Change.appended(new MementoRef(mementoId, branchId))),
+                mementos.append(memento),
+                mementoNumbers.put(mementoId, mementos.size()),
+                withBranch.branchIds,
+                withBranch.branchNumbers,
+                withBranch.topology.withMemento(branch),
+                appendTimes.append((int) (System.currentTimeMillis() / 1000)),
+                indexed ? textIndex.withMemento(mementos.size(), memento) : textIndex,
+                indexed,
+                pendingMementos);
+    }
+
+    /**
+     * A freshly forked branch occupies exactly one row, see {@link MementoTopology#withBranch(int)}.
+     */
+    MementoTree<S> withBranch(MementoId branchRoot, MementoBranchId branchId) {
+        return withBranch(mementoNumbers.get(branchRoot).get(), branchId);
+    }
+
+    /**
+     * Replaces a memento, which is no longer pending afterwards.
+     *
+     * @param memento the memento to be stored (see {@link StateStrategy}), which must already be contained
+     */
+    MementoTree<S> withReplaced(Memento<S> memento) {
+        int number = mementoNumbers.get(memento.getId()).get();
+        MementoRef mementoRef = new MementoRef(memento.getId(), branchIds.get(topology.getBranch(number)));
+        return new MementoTree<>(version + 1, log(MementoModelSnapshot.Change.replaced(mementoRef)),
+                mementos.update(number, memento), mementoNumbers, branchIds, branchNumbers, topology, appendTimes,
+                indexed ? textIndex.withoutMemento(number, mementos.get(number)).withMemento(number, memento) : textIndex,
+                indexed, pendingMementos.remove(memento.getId()));
+    }
+
+    boolean isPending(MementoId mementoId) {
+        return pendingMementos.contains(mementoId);
+    }
+
+    /**
+     * @return whether a memento is contained and not a placeholder anymore
+     */
+    boolean isCaptured(MementoId mementoId) {
+        return mementoNumbers.containsKey(mementoId) && !pendingMementos.contains(mementoId);
+    }
+
+    /**
+     * Marks a contained memento as a placeholder, which is still being captured.
+     */
+    MementoTree<S> withPending(MementoId mementoId) {
+        return new MementoTree<>(version, changes, mementos, mementoNumbers, branchIds, branchNumbers, topology,
+                appendTimes, textIndex, indexed, pendingMementos.add(mementoId));
+    }
+
+    /**
+     * Removes the given mementos including everything which depends on them (see
+     * {@link MementoTopology#collectSubtree(int, java.util.function.IntConsumer, java.util.function.IntConsumer)}).
+     * Roots which are not contained (anymore) are ignored. The removal is logged as a single change. If removals have
+     * left behind more slots than there are mementos, the slots are reclaimed, so that the dense structures stay
+     * proportional to the contained mementos (at amortized constant cost per removal).
+     *
+     * @return the pruned tree, or this tree if nothing has been removed
+     */
+    MementoTree<S> withoutSubtrees(Iterable<MementoId> roots) {
+        Vector<Memento<S>> newMementos = mementos;
+        Map<MementoId, Integer> newMementoNumbers = mementoNumbers;
+        Map<MementoBranchId, Integer> newBranchNumbers = branchNumbers;
+        Set<MementoId> newPendingMementos = pendingMementos;
+        MementoTextIndex newTextIndex = textIndex;
+        MementoTopology newTopology = topology;
+        java.util.List<MementoRef> removedRefs = new ArrayList<>();
+        java.util.List<MementoBranchId> removedBranchIds = new ArrayList<>();
+        for (MementoId root : roots) {
+            Option<Integer> rootNumber = newMementoNumbers.get(root);
+            if (rootNumber.isEmpty()) {
+                continue;
+            }
+            java.util.List<Integer> removedMementos = new ArrayList<>();
+            java.util.List<Integer> removedBranches = new ArrayList<>();
+            newTopology.collectSubtree(rootNumber.get(), removedMementos::add, removedBranches::add);
+            for (int memento : removedMementos) {
+                MementoId mementoId = newMementos.get(memento).getId();
+                removedRefs.add(new MementoRef(mementoId, branchIds.get(newTopology.getBranch(memento))));
+                if (indexed) {
+                    newTextIndex = newTextIndex.withoutMemento(memento, newMementos.get(memento));
+                }
+                newMementos = newMementos.update(memento, (Memento<S>) null);
+                newMementoNumbers = newMementoNumbers.remove(mementoId);
+                newPendingMementos = newPendingMementos.remove(mementoId);
+            }
+            for (int branch : removedBranches) {
+                removedBranchIds.add(branchIds.get(branch));
+                newBranchNumbers = newBranchNumbers.remove(branchIds.get(branch));
+            }
+            newTopology = newTopology.withoutSubtree(rootNumber.get());
+        }
+        if (removedRefs.isEmpty()) {
+            return this;
+        }
+        MementoRemoval removal = new MementoRemoval(List.ofAll(removedRefs), List.ofAll(removedBranchIds));
+        MementoTree<S> pruned = new MementoTree<>(version + 1, log(MementoModelSnapshot.Change.removed(removal)), newMementos,
+                newMementoNumbers, branchIds, newBranchNumbers, newTopology, appendTimes, newTextIndex, indexed, newPendingMementos);
+        return pruned.isSparse() ? pruned.reclaimed() : pruned;
+    }
+
+    private boolean isSparse() {
+        int removedMementos = topology.getMementoCount() - mementoNumbers.size();
+        int removedBranches = topology.getBranchCount() - branchNumbers.size();
+        return removedMementos > Math.max(mementoNumbers.size(), MIN_RECLAIMED_SLOTS)
+                || removedBranches > Math.max(branchNumbers.size(), MIN_RECLAIMED_SLOTS);
+    }
+
+    /**
+     * Renumbers the contained mementos and branches densely, which drops the slots of removed ones. The relative
+     * order is kept, i.e. children are still numbered after their parents, and forked branches after their earlier
+     * siblings. The version is kept as well, as the content does not change.
+     */
+    MementoTree<S> reclaimed() {
+        int[] newMementoByOld = new int[topology.getMementoCount()];
+        int[] newBranchByOld = new int[topology.getBranchCount()];
+        Arrays.fill(newBranchByOld, NONE);
+        java.util.List<Memento<S>> newMementos = new ArrayList<>(mementoNumbers.size());
+        java.util.Map<MementoId, Integer> newMementoNumbers = new java.util.HashMap<>();
+        java.util.List<MementoBranchId> newBranchIds = new ArrayList<>(branchNumbers.size());
+        java.util.Map<MementoBranchId, Integer> newBranchNumbers = new java.util.HashMap<>();
+        MementoTopology newTopology = MementoTopology.empty();
+        IntVector newAppendTimes = IntVector.empty();
+        // forked branches get their first memento right away, so they are added in the order in which they were forked
+        for (int memento = 0; memento < newMementoByOld.length; memento++) {
+            Memento<S> contents = mementos.get(memento);
+            if (contents == null) {
+                continue;
+            }
+            int branch = topology.getBranch(memento);
+            if (newBranchByOld[branch] == NONE) {
+                int forkPoint = topology.getForkPoint(branch);
+                newBranchByOld[branch] = newBranchIds.size();
+                newBranchNumbers.put(branchIds.get(branch), newBranchIds.size());
+                newBranchIds.add(branchIds.get(branch));
+                newTopology = newTopology.withBranch(forkPoint == NONE ? NONE : newMementoByOld[forkPoint]);
+            }
+            newMementoByOld[memento] = newMementos.size();
+            newMementoNumbers.put(contents.getId(), newMementos.size());
+            newMementos.add(contents);
+            newTopology = newTopology.withMemento(newBranchByOld[branch]);
+            newAppendTimes = newAppendTimes.append(appendTimes.get(memento));
+        }
+        // root branches which have been emptied
+        for (int branch = 0; branch < newBranchByOld.length; branch++) {
+            MementoBranchId branchId = branchIds.get(branch);
+            if (newBranchByOld[branch] == NONE && branchNumbers.containsKey(branchId)) {
+                newBranchNumbers.put(branchId, newBranchIds.size());
+                newBranchIds.add(branchId);
+                newTopology = newTopology.withBranch(NONE);
+            }
+        }
+        Vector<Memento<S>> reclaimedMementos = Vector.ofAll(newMementos);
+        return new MementoTree<>(version, changes, reclaimedMementos, HashMap.ofAll(newMementoNumbers),
+                Vector.ofAll(newBranchIds), HashMap.ofAll(newBranchNumbers), newTopology, newAppendTimes,
+                indexed ? MementoTextIndex.of(reclaimedMementos) : textIndex, indexed, pendingMementos);
+    }
+
+    /**
+     * @return all mementos whose label or tooltip match the query (see {@link MementoModel#search(String)}), in the
+     * order in which they have been appended
+     */
+    List<MementoRef> search(String query) {
+        return textIndex.search(query, mementos::get)
+                .map(memento -> new MementoRef(idOf(memento), branchIds.get(topology.getBranch(memento))));
+    }
+
+    /**
+     * @return the most recent change (if it is still logged)
+     */
+    Option<MementoModelSnapshot.Change> getLastChange() {
+        return changes.lastOption();
+    }
+
+    /**
+     * @return the time at which a memento has been appended, in milliseconds since the epoch (with a precision of
+     * seconds)
+     */
+    long getAppendTime(int memento) {
+        return Integer.toUnsignedLong(appendTimes.get(memento)) * 1000;
+    }
+
+    /**
+     * @return an empty tree, whose version follows this one
+     */
+    MementoTree<S> cleared() {
+        MementoTree<S> empty = empty();
+        return new MementoTree<>(version + 1, log(MementoModelSnapshot.Change.cleared()), empty.mementos,
+                empty.mementoNumbers, empty.branchIds, empty.branchNumbers, empty.topology, empty.appendTimes,
+                empty.textIndex, indexed, empty.pendingMementos);
+    }
+
+    /**
+     * Stops maintaining the text index, e.g. while recovering many modifications from a {@link MementoJournal}. The
+     * index must be rebuilt (see {@link #indexed()}) before searching.
+     */
+    MementoTree<S> unindexed() {
+        return new MementoTree<>(version, changes, mementos, mementoNumbers, branchIds, branchNumbers, topology,
+                appendTimes, MementoTextIndex.empty(), false, pendingMementos);
+    }
+
+    /**
+     * @return this tree with its text index rebuilt at once, if it has been {@link #unindexed()}
+     */
+    MementoTree<S> indexed() {
+        return indexed ? this : new MementoTree<>(version, changes, mementos, mementoNumbers, branchIds, branchNumbers,
+                topology, appendTimes, MementoTextIndex.of(mementos), true, pendingMementos);
+    }
+
+    private MementoTree<S> withBranch(int forkPoint, MementoBranchId branchId) {
+        return new MementoTree<>(version, changes, mementos, mementoNumbers, branchIds.append(branchId),
+                branchNumbers.put(branchId, branchIds.size()), topology.withBranch(forkPoint), appendTimes, textIndex,
+                indexed, pendingMementos);
+    }
+
+    private MementoId idOf(int memento) {
+        return mementos.get(memento).getId();
+    }
+
+    private Option<MementoId> idOption(int memento) {
+        return memento == NONE ? Option.none() : Option.some(idOf(memento));
+    }
+
+    private Vector<MementoModelSnapshot.Change> log(MementoModelSnapshot.Change change) {
+        Vector<MementoModelSnapshot.Change> logged = changes.append(change);
+        return logged.size() > CHANGE_LOG_CAPACITY ? logged.tail() : logged;
+    }
+
+}
@@ -1,14 +1,21 @@
 package ch.fhnw.ima.memento;
 
 import io.vavr.Function1;
+import io.vavr.Tuple;
+import io.vavr.collection.HashMap;
 import io.vavr.collection.List;
+import io.vavr.collection.Map;
 import io.vavr.control.Option;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.*;
-import javafx.geometry.Point2D;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Insets;
 import javafx.scene.Cursor;
 import javafx.scene.Group;
 import javafx.scene.Node;
+import javafx.scene.control.ScrollPane;
 import javafx.scene.control.Tooltip;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.StackPane;
@@ -19,55 +26,129 @@ import javafx.scene.shape.StrokeLineCap;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextBoundsType;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Displays a tree of {@link Memento}s as stored in a {@link MementoModel}.
+ * <p>
+ * The view keeps a registry of the nodes it has created. Upon model changes, only nodes of new mementos are created
+ * and only nodes whose position has changed are moved.
+ * <p>
+ * For very large trees, the view can be virtualized by setting a {@link #viewportProperty() viewport} (e.g. via
+ * {@link #bindViewport(ScrollPane)}): nodes are then only created for mementos located within the viewport (plus a
+ * small margin), and are recycled as the viewport moves. Alternatively, the view can paint all mementos onto a single
+ * canvas (see {@link RenderMode#CANVAS}).
+ * <p>
+ * Mementos matching the {@link #searchQueryProperty() search query} are highlighted. Matches are looked up in the
+ * model's text index (see {@link MementoModel#search(String)}), so the tree is never scanned while typing.
+ * <p>
+ * Layouts and updates can be measured with a {@link MetricsSink}.
  *
  * @param <S> State type of mementos kept in model
  * @author Rahel Lüthy
  */
 public final class MementoView<S> extends Region {
 
-    private static final Color CIRCLE_STROKE_COLOR_SELECTED = Color.BLACK;
-    private static final Color CIRCLE_STROKE_COLOR_UNSELECTED = Color.GREY;
-    private static final int CIRCLE_RADIUS = 20;
+    static final Color CIRCLE_STROKE_COLOR_SELECTED = Color.BLACK;
+    static final Color CIRCLE_STROKE_COLOR_UNSELECTED = Color.GREY;
+    static final Color CIRCLE_STROKE_COLOR_MATCHED = Color.ORANGE;
+    static final int CIRCLE_RADIUS = 20;
+    static final int CIRCLE_STROKE_WIDTH = 3;
+
+    // mementos which are still being captured are drawn translucently
+    static final double PENDING_OPACITY = 0.3;
+
+    static final int LINE_STROKE_WIDTH = 3;
+    static final Color LINE_COLOR = Color.LIGHTGRAY;
 
-    private static final int LINE_STROKE_WIDTH = 3;
-    private static final Color LINE_COLOR = Color.LIGHTGRAY;
+    static final double OFFSET_X = 50;
+    static final double OFFSET_Y = 50;
 
-    private static final double OFFSET_X = 50;
-    private static final double OFFSET_Y = 50;
+    // number of additional columns/rows materialized around the viewport
+    private static final int VIEWPORT_MARGIN = 2;
 
     private final ObjectProperty<Option<MementoRef>> selectionModel;
     private final MementoModel<S> model;
     private final Function1<MementoBranchId, Color> colorProvider;
     private final BooleanProperty appendAllowed = new SimpleBooleanProperty(false);
-    private final RowHeightCalculator<S> rowHeightCalculator;
+    private final ObjectProperty<Option<Bounds>> viewport = new SimpleObjectProperty<>(Option.none());
+    private final StringProperty searchQuery = new SimpleStringProperty("");
+    private final ObjectProperty<io.vavr.collection.Set<MementoId>> searchMatches = new SimpleObjectProperty<>(io.vavr.collection.HashSet.empty());
+
+    private final Group nodeGroup = new Group();
+    private final Group lineGroup = new Group();
+    private final Option<MementoCanvas<S>> canvas;
+    private final RenderMode renderMode;
+    private MetricsSink metricsSink = MetricsSink.none();
+
+    private MementoLayout layout = MementoLayout.empty();
+    private Map<MementoRef, MementoNode> nodes = HashMap.empty();
+    private List<MementoNode> recycledNodes = List.empty();
 
     @SuppressWarnings("WeakerAccess")
     public MementoView(MementoModel<S> model, ObjectProperty<Option<MementoRef>> selectionModel, Function1<MementoBranchId, Color> colorProvider) {
+        this(model, selectionModel, colorProvider, RenderMode.NODES);
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    public MementoView(MementoModel<S> model, ObjectProperty<Option<MementoRef>> selectionModel, Function1<MementoBranchId, Color> colorProvider, RenderMode renderMode) {
         this.model = model;
         this.selectionModel = selectionModel;
         this.colorProvider = colorProvider;
-        this.rowHeightCalculator = new RowHeightCalculator<>(model);
+        this.renderMode = renderMode;
+
+        if (renderMode == RenderMode.CANVAS) {
+            MementoCanvas<S> mementoCanvas = new MementoCanvas<>(model, selectionModel, searchMatches, colorProvider);
+            mementoCanvas.setManaged(false);
+            getChildren().add(mementoCanvas);
+            this.canvas = Option.some(mementoCanvas);
+        } else {
+            Group group = new Group(lineGroup, nodeGroup);
+            group.setManaged(false);
+            group.translateXProperty().bind(Bindings.createDoubleBinding(() -> getInsets().getLeft(), insetsProperty()));
+            group.translateYProperty().bind(Bindings.createDoubleBinding(() -> getInsets().getTop(), insetsProperty()));
+            getChildren().add(group);
+            this.canvas = Option.none();
+        }
 
-        model.addListener((MementoRef mementoRef) -> {
-            getChildren().clear();
-            drawMementoBranch(model.getMasterBranchId());
-        });
+        // model changes may happen on any thread, and are coalesced into one update per pulse
+        model.addListener(new MementoModel.Listener() {
+            @Override
+            public void modelChanged(MementoRef mementoRef) {
+                update(List.of(mementoRef));
+            }
+
+            @Override
+            public void modelChanged(List<MementoRef> mementoRefs) {
+                update(mementoRefs);
+            }
+
+            @Override
+            public void mementosRemoved(MementoRemoval removal) {
+                boolean selectionRemoved = selectionModel.get()
+                        .map(selected -> removal.getMementoRefs().exists(ref -> ref.getMementoId().equals(selected.getMementoId())))
+                        .getOrElse(false);
+                if (selectionRemoved) {
+                    selectionModel.set(Option.none());
+                }
+                update(List.empty());
+            }
+        }, Platform::runLater);
 
         this.selectionModel.addListener((observable, oldValue, newValue) -> {
-            boolean isTip = newValue.map(ref -> {
-                List<MementoId> mementos = model.getMementos(ref.getBranchId());
-                return !mementos.isEmpty() && mementos.last().equals(ref.getMementoId());
-            }).getOrElse(false);
+            boolean isTip = newValue.map(model::isTip).getOrElse(false);
             appendAllowed.set(isTip);
         });
 
-        drawMementoBranch(model.getMasterBranchId());
+        viewport.addListener((observable, oldValue, newValue) -> update(layout, Option.none()));
+        searchQuery.addListener((observable, oldValue, newValue) -> updateSearchMatches());
+
+        update(createLayout(), Option.none());
     }
 
-    private static Line createLine(double x, double y, double parentX, double parentY) {
-        Line line = new Line(parentX, parentY, x, y);
+    private static Line createLine() {
+        Line line = new Line();
         line.setTranslateX(CIRCLE_RADIUS);
         line.setTranslateY(CIRCLE_RADIUS);
         line.setMouseTransparent(true);
@@ -77,115 +158,314 @@ public final class MementoView<S> extends Region {
         return line;
     }
 
-    private static boolean mementoEq(Memento<?> memento, Option<MementoRef> refOption) {
-        return refOption.map(ref -> memento.getId().equals(ref.getMementoId())).getOrElse(false);
+    private static void relocateLine(Line line, double x, double y, double parentX, double parentY) {
+        line.setStartX(parentX);
+        line.setStartY(parentY);
+        line.setEndX(x);
+        line.setEndY(y);
     }
 
-    private Node createLabelledCircle(MementoRef mementoRef, double x, double y, Color valueNodeColor) {
-        Option<Memento<S>> mementoOption = model.getMemento(mementoRef.getMementoId());
+    private static boolean mementoEq(MementoRef mementoRef, Option<MementoRef> refOption) {
+        return refOption.map(ref -> mementoRef.getMementoId().equals(ref.getMementoId())).getOrElse(false);
+    }
 
-        StackPane resultNode = new StackPane();
-        resultNode.setTranslateX(x);
-        resultNode.setTranslateY(y);
+    /**
+     * Updates the view once for any number of model changes.
+     */
+    private void update(List<MementoRef> mementoRefs) {
+        io.vavr.collection.Set<MementoId> mementoIds = io.vavr.collection.HashSet.ofAll(mementoRefs.map(MementoRef::getMementoId));
+        List<MementoNode> existingNodes = mementoRefs.map(MementoRef::getMementoId).distinct().flatMap(mementoId -> layout.getCell(mementoId).flatMap(cell -> nodes.get(cell.getRef())));
+        MementoLayout oldLayout = layout;
+        MementoLayout newLayout = createLayout();
+        update(newLayout, newLayout.getChangedCells(oldLayout));
+        // existing mementos have been replaced (e.g. with a new label), unless their nodes have been recycled meanwhile
+        existingNodes.filter(node -> mementoIds.contains(node.mementoRef.get().getMementoId()))
+                .forEach(MementoNode::refresh);
+        canvas.forEach(c -> mementoIds.forEach(c::refresh));
+        updateSearchMatches();
+        if (oldLayout.getColCount() != layout.getColCount() || oldLayout.getRowCount() != layout.getRowCount()) {
+            requestLayout();
+        }
+    }
 
-        mementoOption.forEach(memento -> {
+    private void updateSearchMatches() {
+        io.vavr.collection.Set<MementoId> matches = io.vavr.collection.HashSet.ofAll(model.search(searchQuery.get()).map(MementoRef::getMementoId));
+        if (!matches.equals(searchMatches.get())) {
+            searchMatches.set(matches);
+        }
+    }
 
-            Circle circle = new Circle(CIRCLE_RADIUS);
-            circle.setFill(valueNodeColor);
-            circle.setStrokeWidth(3);
+    private MementoLayout createLayout() {
+        if (metricsSink == MetricsSink.none()) {
+            return layout.updated(model);
+        }
+        long start = System.nanoTime();
+        MementoLayout newLayout = layout.updated(model);
+        metricsSink.recordLatency(MetricsSink.Timer.LAYOUT, null, System.nanoTime() - start);
+        return newLayout;
+    }
 
-            circle.strokeProperty().bind(Bindings.createObjectBinding(() -> {
-                if (mementoEq(memento, selectionModel.get()) || circle.isHover()) {
-                    return CIRCLE_STROKE_COLOR_SELECTED;
+    /**
+     * @param changedCells the cells added or moved since the current layout, or none to compare all cells
+     */
+    private void update(MementoLayout newLayout, Option<List<MementoLayout.Cell>> changedCells) {
+        long start = metricsSink == MetricsSink.none() ? 0 : System.nanoTime();
+        if (canvas.isDefined()) {
+            updateCanvas(canvas.get(), newLayout);
+        } else {
+            updateNodes(newLayout, changedCells);
+        }
+        layout = newLayout;
+        if (metricsSink != MetricsSink.none()) {
+            metricsSink.recordLatency(MetricsSink.Timer.VIEW_UPDATE, renderMode.name(), System.nanoTime() - start);
+            if (canvas.isEmpty()) {
+                metricsSink.recordGauge(MetricsSink.Gauge.VIEW_NODES, nodes.size() + recycledNodes.size());
+            }
+        }
+    }
+
+    private void updateCanvas(MementoCanvas<S> mementoCanvas, MementoLayout newLayout) {
+        Insets insets = getInsets();
+        // the canvas covers the viewport only (or the whole layout if there is none)
+        Bounds area = viewport.get()
+                .map(v -> (Bounds) new BoundingBox(Math.max(0, v.getMinX() - insets.getLeft()), Math.max(0, v.getMinY() - insets.getTop()), v.getWidth(), v.getHeight()))
+                .getOrElse(() -> new BoundingBox(0, 0, getContentWidth(newLayout), getContentHeight(newLayout)));
+        mementoCanvas.update(newLayout, area);
+        mementoCanvas.relocate(insets.getLeft() + area.getMinX(), insets.getTop() + area.getMinY());
+    }
+
+    private void updateNodes(MementoLayout newLayout, Option<List<MementoLayout.Cell>> changedCells) {
+        Iterable<MementoLayout.Cell> visibleCells;
+        if (viewport.get().isDefined()) {
+            Map<MementoRef, MementoLayout.Cell> cellsInViewport = getCellsInViewport(newLayout, viewport.get().get());
+            visibleCells = cellsInViewport.values();
+            hideNodes(cellsInViewport::containsKey);
+        } else if (changedCells.isDefined()) {
+            // mementos have only been appended, so all other nodes stay where they are
+            visibleCells = changedCells.get();
+        } else {
+            visibleCells = newLayout.getCells();
+            hideNodes(newLayout::contains);
+        }
+
+        for (MementoLayout.Cell cell : visibleCells) {
+            Option<MementoNode> existingNode = nodes.get(cell.getRef());
+            if (existingNode.isEmpty()) {
+                MementoNode node;
+                if (recycledNodes.isEmpty()) {
+                    node = new MementoNode(cell);
                 } else {
-                    return CIRCLE_STROKE_COLOR_UNSELECTED;
+                    node = recycledNodes.head();
+                    recycledNodes = recycledNodes.tail();
+                    node.bind(cell);
                 }
-            }, selectionModel, circle.hoverProperty()));
+                nodes = nodes.put(cell.getRef(), node);
+            } else {
+                boolean moved = layout.getCell(cell.getRef().getMementoId()).map(oldCell -> !oldCell.samePosition(cell)).getOrElse(true);
+                if (moved) {
+                    existingNode.get().relocate(cell);
+                }
+            }
+        }
 
-            circle.setOnMouseClicked(e -> selectionModel.set(Option.some(mementoRef)));
-            circle.setCursor(Cursor.HAND);
+        // keep the number of recycled nodes proportional to the number of visible nodes
+        int excess = recycledNodes.size() - nodes.size();
+        if (excess > 0) {
+            Set<Node> excessSceneNodes = new HashSet<>();
+            recycledNodes.take(excess).forEach(node -> node.collectSceneNodes(excessSceneNodes));
+            nodeGroup.getChildren().removeAll(excessSceneNodes);
+            lineGroup.getChildren().removeAll(excessSceneNodes);
+            recycledNodes = recycledNodes.drop(excess);
+        }
+    }
 
-            Tooltip tooltip = new Tooltip(memento.getToolTip());
-            Tooltip.install(circle, tooltip);
+    /**
+     * Recycles the nodes of mementos which are out of sight or gone (e.g. after the model has been cleared and appended
+     * to again).
+     */
+    private void hideNodes(Function1<MementoRef, Boolean> isVisible) {
+        List<MementoNode> hiddenNodes = nodes.values().filter(node -> !isVisible.apply(node.mementoRef.get())).toList();
+        for (MementoNode node : hiddenNodes) {
+            node.hide();
+            nodes = nodes.remove(node.mementoRef.get());
+            recycledNodes = recycledNodes.prepend(node);
+        }
+    }
 
-            Text text = new Text(memento.getLabel());
-            text.setMouseTransparent(true);
-            text.setBoundsType(TextBoundsType.VISUAL);
+    private static Map<MementoRef, MementoLayout.Cell> getCellsInViewport(MementoLayout layout, Bounds viewport) {
+        int minCol = (int) Math.floor((viewport.getMinX() - 2 * CIRCLE_RADIUS) / OFFSET_X) - VIEWPORT_MARGIN;
+        int maxCol = (int) Math.floor(viewport.getMaxX() / OFFSET_X) + VIEWPORT_MARGIN;
+        int minRow = (int) Math.floor((viewport.getMinY() - 2 * CIRCLE_RADIUS) / OFFSET_Y) - VIEWPORT_MARGIN;
+        int maxRow = (int) Math.floor(viewport.getMaxY() / OFFSET_Y) + VIEWPORT_MARGIN;
+        return HashMap.ofEntries(layout.getCells(minCol, maxCol, minRow, maxRow).map(cell -> Tuple.of(cell.getRef(), cell)));
+    }
 
-            resultNode.getChildren().addAll(circle, text);
+    private static double getContentWidth(MementoLayout layout) {
+        return layout.getColCount() == 0 ? 0 : (layout.getColCount() - 1) * OFFSET_X + 2 * CIRCLE_RADIUS + LINE_STROKE_WIDTH;
+    }
 
-        });
+    private static double getContentHeight(MementoLayout layout) {
+        return layout.getRowCount() == 0 ? 0 : (layout.getRowCount() - 1) * OFFSET_Y + 2 * CIRCLE_RADIUS + LINE_STROKE_WIDTH;
+    }
 
-        return resultNode;
+    @Override
+    protected double computePrefWidth(double height) {
+        Insets insets = getInsets();
+        return insets.getLeft() + getContentWidth(layout) + insets.getRight();
     }
 
-    private void drawMementoBranch(MementoBranchId branch) {
-        Group group = draw(branch);
-        group.setTranslateX(getInsets().getLeft());
-        group.setTranslateY(getInsets().getTop());
-        getChildren().add(group);
+    @Override
+    protected double computePrefHeight(double width) {
+        Insets insets = getInsets();
+        return insets.getTop() + getContentHeight(layout) + insets.getBottom();
     }
 
-    private Group draw(MementoBranchId branch) {
-        Group nodeGroup = new Group();
-        Group lineGroup = new Group();
-        Color color = colorProvider.apply(branch);
-        drawBranchImpl(branch, 0, 0, nodeGroup, lineGroup, color, Option.none());
-        return new Group(lineGroup, nodeGroup);
+    public ReadOnlyObjectProperty<Option<MementoRef>> getSelectionModel() {
+        return selectionModel;
     }
 
-    private void drawBranchImpl(MementoBranchId branchId, final int col, final int row, Group nodeGroup, Group lineGroup, Color color, Option<Point2D> optionalParentCoordinates) {
-        List<Memento<S>> mementos = model.getMementos(branchId).flatMap(model::getMemento);
-        for (int i = 0; i < mementos.size(); i++) {
-            Memento memento = mementos.get(i);
-            int mementoCol = col + i;
-            Option<Point2D> mementoCoordinates = Option.some(new Point2D(mementoCol, row));
+    public ReadOnlyBooleanProperty appendAllowedProperty() {
+        return appendAllowed;
+    }
 
-            double x = mementoCol * OFFSET_X;
-            double y = row * OFFSET_Y;
+    /**
+     * Sets the sink receiving measurements of this view (layouts, updates and the number of nodes). Must be called on
+     * the JavaFX application thread. {@link MetricsSink#none() None} by default.
+     */
+    public void setMetricsSink(MetricsSink metricsSink) {
+        this.metricsSink = metricsSink;
+    }
 
-            MementoRef mementoRef = new MementoRef(memento.getId(), branchId);
-            Node labelledCircle = createLabelledCircle(mementoRef, x, y, color);
-            nodeGroup.getChildren().add(labelledCircle);
+    /**
+     * Mementos matching this query are highlighted (see {@link MementoModel#search(String)}). Empty by default.
+     */
+    public StringProperty searchQueryProperty() {
+        return searchQuery;
+    }
 
-            optionalParentCoordinates.forEach(parentCoordinates -> {
+    /**
+     * The area (in local coordinates of this view) which is currently visible. If defined, the view only creates
+     * nodes for mementos located within this area. If empty, nodes are created for all mementos.
+     */
+    public ObjectProperty<Option<Bounds>> viewportProperty() {
+        return viewport;
+    }
+
+    /**
+     * Virtualizes this view by binding its {@link #viewportProperty() viewport} to the visible area of the given
+     * scroll pane, whose content is expected to be this view.
+     */
+    public void bindViewport(ScrollPane scrollPane) {
+        viewport.bind(Bindings.createObjectBinding(() -> {
+            // the viewport bounds of a scroll pane are offset by the (negative) scroll position
+            Bounds viewportBounds = scrollPane.getViewportBounds();
+            return Option.some(new BoundingBox(-viewportBounds.getMinX(), -viewportBounds.getMinY(), viewportBounds.getWidth(), viewportBounds.getHeight()));
+        }, scrollPane.viewportBoundsProperty()));
+    }
 
-                double parentX = parentCoordinates.getX() * OFFSET_X;
-                double parentY = parentCoordinates.getY() * OFFSET_Y;
+    /**
+     * Determines how mementos are rendered.
+     */
+    public enum RenderMode {
 
-                if (parentCoordinates.getX() == col) {
-                    // horizontally connecting nodes in a branchId
-                    Line line = createLine(x, y, parentX, parentY);
-                    lineGroup.getChildren().add(line);
+        /**
+         * Every memento is represented by its own scene graph nodes.
+         */
+        NODES,
+
+        /**
+         * All mementos are painted onto a single canvas, which is cheaper for big trees. Should be combined with a
+         * {@link #viewportProperty() viewport}, because the canvas size is limited.
+         */
+        CANVAS
+
+    }
+
+    /**
+     * Scene graph nodes representing a single memento: a labelled circle and the lines connecting it to its parent.
+     * Nodes are recycled, i.e. they can be re-bound to other mementos.
+     */
+    private final class MementoNode {
+
+        private final ObjectProperty<MementoRef> mementoRef = new SimpleObjectProperty<>();
+        private final StackPane labelledCircle = new StackPane();
+        private final Circle circle = new Circle(CIRCLE_RADIUS);
+        private final Text text = new Text();
+        private final Tooltip tooltip = new Tooltip();
+        private final Line lineHorizontal = createLine();
+        private final Line lineVertical = createLine();
+
+        private MementoNode(MementoLayout.Cell cell) {
+            circle.setStrokeWidth(CIRCLE_STROKE_WIDTH);
+            circle.strokeProperty().bind(Bindings.createObjectBinding(() -> {
+                if (mementoEq(mementoRef.get(), selectionModel.get()) || circle.isHover()) {
+                    return CIRCLE_STROKE_COLOR_SELECTED;
+                } else if (searchMatches.get().contains(mementoRef.get().getMementoId())) {
+                    return CIRCLE_STROKE_COLOR_MATCHED;
                 } else {
-                    // L-shape connecting parent with branchId start
-                    Line lineVertical = createLine(parentX, y, parentX, parentY);
-                    Line lineHorizontal = createLine(x, y, parentX, y);
-                    lineGroup.getChildren().addAll(lineVertical, lineHorizontal);
+                    return CIRCLE_STROKE_COLOR_UNSELECTED;
                 }
-            });
+            }, selectionModel, searchMatches, mementoRef, circle.hoverProperty()));
 
-            int rowHeight = rowHeightCalculator.calcRowHeight(branchId, i + 1);
+            circle.setOnMouseClicked(e -> selectionModel.set(Option.some(mementoRef.get())));
+            circle.setCursor(Cursor.HAND);
+            Tooltip.install(circle, tooltip);
+
+            text.setMouseTransparent(true);
+            text.setBoundsType(TextBoundsType.VISUAL);
 
-            int siblingRowHeightAcc = 0;
+            labelledCircle.getChildren().addAll(circle, text);
 
-            List<MementoBranchId> branches = model.getBranches(memento.getId());
-            for (int j = 0; j < branches.size(); j++) {
-                siblingRowHeightAcc += j == 0 ? 0 : rowHeightCalculator.calcRowHeight(branches.get(j - 1), 0);
-                MementoBranchId childBranch = branches.get(j);
-                drawBranchImpl(childBranch, (i + col) + 1, row + rowHeight + siblingRowHeightAcc, nodeGroup, lineGroup, colorProvider.apply(childBranch), mementoCoordinates);
-            }
+            lineGroup.getChildren().addAll(lineVertical, lineHorizontal);
+            nodeGroup.getChildren().add(labelledCircle);
 
-            optionalParentCoordinates = mementoCoordinates;
+            bind(cell);
         }
-    }
 
-    public ReadOnlyObjectProperty<Option<MementoRef>> getSelectionModel() {
-        return selectionModel;
-    }
+        private void bind(MementoLayout.Cell cell) {
+            mementoRef.set(cell.getRef());
+            refresh();
+            labelledCircle.setVisible(true);
+            relocate(cell);
+        }
+
+        private void refresh() {
+            circle.setFill(colorProvider.apply(mementoRef.get().getBranchId()));
+            Option<Memento<S>> mementoOption = model.getMemento(mementoRef.get().getMementoId());
+            text.setText(mementoOption.map(Memento::getLabel).getOrNull());
+            tooltip.setText(mementoOption.map(Memento::getToolTip).getOrNull());
+            labelledCircle.setOpacity(model.isPending(mementoRef.get().getMementoId()) ? PENDING_OPACITY : 1);
+        }
+
+        private void relocate(MementoLayout.Cell cell) {
+            double x = cell.getCol() * OFFSET_X;
+            double y = cell.getRow() * OFFSET_Y;
+            labelledCircle.setTranslateX(x);
+            labelledCircle.setTranslateY(y);
+
+            lineHorizontal.setVisible(cell.getParent().isDefined());
+            lineVertical.setVisible(cell.isBranchStart());
+            cell.getParent().forEach(parent -> {
+                double parentX = parent.getCol() * OFFSET_X;
+                double parentY = parent.getRow() * OFFSET_Y;
+                // straight line within a branch, L-shape connecting parent with branch start
+                relocateLine(lineVertical, parentX, y, parentX, parentY);
+                relocateLine(lineHorizontal, x, y, parentX, y);
+            });
+        }
+
+        private void hide() {
+            labelledCircle.setVisible(false);
+            lineHorizontal.setVisible(false);
+            lineVertical.setVisible(false);
+        }
+
+        private void collectSceneNodes(Set<Node> sceneNodes) {
+            sceneNodes.add(labelledCircle);
+            sceneNodes.add(lineVertical);
+            sceneNodes.add(lineHorizontal);
+        }
 
-    public ReadOnlyBooleanProperty appendAllowedProperty() {
-        return appendAllowed;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+package ch.fhnw.ima.memento;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link MetricsSink} which counts the measured operations, keeps a latency histogram per {@link Timer}, and the
+ * latest value of each {@link Gauge}. Recording is lock-free.
+ * <p>
+ * Histogram buckets are powers of two, i.e. percentiles are accurate within a factor of two, which is enough to tell
+ * microseconds from milliseconds.
+ */
+public final class MetricsRecorder implements MetricsSink {
+
+    // bucket i holds latencies below 2^i nanoseconds (and at least 2^(i-1))
+    private static final int BUCKET_COUNT = 64;
+
+    private final LongAdder[] counts = newAdders();
+    private final LongAdder[] totalNanos = newAdders();
+    private final AtomicLongArray maxNanos = new AtomicLongArray(Timer.values().length);
+    private final AtomicLongArray histograms = new AtomicLongArray(Timer.values().length * BUCKET_COUNT);
+    private final AtomicLongArray gauges = new AtomicLongArray(Gauge.values().length);
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[Timer.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    @Override
+    public void recordLatency(Timer timer, String source, long nanos) {
+        int t = timer.ordinal();
+        long latency = Math.max(0, nanos);
+        counts[t].increment();
+        totalNanos[t].add(latency);
+        maxNanos.accumulateAndGet(t, latency, Math::max);
+        histograms.incrementAndGet(t * BUCKET_COUNT + Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(latency)));
+    }
+
+    @Override
+    public void recordGauge(Gauge gauge, long value) {
+        gauges.set(gauge.ordinal(), value);
+    }
+
+    public long getCount(Timer timer) {
+        return counts[timer.ordinal()].sum();
+    }
+
+    public long getTotalNanos(Timer timer) {
+        return totalNanos[timer.ordinal()].sum();
+    }
+
+    public long getMaxNanos(Timer timer) {
+        return maxNanos.get(timer.ordinal());
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99 for the 99th percentile
+     * @return an upper bound (the next power of two) of the given percentile of latencies, or 0 if nothing has been
+     * measured yet
+     */
+    public long getPercentileNanos(Timer timer, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+        int offset = timer.ordinal() * BUCKET_COUNT;
+        long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = histograms.get(offset + i);
+            count += buckets[i];
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the latest value of a gauge (0 if none has been recorded yet)
+     */
+    public long getGauge(Gauge gauge) {
+        return gauges.get(gauge.ordinal());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("MetricsRecorder {");
+        for (Timer timer : Timer.values()) {
+            long count = getCount(timer);
+            if (count > 0) {
+                sb.append(' ').append(timer).append(": count=").append(count)
+                        .append(" p50<").append(getPercentileNanos(timer, 50)).append("ns")
+                        .append(" p99<").append(getPercentileNanos(timer, 99)).append("ns")
+                        .append(" max=").append(getMaxNanos(timer)).append("ns,");
+            }
+        }
+        for (Gauge gauge : Gauge.values()) {
+            sb.append(' ').append(gauge).append('=').append(getGauge(gauge)).append(',');
+        }
+        sb.setLength(sb.length() - 1);
+        return sb.append(" }").toString();
+    }
+
+}
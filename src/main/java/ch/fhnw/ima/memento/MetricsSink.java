@@ -0,0 +1,139 @@
+package ch.fhnw.ima.memento;
+
+/**
+ * Receives measurements of model and view operations (see {@link MementoModel#setMetricsSink(MetricsSink)} and
+ * {@link MementoView#setMetricsSink(MetricsSink)}), e.g. to correlate UI stalls with the size of the history.
+ * <p>
+ * Sinks are called on the measuring thread, possibly by many threads at once, so implementations must be
+ * thread-safe and fast. See {@link MetricsRecorder} for a sink which keeps counters and latency histograms.
+ */
+public interface MetricsSink {
+
+    /**
+     * @param source what has been measured more specifically, e.g. the class of a notified listener (may be null)
+     */
+    void recordLatency(Timer timer, String source, long nanos);
+
+    void recordGauge(Gauge gauge, long value);
+
+    /**
+     * Passes all measurements on to this sink, followed by the given one.
+     */
+    default MetricsSink andThen(MetricsSink other) {
+        MetricsSink self = this;
+        return new MetricsSink() {
+            @Override
+            public void recordLatency(Timer timer, String source, long nanos) {
+                self.recordLatency(timer, source, nanos);
+                other.recordLatency(timer, source, nanos);
+            }
+
+            @Override
+            public void recordGauge(Gauge gauge, long value) {
+                self.recordGauge(gauge, value);
+                other.recordGauge(gauge, value);
+            }
+        };
+    }
+
+    /**
+     * Discards all measurements. Operations are not even timed if this sink is set.
+     */
+    static MetricsSink none() {
+        return NoMetrics.INSTANCE;
+    }
+
+    /**
+     * Emits all measurements as JDK Flight Recorder events (in category "Memento"), which are only recorded while a
+     * recording is running, e.g. when started with <code>-XX:StartFlightRecording</code>. Latency events are
+     * committed once an operation has finished, and carry its duration in a field.
+     *
+     * @throws UnsupportedOperationException if the JVM does not support Flight Recorder events (Java 8u272 or 11 and
+     *                                       later do), or if this library has been built without Flight Recorder
+     *                                       support (by an older JDK)
+     */
+    static MetricsSink flightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+        } catch (ClassNotFoundException e) {
+            throw new UnsupportedOperationException("Flight Recorder is not supported by this JVM", e);
+        }
+        try {
+            // compiled separately, see build.gradle
+            return (MetricsSink) Class.forName("ch.fhnw.ima.memento.FlightRecorderSink").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Flight Recorder support has not been built", e);
+        }
+    }
+
+    enum Timer {
+
+        /**
+         * {@link Originator#createCapture()}
+         */
+        CAPTURE,
+
+        /**
+         * Notification of a single model listener, including asynchronous deliveries (source: listener class).
+         */
+        LISTENER,
+
+        /**
+         * Row height of a branch suffix (see {@link RowHeightCalculator}).
+         */
+        ROW_HEIGHT,
+
+        /**
+         * Layout update of a view, i.e. the mementos appended since the previous layout, or all mementos.
+         */
+        LAYOUT,
+
+        /**
+         * Update of a view's scene graph or canvas after a model change or scrolling (source: render mode).
+         */
+        VIEW_UPDATE
+
+    }
+
+    enum Gauge {
+
+        /**
+         * Number of mementos in a model, after each modification.
+         */
+        MEMENTOS,
+
+        /**
+         * Number of branches in a model, after each modification.
+         */
+        BRANCHES,
+
+        /**
+         * Number of memento nodes (visible and recycled) in a view, after each update.
+         */
+        VIEW_NODES
+
+    }
+
+    final class NoMetrics implements MetricsSink {
+
+        private static final NoMetrics INSTANCE = new NoMetrics();
+
+        private NoMetrics() {
+        }
+
+        @Override
+        public void recordLatency(Timer timer, String source, long nanos) {
+        }
+
+        @Override
+        public void recordGauge(Gauge gauge, long value) {
+        }
+
+        @Override
+        public MetricsSink andThen(MetricsSink other) {
+            return other;
+        }
+
+    }
+
+}
@@ -0,0 +1,241 @@
+package ch.fhnw.ima.memento;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * A {@link StateStore} which keeps serialized states outside of the Java heap, either in direct buffers or in
+ * memory-mapped segments of a file.
+ * <p>
+ * Storage is organized in fixed-size segments, into which states are appended. A handle encodes the segment and the
+ * offset of a state. Segments are released as soon as none of their states is in use anymore. States larger than a
+ * segment get a dedicated segment of their own.
+ * <p>
+ * Memory-mapped segments cannot be unmapped explicitly, so released ones are kept and reused for new segments. The
+ * file is never truncated while the store is open (buffers returned earlier may still be mapped), i.e. it grows up to
+ * the peak amount of allocated segments.
+ * <p>
+ * The store is thread-safe: all methods synchronize on it, since states are requested from any thread while others
+ * are being stored (e.g. by asynchronous captures). A buffer returned by {@link #get(long)} is only valid until its
+ * handle has been removed, as its bytes may be reused afterwards.
+ */
+public final class OffHeapStateStore implements StateStore, AutoCloseable {
+
+    /**
+     * Default segment size (in bytes).
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    // every state is prefixed with its length
+    private static final int HEADER_SIZE = Integer.BYTES;
+
+    private final int segmentSize;
+    private final FileChannel channel;
+    // guarded by this: slots of released segments are null, and are reused for new segments
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    // released memory-mapped segments, which are reused rather than mapped anew
+    private final ArrayList<Segment> freeMappedSegments = new ArrayList<>();
+
+    // the segment states are appended to, -1 if none
+    private int currentSegmentIndex = -1;
+    private long mappedSize;
+
+    private OffHeapStateStore(int segmentSize, FileChannel channel) {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        this.channel = channel;
+    }
+
+    /**
+     * @return a store keeping states in direct buffers
+     */
+    public static OffHeapStateStore direct(int segmentSize) {
+        return new OffHeapStateStore(segmentSize, null);
+    }
+
+    /**
+     * @param file a file which is created (or truncated) to back the store, and which is only in use until the store
+     *             is {@link #close() closed}
+     * @return a store keeping states in memory-mapped segments of a file
+     */
+    public static OffHeapStateStore memoryMapped(Path file, int segmentSize) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new OffHeapStateStore(segmentSize, channel);
+    }
+
+    @Override
+    public synchronized long put(ByteBuffer bytes) {
+        int size = HEADER_SIZE + bytes.remaining();
+        Segment segment = currentSegmentIndex >= 0 ? segments.get(currentSegmentIndex) : null;
+        if (segment == null || segment.buffer.capacity() - segment.position < size) {
+            int previousIndex = currentSegmentIndex;
+            currentSegmentIndex = addSegment(allocate(Math.max(segmentSize, size)));
+            if (segment != null && segment.liveBytes == 0) {
+                release(previousIndex);
+            }
+            segment = segments.get(currentSegmentIndex);
+        }
+        int offset = segment.position;
+        ByteBuffer target = segment.buffer.duplicate();
+        target.position(offset);
+        target.putInt(bytes.remaining());
+        target.put(bytes.duplicate());
+        segment.position += size;
+        segment.liveBytes += size;
+        return ((long) currentSegmentIndex << 32) | offset;
+    }
+
+    @Override
+    public synchronized ByteBuffer get(long handle) {
+        Segment segment = getSegment(handle);
+        int offset = (int) handle;
+        ByteBuffer bytes = segment.buffer.duplicate();
+        bytes.position(offset + HEADER_SIZE);
+        bytes.limit(offset + HEADER_SIZE + segment.buffer.getInt(offset));
+        return bytes.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public synchronized void remove(long handle) {
+        Segment segment = getSegment(handle);
+        segment.liveBytes -= HEADER_SIZE + segment.buffer.getInt((int) handle);
+        int segmentIndex = (int) (handle >>> 32);
+        // the current segment is kept to be appended to
+        if (segment.liveBytes == 0 && segmentIndex != currentSegmentIndex) {
+            release(segmentIndex);
+        }
+    }
+
+    /**
+     * Releases all segments. The backing file (if any) keeps its size, and its segments are reused.
+     */
+    @Override
+    public synchronized void clear() {
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i) != null) {
+                release(i);
+            }
+        }
+        segments.clear();
+        freeSlots.clear();
+        currentSegmentIndex = -1;
+    }
+
+    /**
+     * @return the number of bytes currently used by stored states (including their headers)
+     */
+    public synchronized long getLiveBytes() {
+        long liveBytes = 0;
+        for (Segment segment : segments) {
+            if (segment != null) {
+                liveBytes += segment.liveBytes;
+            }
+        }
+        return liveBytes;
+    }
+
+    /**
+     * @return the number of bytes currently allocated in segments (not including released segments which are kept for
+     * reuse)
+     */
+    public synchronized long getAllocatedBytes() {
+        long allocatedBytes = 0;
+        for (Segment segment : segments) {
+            if (segment != null) {
+                allocatedBytes += segment.buffer.capacity();
+            }
+        }
+        return allocatedBytes;
+    }
+
+    /**
+     * Releases all segments and closes the backing file (if any).
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        segments.clear();
+        freeSlots.clear();
+        freeMappedSegments.clear();
+        currentSegmentIndex = -1;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private Segment getSegment(long handle) {
+        int segmentIndex = (int) (handle >>> 32);
+        Segment segment = segmentIndex < segments.size() ? segments.get(segmentIndex) : null;
+        if (segment == null) {
+            throw new IllegalArgumentException("Invalid handle: " + handle);
+        }
+        return segment;
+    }
+
+    private int addSegment(Segment segment) {
+        Integer freeSlot = freeSlots.pollFirst();
+        if (freeSlot == null) {
+            segments.add(segment);
+            return segments.size() - 1;
+        }
+        segments.set(freeSlot, segment);
+        return freeSlot;
+    }
+
+    private void release(int segmentIndex) {
+        Segment segment = segments.set(segmentIndex, null);
+        freeSlots.addFirst(segmentIndex);
+        if (channel != null) {
+            segment.position = 0;
+            segment.liveBytes = 0;
+            freeMappedSegments.add(segment);
+        }
+    }
+
+    private Segment allocate(int size) {
+        if (channel == null) {
+            return new Segment(ByteBuffer.allocateDirect(size));
+        }
+        // the smallest released segment which is large enough
+        int bestIndex = -1;
+        for (int i = 0; i < freeMappedSegments.size(); i++) {
+            int capacity = freeMappedSegments.get(i).buffer.capacity();
+            if (capacity >= size && (bestIndex < 0 || capacity < freeMappedSegments.get(bestIndex).buffer.capacity())) {
+                bestIndex = i;
+            }
+        }
+        if (bestIndex >= 0) {
+            return freeMappedSegments.remove(bestIndex);
+        }
+        try {
+            Segment segment = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, mappedSize, size));
+            mappedSize += size;
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Segment {
+
+        private final ByteBuffer buffer;
+
+        private int position;
+        private int liveBytes;
+
+        private Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+    }
+
+}
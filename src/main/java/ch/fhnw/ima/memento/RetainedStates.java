@@ -0,0 +1,258 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Internal helper class which keeps memento states within the bounds of a {@link RetentionPolicy}.
+ * <p>
+ * Retained states are ordered by their eviction priority, so that admitting, accessing and evicting a state takes
+ * logarithmic time.
+ * <p>
+ * The spill target and the recapturer are never called while holding the lock which guards the retained states.
+ * Evicted states remain accessible until they have been spilled, and calls to the spill target are queued, so that
+ * they are performed in order (by one thread at a time). Modifications only queue them: they are performed by
+ * {@link #flush()}, which the model calls once it has released its lock. A thread which finds the queue being
+ * drained by another thread leaves its calls to that thread, instead of waiting for the spill target.
+ *
+ * @param <S> State type of captured mementos
+ */
+final class RetainedStates<S> implements StateStrategy<S> {
+
+    private final RetentionPolicy<S> policy;
+    private final Map<MementoId, Entry<S>> entries = new HashMap<>();
+    private final TreeSet<Entry<S>> evictionOrder;
+
+    // evicted states which have not been spilled yet, and the calls to the spill target which are still to be performed
+    private final Map<MementoId, S> unspilledStates = new HashMap<>();
+    private final ArrayDeque<Consumer<RetentionPolicy.SpillTarget<S>>> spillTasks = new ArrayDeque<>();
+    private final AtomicBoolean spilling = new AtomicBoolean();
+
+    private Set<MementoId> focusPath = HashSet.empty();
+    private long retainedWeight;
+    private long clock;
+    // incremented whenever states are removed, see getState()
+    private long removalCount;
+
+    RetainedStates(RetentionPolicy<S> policy) {
+        this.policy = policy;
+        this.evictionOrder = new TreeSet<>(createEvictionOrder(policy.getEviction()));
+    }
+
+    private static <S> Comparator<Entry<S>> createEvictionOrder(RetentionPolicy.Eviction eviction) {
+        Comparator<Entry<S>> leastRecentlyUsed = Comparator.comparingLong(entry -> entry.lastAccess);
+        switch (eviction) {
+            case LEAST_FREQUENTLY_USED:
+                return Comparator.<Entry<S>>comparingLong(entry -> entry.frequency).thenComparing(leastRecentlyUsed);
+            case FOCUS_PATH_LAST:
+                return Comparator.<Entry<S>, Boolean>comparing(entry -> entry.onFocusPath).thenComparing(leastRecentlyUsed);
+            default:
+                return leastRecentlyUsed;
+        }
+    }
+
+    @Override
+    public Memento<S> add(Memento<S> memento, Option<MementoId> parentId) {
+        synchronized (this) {
+            retain(memento.getId(), memento.getState());
+        }
+        return withStateOnDemand(memento);
+    }
+
+    @Override
+    public Memento<S> replace(Memento<S> memento, List<MementoId> childIds) {
+        synchronized (this) {
+            retain(memento.getId(), memento.getState());
+        }
+        return withStateOnDemand(memento);
+    }
+
+    @Override
+    public void remove(MementoId mementoId) {
+        synchronized (this) {
+            Entry<S> entry = entries.remove(mementoId);
+            if (entry != null) {
+                evictionOrder.remove(entry);
+                retainedWeight -= entry.weight;
+            }
+            unspilledStates.remove(mementoId);
+            removalCount++;
+            if (policy.getSpillTarget().isDefined()) {
+                spillTasks.add(spillTarget -> spillTarget.remove(mementoId));
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+            evictionOrder.clear();
+            focusPath = HashSet.empty();
+            retainedWeight = 0;
+            unspilledStates.clear();
+            removalCount++;
+            if (policy.getSpillTarget().isDefined()) {
+                spillTasks.clear();
+                spillTasks.add(RetentionPolicy.SpillTarget::clear);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setFocus(List<MementoId> pathToRoot) {
+        Set<MementoId> oldFocusPath = focusPath;
+        focusPath = pathToRoot.toSet();
+        for (MementoId mementoId : oldFocusPath.diff(focusPath).addAll(focusPath.diff(oldFocusPath))) {
+            Entry<S> entry = entries.get(mementoId);
+            if (entry != null) {
+                evictionOrder.remove(entry);
+                entry.onFocusPath = focusPath.contains(mementoId);
+                evictionOrder.add(entry);
+            }
+        }
+    }
+
+    S getState(MementoId mementoId) {
+        long removalCountBefore;
+        synchronized (this) {
+            Entry<S> entry = entries.get(mementoId);
+            if (entry != null) {
+                evictionOrder.remove(entry);
+                entry.frequency++;
+                entry.lastAccess = ++clock;
+                evictionOrder.add(entry);
+                return entry.state;
+            }
+            S unspilledState = unspilledStates.get(mementoId);
+            if (unspilledState != null) {
+                return unspilledState;
+            }
+            removalCountBefore = removalCount;
+        }
+        S state = policy.getSpillTarget().flatMap(spillTarget -> spillTarget.restore(mementoId))
+                .orElse(() -> policy.getRecapturer().flatMap(recapturer -> recapturer.recapture(mementoId)))
+                .getOrElseThrow(() -> new IllegalStateException("State has been evicted: " + mementoId));
+        synchronized (this) {
+            // the memento may have been removed meanwhile, whose state must not be retained again
+            if (removalCount == removalCountBefore) {
+                retain(mementoId, state);
+            }
+        }
+        flush();
+        return state;
+    }
+
+    synchronized int getRetainedCount() {
+        return entries.size();
+    }
+
+    synchronized long getRetainedWeight() {
+        return retainedWeight;
+    }
+
+    private Memento<S> withStateOnDemand(Memento<S> memento) {
+        MementoId mementoId = memento.getId();
+        return new Memento<>(mementoId, memento.getLabel(), memento.getToolTip(), () -> getState(mementoId));
+    }
+
+    private void retain(MementoId mementoId, S state) {
+        Entry<S> existingEntry = entries.remove(mementoId);
+        long frequency = 1;
+        if (existingEntry != null) {
+            evictionOrder.remove(existingEntry);
+            retainedWeight -= existingEntry.weight;
+            frequency += existingEntry.frequency;
+        }
+        Entry<S> entry = new Entry<>(mementoId, state, policy.weigh(state));
+        entry.frequency = frequency;
+        entry.lastAccess = ++clock;
+        entry.onFocusPath = focusPath.contains(mementoId);
+        entries.put(mementoId, entry);
+        retainedWeight += entry.weight;
+
+        // the admitted state itself is only evicted if it exceeds the capacity on its own
+        while (retainedWeight > policy.getCapacity() && !evictionOrder.isEmpty()) {
+            evict(evictionOrder.pollFirst());
+        }
+        if (retainedWeight > policy.getCapacity()) {
+            evict(entry);
+        } else {
+            evictionOrder.add(entry);
+        }
+    }
+
+    private void evict(Entry<S> entry) {
+        entries.remove(entry.mementoId);
+        retainedWeight -= entry.weight;
+        if (policy.getSpillTarget().isDefined()) {
+            unspilledStates.put(entry.mementoId, entry.state);
+            spillTasks.add(spillTarget -> {
+                spillTarget.spill(entry.mementoId, entry.state);
+                synchronized (this) {
+                    unspilledStates.remove(entry.mementoId, entry.state);
+                }
+            });
+        }
+    }
+
+    /**
+     * Performs the queued calls to the spill target, without holding the lock guarding the retained states.
+     */
+    @Override
+    public void flush() {
+        if (policy.getSpillTarget().isEmpty()) {
+            return;
+        }
+        RetentionPolicy.SpillTarget<S> spillTarget = policy.getSpillTarget().get();
+        // calls queued while another thread was draining are picked up by that thread (checked again after releasing)
+        while (hasSpillTasks() && spilling.compareAndSet(false, true)) {
+            try {
+                Consumer<RetentionPolicy.SpillTarget<S>> spillTask;
+                while ((spillTask = pollSpillTask()) != null) {
+                    spillTask.accept(spillTarget);
+                }
+            } finally {
+                spilling.set(false);
+            }
+        }
+    }
+
+    private synchronized boolean hasSpillTasks() {
+        return !spillTasks.isEmpty();
+    }
+
+    private synchronized Consumer<RetentionPolicy.SpillTarget<S>> pollSpillTask() {
+        return spillTasks.poll();
+    }
+
+    private static final class Entry<S> {
+
+        private final MementoId mementoId;
+        private final S state;
+        private final long weight;
+
+        // eviction priority, only to be modified while not contained in the eviction order
+        private long frequency;
+        private long lastAccess;
+        private boolean onFocusPath;
+
+        private Entry(MementoId mementoId, S state, long weight) {
+            this.mementoId = mementoId;
+            this.state = state;
+            this.weight = weight;
+        }
+
+    }
+
+}
@@ -0,0 +1,149 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.Function1;
+import io.vavr.control.Option;
+
+/**
+ * Bounds the memory retained by the states of a {@link MementoModel} (see
+ * {@link MementoModel#MementoModel(RetentionPolicy)}).
+ * <p>
+ * Once the retained states exceed the capacity, the states of some mementos are evicted. The mementos themselves
+ * (ids, labels, tool tips and topology) are always kept. Evicted states are handed to an optional
+ * {@link SpillTarget}, or dropped otherwise. When an evicted state is requested again, it is restored from the spill
+ * target or recaptured by an optional {@link Recapturer}.
+ * <p>
+ * Policies are immutable, <code>with...</code> methods return a modified copy.
+ *
+ * @param <S> State type of captured mementos
+ */
+public final class RetentionPolicy<S> {
+
+    private final long capacity;
+    private final Function1<S, Long> weigher;
+    private final Eviction eviction;
+    private final Option<SpillTarget<S>> spillTarget;
+    private final Option<Recapturer<S>> recapturer;
+
+    private RetentionPolicy(long capacity, Function1<S, Long> weigher, Eviction eviction, Option<SpillTarget<S>> spillTarget, Option<Recapturer<S>> recapturer) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        this.capacity = capacity;
+        this.weigher = weigher;
+        this.eviction = eviction;
+        this.spillTarget = spillTarget;
+        this.recapturer = recapturer;
+    }
+
+    /**
+     * @return a policy retaining at most the given number of states (least recently used states are evicted first)
+     */
+    public static <S> RetentionPolicy<S> maxCount(long count) {
+        return new RetentionPolicy<>(count, state -> 1L, Eviction.LEAST_RECENTLY_USED, Option.none(), Option.none());
+    }
+
+    /**
+     * @param sizeEstimator estimates the size of a state in bytes
+     * @return a policy retaining states up to the given total size (least recently used states are evicted first)
+     */
+    public static <S> RetentionPolicy<S> maxBytes(long bytes, Function1<S, Long> sizeEstimator) {
+        return new RetentionPolicy<>(bytes, sizeEstimator, Eviction.LEAST_RECENTLY_USED, Option.none(), Option.none());
+    }
+
+    public RetentionPolicy<S> withEviction(Eviction eviction) {
+        return new RetentionPolicy<>(capacity, weigher, eviction, spillTarget, recapturer);
+    }
+
+    public RetentionPolicy<S> withSpillTarget(SpillTarget<S> spillTarget) {
+        return new RetentionPolicy<>(capacity, weigher, eviction, Option.some(spillTarget), recapturer);
+    }
+
+    public RetentionPolicy<S> withRecapturer(Recapturer<S> recapturer) {
+        return new RetentionPolicy<>(capacity, weigher, eviction, spillTarget, Option.some(recapturer));
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    long weigh(S state) {
+        return weigher.apply(state);
+    }
+
+    Eviction getEviction() {
+        return eviction;
+    }
+
+    Option<SpillTarget<S>> getSpillTarget() {
+        return spillTarget;
+    }
+
+    Option<Recapturer<S>> getRecapturer() {
+        return recapturer;
+    }
+
+    /**
+     * Determines which states are evicted first.
+     */
+    public enum Eviction {
+
+        LEAST_RECENTLY_USED,
+
+        LEAST_FREQUENTLY_USED,
+
+        /**
+         * States along the path from the root to the focused memento (see {@link MementoModel#setFocus(MementoId)})
+         * are evicted last, all others in least recently used order.
+         */
+        FOCUS_PATH_LAST
+
+    }
+
+    /**
+     * Receives evicted states, e.g. to write them to disk.
+     * <p>
+     * Spill targets are called without holding any lock of the model, so that slow I/O does not block other threads.
+     * Spilling, removing and clearing happen in the order in which states have been evicted and mementos removed, but
+     * restoring may happen concurrently.
+     *
+     * @param <S> State type of captured mementos
+     */
+    public interface SpillTarget<S> {
+
+        /**
+         * Stores the state of a memento, replacing any state spilled for it before.
+         */
+        void spill(MementoId mementoId, S state);
+
+        /**
+         * Restoring does not discard the spilled state, because a state may be requested by several threads at once.
+         *
+         * @return a previously spilled state (if still available)
+         */
+        Option<S> restore(MementoId mementoId);
+
+        /**
+         * Discards the spilled state (if any) of a memento which has been removed from the model.
+         */
+        void remove(MementoId mementoId);
+
+        /**
+         * Discards all spilled states, because the model has been cleared.
+         */
+        void clear();
+
+    }
+
+    /**
+     * Recaptures evicted states on demand, e.g. by letting the application recompute them.
+     *
+     * @param <S> State type of captured mementos
+     */
+    @FunctionalInterface
+    public interface Recapturer<S> {
+
+        Option<S> recapture(MementoId mementoId);
+
+    }
+
+}
@@ -1,7 +1,5 @@
 package ch.fhnw.ima.memento;
 
-import io.vavr.collection.List;
-
 /**
  * Internal helper class to calculate row heights of memento (sub)trees.
  * <p>
@@ -21,13 +19,17 @@ import io.vavr.collection.List;
  * <p>
  * Calculation of row height for node 2 (index 1):
  * <ul>
- * <li>First, calculate how many rows the component would need just on its own
- * i.e. if it didn't need to encompass node 3 ("own row height"). In our example, the result is <b>3</b>.</li>
- * <li>Then calculate the row height of node 3 by recursively calling <code>calcRowHeight(index + 1)</code>. For
- * node 3, the result is <b>2</b>.</li>
- * <li>To calculate the total row height of node 2, the two results are added and corrected by -1 (because we
- * only need to count the base branch once).
+ * <li>Every memento contributes the summed row heights of the branches forked off it ("forked row height").
+ * In our example, node 2 contributes <b>2</b> and node 3 contributes <b>1</b>.</li>
+ * <li>The row height of a suffix starting at a given index is 1 (for the base branch) plus the forked row heights
+ * of all mementos in the suffix. For node 2, the result is 1 + 2 + 1 = <b>4</b>.</li>
  * </ul>
+ * The forked row heights and the total row height of each branch are kept by the {@link MementoModel} and updated
+ * incrementally whenever a new branch is forked. Hence no recursion is needed: the suffix row height is derived from
+ * the total branch height by subtracting the forked row heights of the preceding mementos, whose sum is kept per
+ * branch in a Fenwick tree and hence takes logarithmic time for any index. Callers iterating a branch front to back
+ * (like {@link MementoLayout}) can do the same with a running value, which makes a full layout linear in the number
+ * of mementos.
  *
  * @author Rahel Lüthy
  */
@@ -44,30 +46,15 @@ final class RowHeightCalculator<S> {
     }
 
     int calcRowHeight(MementoBranchId branchId, int mementoIndex) {
-        List<Memento<S>> mementos = model.getMementos(branchId).flatMap(model::getMemento);
-        if (mementoIndex >= mementos.size()) {
-            return 1;
-        } else {
-            int ownRowHeight = calcOwnRowHeight(mementos.get(mementoIndex).getId());
-            if (mementoIndex == mementos.size() - 1) {
-                return ownRowHeight;
-            } else {
-                return ownRowHeight + calcRowHeight(branchId, mementoIndex + 1) - 1; // -1 only count base branch once
-            }
-        }
+        return model.getRowHeight(branchId, mementoIndex);
+    }
+
+    int calcRowHeight(MementoBranchId branchId) {
+        return model.getRowHeight(branchId);
     }
 
-    private int calcOwnRowHeight(MementoId mementoId) {
-        List<MementoBranchId> branches = model.getBranches(mementoId);
-        if (branches.isEmpty()) {
-            return 1;
-        } else {
-            int rowHeight = 0;
-            for (MementoBranchId mementoBranch : model.getBranches(mementoId)) {
-                rowHeight += calcRowHeight(mementoBranch, 0);
-            }
-            return rowHeight + 1; // + 1 for base branch
-        }
+    int calcForkedRowHeight(MementoId mementoId) {
+        return model.getForkedRowHeight(mementoId);
     }
 
 }
@@ -0,0 +1,64 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Internal helper class which keeps memento states serialized in a {@link StateStore}.
+ * <p>
+ * Only a handle per memento is kept on the heap, states are deserialized whenever they are requested.
+ *
+ * @param <S> State type of captured mementos
+ */
+final class SerializedStates<S> implements StateStrategy<S> {
+
+    private final StateStore store;
+    private final StateSerializer<S> serializer;
+
+    private Map<MementoId, Long> handles = HashMap.empty();
+
+    SerializedStates(StateStore store, StateSerializer<S> serializer) {
+        this.store = store;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public synchronized Memento<S> add(Memento<S> memento, Option<MementoId> parentId) {
+        return store(memento);
+    }
+
+    @Override
+    public synchronized Memento<S> replace(Memento<S> memento, List<MementoId> childIds) {
+        handles.get(memento.getId()).forEach(store::remove);
+        return store(memento);
+    }
+
+    @Override
+    public synchronized void remove(MementoId mementoId) {
+        handles.get(mementoId).forEach(store::remove);
+        handles = handles.remove(mementoId);
+    }
+
+    @Override
+    public synchronized void clear() {
+        handles = HashMap.empty();
+        store.clear();
+    }
+
+    synchronized S getState(MementoId mementoId) {
+        long handle = handles.get(mementoId).getOrElseThrow(() -> new IllegalStateException("Unknown memento: " + mementoId));
+        return serializer.deserialize(store.get(handle));
+    }
+
+    private Memento<S> store(Memento<S> memento) {
+        MementoId mementoId = memento.getId();
+        long handle = store.put(ByteBuffer.wrap(serializer.serialize(memento.getState())));
+        handles = handles.put(mementoId, handle);
+        return new Memento<>(mementoId, memento.getLabel(), memento.getToolTip(), () -> getState(mementoId));
+    }
+
+}
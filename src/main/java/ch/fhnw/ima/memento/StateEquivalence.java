@@ -0,0 +1,38 @@
+package ch.fhnw.ima.memento;
+
+import java.util.Objects;
+
+/**
+ * Decides whether two states are identical, so that a {@link MementoModel} can share a single instance between them
+ * (see {@link MementoModel#MementoModel(StateEquivalence)}).
+ * <p>
+ * Equivalent states must have the same hash.
+ *
+ * @param <S> State type of captured mementos
+ */
+public interface StateEquivalence<S> {
+
+    int hash(S state);
+
+    boolean equivalent(S a, S b);
+
+    /**
+     * @return an equivalence based on {@link Object#hashCode()} and {@link Object#equals(Object)}
+     */
+    static <S> StateEquivalence<S> natural() {
+        return new StateEquivalence<S>() {
+
+            @Override
+            public int hash(S state) {
+                return Objects.hashCode(state);
+            }
+
+            @Override
+            public boolean equivalent(S a, S b) {
+                return Objects.equals(a, b);
+            }
+
+        };
+    }
+
+}
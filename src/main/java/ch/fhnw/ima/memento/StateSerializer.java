@@ -0,0 +1,19 @@
+package ch.fhnw.ima.memento;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts states to bytes and back, so that they can be kept in a {@link StateStore}.
+ *
+ * @param <S> State type of captured mementos
+ */
+public interface StateSerializer<S> {
+
+    byte[] serialize(S state);
+
+    /**
+     * @param bytes a read-only buffer containing exactly the bytes of a serialized state
+     */
+    S deserialize(ByteBuffer bytes);
+
+}
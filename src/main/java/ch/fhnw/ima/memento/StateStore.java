@@ -0,0 +1,34 @@
+package ch.fhnw.ima.memento;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps serialized states outside of a {@link MementoModel} (see
+ * {@link MementoModel#MementoModel(StateStore, StateSerializer)}), e.g. off-heap in an {@link OffHeapStateStore}.
+ * <p>
+ * The model only keeps a small handle per memento and deserializes its state whenever it is requested.
+ */
+public interface StateStore {
+
+    /**
+     * @param bytes the serialized state, from its current position up to its limit
+     * @return a handle to retrieve the bytes again
+     */
+    long put(ByteBuffer bytes);
+
+    /**
+     * @return a read-only buffer containing exactly the bytes stored for the given handle
+     */
+    ByteBuffer get(long handle);
+
+    /**
+     * Releases the bytes stored for the given handle, which must not be used anymore afterwards.
+     */
+    void remove(long handle);
+
+    /**
+     * Releases all stored bytes.
+     */
+    void clear();
+
+}
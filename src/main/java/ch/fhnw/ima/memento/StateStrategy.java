@@ -0,0 +1,56 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+/**
+ * Internal extension point which determines how a {@link MementoModel} keeps the states of its mementos (e.g. as
+ * deltas, or with a bounded memory footprint).
+ * <p>
+ * A strategy takes over the state of each captured memento and returns the memento which is actually stored in the
+ * model. Labels, tool tips and ids are always kept, but the returned memento usually provides its state on demand.
+ * Strategies must be thread-safe, because states can be requested from any thread.
+ *
+ * @param <S> State type of captured mementos
+ */
+interface StateStrategy<S> {
+
+    /**
+     * Takes over the state of a newly appended memento.
+     *
+     * @param parentId the parent of the new memento (none for root mementos)
+     * @return the memento to be stored in the model
+     */
+    Memento<S> add(Memento<S> memento, Option<MementoId> parentId);
+
+    /**
+     * Takes over the new state of an existing memento.
+     *
+     * @param childIds the direct children of the memento
+     * @return the memento to be stored in the model
+     */
+    Memento<S> replace(Memento<S> memento, List<MementoId> childIds);
+
+    /**
+     * Drops the state of a removed memento. Removal always includes all descendants (see
+     * {@link MementoModel#pruneSubtree(MementoId)}), i.e. no remaining memento depends on a removed one.
+     */
+    void remove(MementoId mementoId);
+
+    void clear();
+
+    /**
+     * Informs the strategy about the currently focused memento (e.g. the selected one), given as its path to the
+     * root. Ignored by default.
+     */
+    default void setFocus(List<MementoId> pathToRoot) {
+    }
+
+    /**
+     * Performs deferred work (e.g. I/O) which must not happen while the model's lock is held. Called by the model
+     * after each modification, once its lock has been released. Nothing is deferred by default.
+     */
+    default void flush() {
+    }
+
+}
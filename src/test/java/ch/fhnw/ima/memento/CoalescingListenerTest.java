@@ -0,0 +1,105 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Queue;
+
+import static ch.fhnw.ima.memento.MementoTestUtil.mockOriginator;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoalescingListenerTest {
+
+    @Test
+    void coalescing() {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        ArrayList<List<MementoRef>> deliveries = new ArrayList<>();
+        MementoModel.Listener listener = new MementoModel.Listener() {
+            @Override
+            public void modelChanged(MementoRef mementoRef) {
+                deliveries.add(List.of(mementoRef));
+            }
+
+            @Override
+            public void modelChanged(List<MementoRef> mementoRefs) {
+                deliveries.add(mementoRefs);
+            }
+        };
+
+        MementoModel<String> model = new MementoModel<>();
+        model.addListener(listener, tasks::add);
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+        MementoRef three = model.appendToNewBranch(one, mockOriginator("3"));
+
+        // a single delivery is scheduled for all changes
+        assertTrue(deliveries.isEmpty());
+        assertEquals(1, tasks.size());
+        tasks.poll().run();
+        MementoBranchId master = model.getMasterBranchId();
+        assertEquals(List.of(List.of(new MementoRef(one, master), new MementoRef(two, master), three)), List.ofAll(deliveries));
+
+        // single changes are delivered as such
+        MementoId four = model.appendToMasterBranch(mockOriginator("4"));
+        assertEquals(1, tasks.size());
+        tasks.poll().run();
+        assertEquals(List.of(new MementoRef(four, master)), deliveries.get(1));
+
+        model.removeListener(listener);
+        model.appendToMasterBranch(mockOriginator("5"));
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    void failingListener() {
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        ArrayList<MementoRef> delivered = new ArrayList<>();
+        ArrayList<MementoRemoval> removals = new ArrayList<>();
+        MementoModel.Listener listener = new MementoModel.Listener() {
+            @Override
+            public void modelChanged(MementoRef mementoRef) {
+                delivered.add(mementoRef);
+                if (delivered.size() == 1) {
+                    throw new IllegalStateException("failing listener");
+                }
+            }
+
+            @Override
+            public void mementosRemoved(MementoRemoval removal) {
+                removals.add(removal);
+            }
+        };
+
+        MementoModel<String> model = new MementoModel<>();
+        model.addListener(listener, tasks::add);
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoRef two = model.appendToNewBranch(one, mockOriginator("2"));
+        model.pruneBranch(two.getBranchId());
+        MementoId three = model.appendToMasterBranch(mockOriginator("3"));
+
+        ArrayList<Throwable> reported = new ArrayList<>();
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler((t, e) -> reported.add(e));
+        try {
+            assertEquals(1, tasks.size());
+            tasks.poll().run();
+            assertEquals(1, reported.size());
+            // the removal and changes following the failed notification are not lost
+            assertEquals(1, removals.size());
+            assertEquals(2, delivered.size());
+            assertEquals(three, delivered.get(1).getMementoId());
+
+            // later changes are still delivered
+            model.appendToMasterBranch(mockOriginator("4"));
+            assertEquals(1, tasks.size());
+            tasks.poll().run();
+            assertEquals(3, delivered.size());
+        } finally {
+            thread.setUncaughtExceptionHandler(handler);
+        }
+    }
+
+}
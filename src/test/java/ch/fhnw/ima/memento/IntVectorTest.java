@@ -0,0 +1,53 @@
+package ch.fhnw.ima.memento;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntVectorTest {
+
+    @Test
+    void appendAndGet() {
+        // large enough for a trie of three levels
+        int size = 40_000;
+        IntVector vector = IntVector.empty();
+        for (int i = 0; i < size; i++) {
+            vector = vector.append(i * 7);
+        }
+        assertEquals(size, vector.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(i * 7, vector.get(i));
+        }
+        IntVector full = vector;
+        assertThrows(IndexOutOfBoundsException.class, () -> full.get(size));
+    }
+
+    @Test
+    void setIsPersistent() {
+        IntVector original = IntVector.empty();
+        for (int i = 0; i < 2_000; i++) {
+            original = original.append(i);
+        }
+        IntVector modified = original.set(0, -1).set(1_500, -2).set(1_999, -3);
+
+        assertEquals(-1, modified.get(0));
+        assertEquals(-2, modified.get(1_500));
+        assertEquals(-3, modified.get(1_999));
+        assertEquals(1, modified.get(1));
+
+        assertEquals(0, original.get(0));
+        assertEquals(1_500, original.get(1_500));
+        assertEquals(1_999, original.get(1_999));
+    }
+
+    @Test
+    void appendIsPersistent() {
+        IntVector base = IntVector.empty().append(1).append(2);
+        IntVector a = base.append(3);
+        IntVector b = base.append(4);
+        assertEquals(2, base.size());
+        assertEquals(3, a.get(2));
+        assertEquals(4, b.get(2));
+    }
+
+}
@@ -0,0 +1,203 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static ch.fhnw.ima.memento.MementoTestUtil.mockOriginator;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MementoJournalTest {
+
+    private static final StateSerializer<String> SERIALIZER = new StateSerializer<String>() {
+        @Override
+        public byte[] serialize(String state) {
+            return state.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(ByteBuffer bytes) {
+            byte[] array = new byte[bytes.remaining()];
+            bytes.get(array);
+            return new String(array, StandardCharsets.UTF_8);
+        }
+    };
+
+    @Test
+    void recover() throws IOException {
+        Path file = Files.createTempFile("memento", ".journal");
+        try {
+            try (MementoJournal<String> journal = MementoJournal.open(file, SERIALIZER)) {
+                MementoModel<String> model = journal.recover(new MementoModel<>());
+                model.appendToMasterBranch(mockOriginator("throwaway"));
+                model.clear();
+                MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+                model.appendToMasterBranch(mockOriginator("2"));
+                MementoRef three = model.appendToNewBranch(one, mockOriginator("3"));
+                model.appendToBranch(three.getBranchId(), mockOriginator("4"));
+                model.replace(() -> new Originator.Capture<>(new Memento<>(one, "1'", "tool tip", "state 1'"), false));
+            }
+
+            // simulate a crash while writing a record
+            Files.write(file, new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+            try (MementoJournal<String> journal = MementoJournal.open(file, SERIALIZER)) {
+                MementoModel<String> model = new MementoModel<>();
+                java.util.List<MementoRef> events = new java.util.ArrayList<>();
+                model.addListener(events::add);
+                journal.recover(model);
+                assertTrue(events.isEmpty());
+
+                List<MementoId> master = model.getMementos(model.getMasterBranchId());
+                assertEquals(List.of("1'", "2"), master.map(id -> model.getMemento(id).get().getLabel()));
+                assertEquals("state 1'", model.getMemento(master.get(0)).get().getState());
+                assertEquals("tool tip", model.getMemento(master.get(0)).get().getToolTip());
+
+                MementoBranchId branchId = model.getBranches(master.get(0)).single();
+                assertEquals(List.of("3", "4"), model.getMementos(branchId).map(id -> model.getMemento(id).get().getLabel()));
+                assertEquals(List.of(master.get(0)), model.search("1'").map(MementoRef::getMementoId));
+
+                // recovered models continue to be journaled
+                model.appendToBranch(branchId, mockOriginator("5"));
+            }
+
+            try (MementoJournal<String> journal = MementoJournal.open(file, SERIALIZER, 0)) {
+                MementoModel<String> model = journal.recover(new MementoModel<>());
+                assertEquals(5, model.getAllMementosFlattened().size());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void recoverRemovals() throws IOException {
+        Path file = Files.createTempFile("memento", ".journal");
+        try {
+            try (MementoJournal<String> journal = MementoJournal.open(file, SERIALIZER)) {
+                MementoModel<String> model = journal.recover(new MementoModel<>());
+                MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+                MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+                MementoRef three = model.appendToNewBranch(one, mockOriginator("3"));
+                model.appendToNewBranch(two, mockOriginator("4"));
+                model.pruneBranch(three.getBranchId());
+                model.pruneSubtree(two);
+                // numbers of removed mementos must not be reused
+                model.appendToMasterBranch(mockOriginator("5"));
+                model.appendToNewBranch(one, mockOriginator("6"));
+            }
+
+            try (MementoJournal<String> journal = MementoJournal.open(file, SERIALIZER)) {
+                MementoModel<String> model = journal.recover(new MementoModel<>());
+                List<MementoId> master = model.getMementos(model.getMasterBranchId());
+                assertEquals(List.of("1", "5"), master.map(id -> model.getMemento(id).get().getLabel()));
+                MementoBranchId branchId = model.getBranches(master.get(0)).single();
+                assertEquals(List.of("6"), model.getMementos(branchId).map(id -> model.getMemento(id).get().getLabel()));
+                assertEquals(3, model.getAllMementosFlattened().size());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void recoverConcurrentModifications() throws Exception {
+        Path file = Files.createTempFile("memento", ".journal");
+        try {
+            try (MementoJournal<String> journal = MementoJournal.open(file, SERIALIZER, 0)) {
+                MementoModel<String> model = journal.recover(new MementoModel<>());
+                MementoId root = model.appendToMasterBranch(mockOriginator("root"));
+                // records are written outside the model's lock, but must keep the order of the modifications
+                Thread[] threads = new Thread[4];
+                for (int i = 0; i < threads.length; i++) {
+                    threads[i] = new Thread(() -> {
+                        MementoRef ref = model.appendToNewBranch(root, mockOriginator("fork"));
+                        for (int j = 0; j < 50; j++) {
+                            model.appendToBranch(ref.getBranchId(), mockOriginator("append"));
+                        }
+                    });
+                    threads[i].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            }
+
+            try (MementoJournal<String> journal = MementoJournal.open(file, SERIALIZER)) {
+                MementoModel<String> model = journal.recover(new MementoModel<>());
+                MementoId root = model.getMementos(model.getMasterBranchId()).single();
+                assertEquals(4, model.getBranches(root).size());
+                model.getBranches(root).forEach(branchId -> assertEquals(51, model.getMementos(branchId).size()));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void unrecordableModification() throws IOException {
+        StateSerializer<String> failingSerializer = new StateSerializer<String>() {
+            @Override
+            public byte[] serialize(String state) {
+                if (state.equals("bad")) {
+                    throw new IllegalArgumentException("Not serializable");
+                }
+                return SERIALIZER.serialize(state);
+            }
+
+            @Override
+            public String deserialize(ByteBuffer bytes) {
+                return SERIALIZER.deserialize(bytes);
+            }
+        };
+        Originator<String> bad = () -> new Originator.Capture<>(new Memento<>(new MementoId.DefaultMementoId(), "bad", "tool tip", "bad"), true);
+        Path file = Files.createTempFile("memento", ".journal");
+        try {
+            try (MementoJournal<String> journal = MementoJournal.open(file, failingSerializer, 0)) {
+                MementoModel<String> model = journal.recover(new MementoModel<>());
+                MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+
+                // modifications which cannot be recorded are not applied
+                assertThrows(IllegalArgumentException.class, () -> model.appendToMasterBranch(bad));
+                assertThrows(IllegalArgumentException.class, () -> model.batch(batch -> {
+                    batch.appendToNewBranch(one, mockOriginator("2"));
+                    batch.appendToMasterBranch(bad);
+                }));
+                assertEquals(List.of(one), model.getAllMementosFlattened());
+                assertTrue(model.getBranches(one).isEmpty());
+
+                model.appendToNewBranch(one, mockOriginator("3"));
+            }
+
+            try (MementoJournal<String> journal = MementoJournal.open(file, SERIALIZER)) {
+                MementoModel<String> model = journal.recover(new MementoModel<>());
+                MementoId one = model.getMementos(model.getMasterBranchId()).single();
+                MementoBranchId branchId = model.getBranches(one).single();
+                assertEquals(List.of("3"), model.getMementos(branchId).map(id -> model.getMemento(id).get().getLabel()));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void recoverOnlyOnce() throws IOException {
+        Path file = Files.createTempFile("memento", ".journal");
+        try (MementoJournal<String> journal = MementoJournal.open(file, SERIALIZER)) {
+            MementoModel<String> model = new MementoModel<>();
+            model.appendToMasterBranch(mockOriginator("1"));
+            assertThrows(IllegalArgumentException.class, () -> journal.recover(model));
+            journal.recover(new MementoModel<>());
+            assertThrows(IllegalStateException.class, () -> journal.recover(new MementoModel<>()));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
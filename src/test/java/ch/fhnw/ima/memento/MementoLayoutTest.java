@@ -0,0 +1,191 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+import io.vavr.collection.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static ch.fhnw.ima.memento.MementoTestUtil.mockOriginator;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MementoLayoutTest {
+
+    private MementoModel<String> model;
+
+    @BeforeEach
+    void beforeEach() {
+        model = new MementoModel<>();
+    }
+
+    @Test
+    void empty() {
+        assertEquals(0, MementoLayout.of(model).size());
+    }
+
+    @Test
+    void layout() {
+
+        // 1 ––––––––––––––– 2 ––––––––––––––– 3
+        // │                 │                 └── A 3.1
+        // │                 └── A 2.1 - A 2.2
+        // │                 └── B 2.1
+        // └── A 1.1
+
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+        MementoId three = model.appendToMasterBranch(mockOriginator("3"));
+
+        MementoRef a11 = model.appendToNewBranch(one, mockOriginator("A 1.1"));
+        MementoRef a21 = model.appendToNewBranch(two, mockOriginator("A 2.1"));
+        MementoId a22 = model.appendToBranch(a21.getBranchId(), mockOriginator("A 2.2"));
+        MementoRef b21 = model.appendToNewBranch(two, mockOriginator("B 2.1"));
+        MementoRef a31 = model.appendToNewBranch(three, mockOriginator("A 3.1"));
+
+        MementoLayout layout = MementoLayout.of(model);
+        assertEquals(8, layout.size());
+
+        assertPosition(layout, one, 0, 0);
+        assertPosition(layout, two, 1, 0);
+        assertPosition(layout, three, 2, 0);
+        assertPosition(layout, a31.getMementoId(), 3, 1);
+        assertPosition(layout, a21.getMementoId(), 2, 2);
+        assertPosition(layout, a22, 3, 2);
+        assertPosition(layout, b21.getMementoId(), 2, 3);
+        assertPosition(layout, a11.getMementoId(), 1, 4);
+
+        MementoLayout.Cell a21Cell = layout.getCell(a21.getMementoId()).get();
+        assertTrue(a21Cell.isBranchStart());
+        assertEquals(two, a21Cell.getParent().get().getRef().getMementoId());
+
+        MementoLayout.Cell a22Cell = layout.getCell(a22).get();
+        assertFalse(a22Cell.isBranchStart());
+        assertEquals(a21.getMementoId(), a22Cell.getParent().get().getRef().getMementoId());
+
+        assertTrue(layout.getCell(one).get().getParent().isEmpty());
+    }
+
+    @Test
+    void samePosition() {
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+        MementoRef a11 = model.appendToNewBranch(one, mockOriginator("A 1.1"));
+        MementoLayout before = MementoLayout.of(model);
+
+        // pushes A 1.1 one row down, but leaves the master branch untouched
+        model.appendToNewBranch(two, mockOriginator("A 2.1"));
+        MementoLayout after = MementoLayout.of(model);
+
+        assertTrue(before.getCell(two).get().samePosition(after.getCell(two).get()));
+        assertFalse(before.getCell(a11.getMementoId()).get().samePosition(after.getCell(a11.getMementoId()).get()));
+    }
+
+    @Test
+    void cellsInArea() {
+
+        // 1 – 2 – 3
+        // │       └── A 3.1 – A 3.2
+        // └── A 1.1
+
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+        MementoId three = model.appendToMasterBranch(mockOriginator("3"));
+        MementoRef a31 = model.appendToNewBranch(three, mockOriginator("A 3.1"));
+        MementoId a32 = model.appendToBranch(a31.getBranchId(), mockOriginator("A 3.2"));
+        MementoRef a11 = model.appendToNewBranch(one, mockOriginator("A 1.1"));
+
+        MementoLayout layout = MementoLayout.of(model);
+        assertEquals(5, layout.getColCount());
+        assertEquals(3, layout.getRowCount());
+
+        assertEquals(List.of(two, three, a31.getMementoId()).toSet(), idsInArea(layout, 1, 3, 0, 1));
+        assertEquals(List.of(a32).toSet(), idsInArea(layout, 4, 4, 1, 1));
+
+        // the L-shape connecting A 1.1 crosses row 1 in column 0
+        assertEquals(List.of(a11.getMementoId()).toSet(), idsInArea(layout, 0, 0, 1, 1));
+    }
+
+    @Test
+    void updated() {
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+        MementoLayout before = MementoLayout.of(model);
+
+        MementoRef a11 = model.appendToNewBranch(one, mockOriginator("A 1.1"));
+        MementoLayout forked = before.updated(model);
+        assertLayout(MementoLayout.of(model), forked);
+        assertEquals(List.of(a11.getMementoId()).toSet(), forked.getChangedCells(before).get().map(cell -> cell.getRef().getMementoId()).toSet());
+
+        // pushes A 1.1 one row down, but leaves the master branch untouched
+        MementoRef a21 = model.appendToNewBranch(two, mockOriginator("A 2.1"));
+        MementoLayout pushed = forked.updated(model);
+        assertLayout(MementoLayout.of(model), pushed);
+        assertEquals(List.of(a11.getMementoId(), a21.getMementoId()).toSet(), pushed.getChangedCells(forked).get().map(cell -> cell.getRef().getMementoId()).toSet());
+        assertTrue(pushed.getChangedCells(before).isEmpty());
+        assertSame(pushed, pushed.updated(model));
+    }
+
+    @Test
+    void updatedRandomly() {
+        Random random = new Random(42);
+        java.util.List<MementoId> mementoIds = new ArrayList<>();
+        java.util.List<MementoBranchId> branchIds = new ArrayList<>();
+        mementoIds.add(model.appendToMasterBranch(mockOriginator("0")));
+        branchIds.add(model.getMasterBranchId());
+        MementoLayout layout = MementoLayout.of(model);
+        for (int i = 1; i < 300; i++) {
+            // batches of up to four changes, as delivered by a coalescing listener
+            if (random.nextInt(3) == 0) {
+                MementoRef forked = model.appendToNewBranch(mementoIds.get(random.nextInt(mementoIds.size())), mockOriginator(String.valueOf(i)));
+                mementoIds.add(forked.getMementoId());
+                branchIds.add(forked.getBranchId());
+            } else {
+                mementoIds.add(model.appendToBranch(branchIds.get(random.nextInt(branchIds.size())), mockOriginator(String.valueOf(i))));
+            }
+            if (random.nextInt(4) == 0) {
+                layout = layout.updated(model);
+                assertLayout(MementoLayout.of(model), layout);
+            }
+        }
+    }
+
+    @Test
+    void updatedAfterClear() {
+        model.appendToMasterBranch(mockOriginator("1"));
+        MementoLayout before = MementoLayout.of(model);
+        model.clear();
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+
+        MementoLayout after = before.updated(model);
+        assertEquals(1, after.size());
+        assertPosition(after, one, 0, 0);
+        assertTrue(after.getChangedCells(before).isEmpty());
+    }
+
+    private static void assertLayout(MementoLayout expected, MementoLayout actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getColCount(), actual.getColCount());
+        assertEquals(expected.getRowCount(), actual.getRowCount());
+        List<MementoLayout.Cell> expectedCells = List.ofAll(expected.getCells());
+        assertEquals(expectedCells.map(MementoLayout.Cell::getRef), List.ofAll(actual.getCells()).map(MementoLayout.Cell::getRef));
+        for (MementoLayout.Cell expectedCell : expectedCells) {
+            MementoLayout.Cell actualCell = actual.getCell(expectedCell.getRef().getMementoId()).get();
+            assertTrue(expectedCell.samePosition(actualCell));
+            assertEquals(expectedCell.isBranchStart(), actualCell.isBranchStart());
+        }
+        assertEquals(idsInArea(expected, 0, expected.getColCount(), 0, expected.getRowCount()), idsInArea(actual, 0, actual.getColCount(), 0, actual.getRowCount()));
+    }
+
+    private static Set<MementoId> idsInArea(MementoLayout layout, int minCol, int maxCol, int minRow, int maxRow) {
+        return layout.getCells(minCol, maxCol, minRow, maxRow).map(cell -> cell.getRef().getMementoId()).toSet();
+    }
+
+    private static void assertPosition(MementoLayout layout, MementoId mementoId, int expectedCol, int expectedRow) {
+        MementoLayout.Cell cell = layout.getCell(mementoId).get();
+        assertEquals(expectedCol, cell.getCol());
+        assertEquals(expectedRow, cell.getRow());
+    }
+
+}
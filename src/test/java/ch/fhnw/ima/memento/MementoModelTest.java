@@ -4,6 +4,16 @@ import io.vavr.collection.List;
 import io.vavr.control.Option;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static ch.fhnw.ima.memento.MementoTestUtil.DUMMY_TOOLTIP;
@@ -46,6 +56,868 @@ class MementoModelTest {
 
     }
 
+    @Test
+    void sequentialIds() {
+        MementoModel<String> model = new MementoModel<>(MementoIdGenerator.sequential());
+        MementoId one = model.appendToMasterBranch(() -> new Originator.Capture<>(new Memento<>(model.newMementoId(), "1", DUMMY_TOOLTIP, "1"), true));
+        MementoRef two = model.appendToNewBranch(one, () -> new Originator.Capture<>(new Memento<>(model.newMementoId(), "2", DUMMY_TOOLTIP, "2"), true));
+
+        assertNotEquals(one, two.getMementoId());
+        assertNotEquals(model.getMasterBranchId(), two.getBranchId());
+        assertEquals(List.of(one), model.getMementos(model.getMasterBranchId()));
+        assertEquals(Option.some(one), model.getParent(two.getMementoId()));
+
+        // ids of different generators never collide
+        MementoModel<String> other = new MementoModel<>(MementoIdGenerator.sequential());
+        assertNotEquals(model.getMasterBranchId(), other.getMasterBranchId());
+        assertNotEquals(model.newMementoId(), other.newMementoId());
+    }
+
+    @Test
+    void tip() {
+        MementoModel<String> model = new MementoModel<>();
+        MementoBranchId masterBranchId = model.getMasterBranchId();
+        assertTrue(model.getTip(masterBranchId).isEmpty());
+
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        assertEquals(Option.some(one), model.getTip(masterBranchId));
+        assertTrue(model.isTip(new MementoRef(one, masterBranchId)));
+
+        MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+        assertEquals(Option.some(two), model.getTip(masterBranchId));
+        assertFalse(model.isTip(new MementoRef(one, masterBranchId)));
+        assertTrue(model.isTip(new MementoRef(two, masterBranchId)));
+
+        MementoRef oneDotOne = model.appendToNewBranch(one, mockOriginator("1.1"));
+        assertTrue(model.isTip(oneDotOne));
+        assertFalse(model.isTip(new MementoRef(oneDotOne.getMementoId(), masterBranchId)));
+
+        assertEquals(Option.some(one), model.getMementoId(masterBranchId, 0));
+        assertEquals(Option.some(two), model.getMementoId(masterBranchId, 1));
+        assertTrue(model.getMementoId(masterBranchId, 2).isEmpty());
+        assertTrue(model.getMementoId(masterBranchId, -1).isEmpty());
+    }
+
+    @Test
+    void positions() {
+
+        // 1 – 2 – 3
+        //     └── 2.1 – 2.2
+        //         └── 2.1.1
+
+        MementoModel<String> model = new MementoModel<>();
+        MementoBranchId masterBranchId = model.getMasterBranchId();
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+        MementoId three = model.appendToMasterBranch(mockOriginator("3"));
+        MementoRef twoDotOne = model.appendToNewBranch(two, mockOriginator("2.1"));
+        MementoId twoDotTwo = model.appendToBranch(twoDotOne.getBranchId(), mockOriginator("2.2"));
+        MementoRef twoDotOneDotOne = model.appendToNewBranch(twoDotOne.getMementoId(), mockOriginator("2.1.1"));
+
+        assertEquals(Option.some(new MementoRef(three, masterBranchId)), model.getMementoRef(three));
+        assertEquals(Option.some(new MementoRef(twoDotTwo, twoDotOne.getBranchId())), model.getMementoRef(twoDotTwo));
+        assertEquals(Option.some(2), model.getIndex(three));
+        assertEquals(Option.some(1), model.getIndex(twoDotTwo));
+        assertEquals(Option.some(0), model.getIndex(twoDotOneDotOne.getMementoId()));
+
+        assertTrue(model.getForkPoint(masterBranchId).isEmpty());
+        assertEquals(Option.some(two), model.getForkPoint(twoDotOne.getBranchId()));
+        assertEquals(Option.some(twoDotOne.getMementoId()), model.getForkPoint(twoDotOneDotOne.getBranchId()));
+
+        assertTrue(model.getParent(one).isEmpty());
+        assertEquals(Option.some(two), model.getParent(three));
+        assertEquals(Option.some(two), model.getParent(twoDotOne.getMementoId()));
+        assertEquals(Option.some(twoDotOne.getMementoId()), model.getParent(twoDotTwo));
+
+        assertEquals(List.of(one), model.getPathToRoot(one));
+        assertEquals(List.of(three, two, one), model.getPathToRoot(three));
+        assertEquals(List.of(twoDotOneDotOne.getMementoId(), twoDotOne.getMementoId(), two, one), model.getPathToRoot(twoDotOneDotOne.getMementoId()));
+        assertEquals(List.of(twoDotTwo, twoDotOne.getMementoId(), two, one), model.getPathToRoot(twoDotTwo));
+        assertTrue(model.getPathToRoot(new MementoId.DefaultMementoId()).isEmpty());
+
+        model.clear();
+        assertTrue(model.getMementoRef(three).isEmpty());
+        assertTrue(model.getForkPoint(twoDotOne.getBranchId()).isEmpty());
+        assertTrue(model.getPathToRoot(three).isEmpty());
+    }
+
+    @Test
+    void lowestCommonAncestor() {
+
+        // 1 – 2 – 3
+        //     └── 2.1 – 2.2
+        //         └── 2.1.1
+
+        MementoModel<String> model = new MementoModel<>();
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+        MementoId three = model.appendToMasterBranch(mockOriginator("3"));
+        MementoRef twoDotOne = model.appendToNewBranch(two, mockOriginator("2.1"));
+        MementoId twoDotTwo = model.appendToBranch(twoDotOne.getBranchId(), mockOriginator("2.2"));
+        MementoId twoDotOneDotOne = model.appendToNewBranch(twoDotOne.getMementoId(), mockOriginator("2.1.1")).getMementoId();
+
+        assertEquals(Option.some(0), model.getDepth(one));
+        assertEquals(Option.some(3), model.getDepth(twoDotOneDotOne));
+
+        assertEquals(Option.some(two), model.lowestCommonAncestor(three, twoDotTwo));
+        assertEquals(Option.some(twoDotOne.getMementoId()), model.lowestCommonAncestor(twoDotTwo, twoDotOneDotOne));
+        assertEquals(Option.some(two), model.lowestCommonAncestor(two, twoDotOneDotOne));
+        assertEquals(Option.some(three), model.lowestCommonAncestor(three, three));
+        assertTrue(model.lowestCommonAncestor(three, new MementoId.DefaultMementoId()).isEmpty());
+
+        assertEquals(Option.some(3), model.distance(three, twoDotTwo));
+        assertEquals(Option.some(2), model.distance(twoDotTwo, twoDotOneDotOne));
+        assertEquals(Option.some(0), model.distance(one, one));
+    }
+
+    @Test
+    void lowestCommonAncestorRandomTree() {
+        MementoModel<String> model = new MementoModel<>();
+        Random random = new Random(42);
+        java.util.List<MementoId> mementoIds = new ArrayList<>();
+        mementoIds.add(model.appendToMasterBranch(mockOriginator("*")));
+        for (int i = 0; i < 500; i++) {
+            MementoId mementoId = mementoIds.get(random.nextInt(mementoIds.size()));
+            MementoRef ref = model.getMementoRef(mementoId).get();
+            if (model.isTip(ref) && random.nextBoolean()) {
+                mementoIds.add(model.appendToBranch(ref.getBranchId(), mockOriginator("*")));
+            } else {
+                mementoIds.add(model.appendToNewBranch(mementoId, mockOriginator("*")).getMementoId());
+            }
+        }
+        for (int i = 0; i < 500; i++) {
+            MementoId a = mementoIds.get(random.nextInt(mementoIds.size()));
+            MementoId b = mementoIds.get(random.nextInt(mementoIds.size()));
+            List<MementoId> pathA = model.getPathToRoot(a);
+            List<MementoId> pathB = model.getPathToRoot(b);
+            MementoId expected = pathA.find(pathB::contains).get();
+            assertEquals(Option.some(expected), model.lowestCommonAncestor(a, b));
+            assertEquals(Option.some(pathA.indexOf(expected) + pathB.indexOf(expected)), model.distance(a, b));
+        }
+    }
+
+    @Test
+    void deltaMode() {
+        AtomicInteger appliedDeltas = new AtomicInteger();
+        DeltaCodec<Integer> codec = (base, target) -> b -> {
+            appliedDeltas.incrementAndGet();
+            return b + (target - base);
+        };
+        // no cache, so that every state has to be reconstructed
+        MementoModel<Integer> model = new MementoModel<>(codec, 3, 0);
+
+        java.util.List<MementoId> master = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            master.add(model.appendToMasterBranch(integerOriginator(i * i)));
+        }
+        MementoRef forked = model.appendToNewBranch(master.get(4), integerOriginator(-1));
+        MementoId forkedTip = model.appendToBranch(forked.getBranchId(), integerOriginator(-2));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * i, model.getMemento(master.get(i)).get().getState().intValue());
+        }
+        assertEquals(-1, model.getMemento(forked.getMementoId()).get().getState().intValue());
+        assertEquals(-2, model.getMemento(forkedTip).get().getState().intValue());
+
+        // replay is bounded by the keyframe interval
+        appliedDeltas.set(0);
+        model.getMemento(master.get(8)).get().getState();
+        assertTrue(appliedDeltas.get() < 3);
+
+        // replacing a state must not affect the states of its children
+        model.replace(() -> new Originator.Capture<>(new Memento<>(master.get(4), "4", DUMMY_TOOLTIP, 100), true));
+        assertEquals(100, model.getMemento(master.get(4)).get().getState().intValue());
+        assertEquals(25, model.getMemento(master.get(5)).get().getState().intValue());
+        assertEquals(-1, model.getMemento(forked.getMementoId()).get().getState().intValue());
+        assertEquals(-2, model.getMemento(forkedTip).get().getState().intValue());
+    }
+
+    @Test
+    void retention() {
+        java.util.Map<MementoId, Integer> spilled = new java.util.HashMap<>();
+        RetentionPolicy.SpillTarget<Integer> spillTarget = new RetentionPolicy.SpillTarget<Integer>() {
+            @Override
+            public void spill(MementoId mementoId, Integer state) {
+                spilled.put(mementoId, state);
+            }
+
+            @Override
+            public Option<Integer> restore(MementoId mementoId) {
+                return Option.of(spilled.get(mementoId));
+            }
+
+            @Override
+            public void remove(MementoId mementoId) {
+                spilled.remove(mementoId);
+            }
+
+            @Override
+            public void clear() {
+                spilled.clear();
+            }
+        };
+        MementoModel<Integer> model = new MementoModel<>(RetentionPolicy.<Integer>maxCount(2).withSpillTarget(spillTarget));
+
+        MementoId one = model.appendToMasterBranch(integerOriginator(1));
+        MementoId two = model.appendToMasterBranch(integerOriginator(2));
+        MementoId three = model.appendToMasterBranch(integerOriginator(3));
+
+        // metadata is kept, the state is spilled
+        assertEquals(List.of(one, two, three), model.getMementos(model.getMasterBranchId()));
+        assertEquals("1", model.getMemento(one).get().getLabel());
+        assertEquals(Option.some(1), Option.of(spilled.get(one)));
+
+        // restoring a state evicts the least recently used one
+        assertEquals(1, model.getMemento(one).get().getState().intValue());
+        assertEquals(Option.some(2), Option.of(spilled.get(two)));
+        assertEquals(2, model.getMemento(two).get().getState().intValue());
+        assertEquals(3, model.getMemento(three).get().getState().intValue());
+
+        // spilled states of removed mementos are discarded
+        assertTrue(spilled.containsKey(one));
+        model.pruneSubtree(one);
+        assertTrue(spilled.isEmpty());
+        model.appendToMasterBranch(integerOriginator(4));
+        model.appendToMasterBranch(integerOriginator(5));
+        model.appendToMasterBranch(integerOriginator(6));
+        assertFalse(spilled.isEmpty());
+        model.clear();
+        assertTrue(spilled.isEmpty());
+    }
+
+    @Test
+    void retentionWithoutSpillTarget() {
+        MementoModel<Integer> droppingModel = new MementoModel<>(RetentionPolicy.maxCount(1));
+        MementoId dropped = droppingModel.appendToMasterBranch(integerOriginator(1));
+        droppingModel.appendToMasterBranch(integerOriginator(2));
+        assertThrows(IllegalStateException.class, () -> droppingModel.getMemento(dropped).get().getState());
+
+        MementoModel<Integer> recapturingModel = new MementoModel<>(RetentionPolicy.<Integer>maxCount(1).withRecapturer(mementoId -> Option.some(42)));
+        MementoId recaptured = recapturingModel.appendToMasterBranch(integerOriginator(1));
+        recapturingModel.appendToMasterBranch(integerOriginator(2));
+        assertEquals(42, recapturingModel.getMemento(recaptured).get().getState().intValue());
+    }
+
+    @Test
+    void serializedStates() {
+        OffHeapStateStore store = OffHeapStateStore.direct(64);
+        MementoModel<Integer> model = new MementoModel<>(store, integerSerializer());
+
+        MementoId one = model.appendToMasterBranch(integerOriginator(1));
+        MementoId two = model.appendToMasterBranch(integerOriginator(2));
+        assertEquals(1, model.getMemento(one).get().getState().intValue());
+        assertEquals(2, model.getMemento(two).get().getState().intValue());
+
+        model.replace(() -> new Originator.Capture<>(new Memento<>(one, "1", DUMMY_TOOLTIP, 11), false));
+        assertEquals(11, model.getMemento(one).get().getState().intValue());
+        assertEquals(2 * (Integer.BYTES + Integer.BYTES), store.getLiveBytes());
+
+        model.clear();
+        assertEquals(0, store.getLiveBytes());
+    }
+
+    @Test
+    void deduplicatedStates() {
+        MementoModel<String> model = new MementoModel<>(StateEquivalence.natural());
+        MementoId one = model.appendToMasterBranch(() -> new Originator.Capture<>(new Memento<>(model.newMementoId(), "1", DUMMY_TOOLTIP, new String("on")), true));
+        MementoId two = model.appendToMasterBranch(() -> new Originator.Capture<>(new Memento<>(model.newMementoId(), "2", DUMMY_TOOLTIP, new String("off")), true));
+        MementoId three = model.appendToMasterBranch(() -> new Originator.Capture<>(new Memento<>(model.newMementoId(), "3", DUMMY_TOOLTIP, new String("on")), true));
+
+        assertSame(model.getMemento(one).get().getState(), model.getMemento(three).get().getState());
+        assertEquals(3, model.getDedupStatistics().get().getStateCount());
+        assertEquals(2, model.getDedupStatistics().get().getDistinctStateCount());
+        assertEquals(1.5, model.getDedupStatistics().get().getDedupRatio());
+
+        // the last reference to "off" is replaced, i.e. it is no longer stored
+        model.replace(() -> new Originator.Capture<>(new Memento<>(two, "2", DUMMY_TOOLTIP, "on"), false));
+        assertEquals("on", model.getMemento(two).get().getState());
+        assertEquals(1, model.getDedupStatistics().get().getDistinctStateCount());
+
+        model.clear();
+        assertEquals(0, model.getDedupStatistics().get().getStateCount());
+        assertTrue(new MementoModel<String>().getDedupStatistics().isEmpty());
+    }
+
+    @Test
+    void concurrentAppends() throws InterruptedException {
+        MementoModel<String> model = new MementoModel<>();
+        MementoId root = model.appendToMasterBranch(mockOriginator("root"));
+        int threadCount = 8;
+        int appendCount = 500;
+        AtomicInteger eventCount = new AtomicInteger();
+        model.addListener(mementoRef -> eventCount.incrementAndGet());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            executor.execute(() -> {
+                MementoBranchId branchId = model.appendToNewBranch(root, mockOriginator("fork")).getBranchId();
+                for (int i = 0; i < appendCount; i++) {
+                    model.appendToMasterBranch(mockOriginator("master"));
+                    model.appendToBranch(branchId, mockOriginator("branch"));
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        // no update got lost
+        int expectedCount = 1 + threadCount * (1 + 2 * appendCount);
+        assertEquals(expectedCount, model.getAllMementosFlattened().size());
+        assertEquals(expectedCount - 1, eventCount.get());
+        assertEquals(1 + threadCount * appendCount, model.getMementos(model.getMasterBranchId()).size());
+        assertEquals(threadCount, model.getBranches(root).size());
+        for (MementoBranchId branchId : model.getBranches(root)) {
+            List<MementoId> mementos = model.getMementos(branchId);
+            assertEquals(1 + appendCount, mementos.size());
+            assertEquals(Option.some(appendCount), model.getIndex(mementos.last()));
+            assertEquals(Option.some(appendCount + 1), model.getDepth(mementos.last()));
+        }
+        assertEquals(1 + threadCount, model.getRowHeight(model.getMasterBranchId()));
+    }
+
+    @Test
+    void snapshots() {
+        MementoModel<String> model = new MementoModel<>();
+        MementoModelSnapshot<String> empty = model.snapshot();
+        assertEquals(0, empty.getVersion());
+
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoRef two = model.appendToNewBranch(one, mockOriginator("2"));
+        MementoModelSnapshot<String> before = model.snapshot();
+
+        model.replace(mockOriginator("unknown"));
+        model.replace(() -> new Originator.Capture<>(new Memento<>(one, "1'", DUMMY_TOOLTIP, "state"), true));
+        model.clear();
+        MementoId three = model.appendToMasterBranch(mockOriginator("3"));
+        MementoModelSnapshot<String> after = model.snapshot();
+
+        // snapshots are not affected by subsequent modifications
+        assertEquals(2, before.getVersion());
+        assertEquals(List.of(one, two.getMementoId()), before.getAllMementosFlattened());
+        assertEquals(Option.some(one), before.getParent(two.getMementoId()));
+        assertEquals("1", before.getMemento(one).get().getLabel());
+        assertEquals(List.of(three), after.getAllMementosFlattened());
+
+        MementoBranchId master = model.getMasterBranchId();
+        assertEquals(Option.some(List.of(
+                MementoModelSnapshot.Change.appended(new MementoRef(one, master)),
+                MementoModelSnapshot.Change.appended(two))), before.getChangesSince(0));
+        assertEquals(Option.some(List.of(
+                MementoModelSnapshot.Change.replaced(new MementoRef(one, master)),
+                MementoModelSnapshot.Change.cleared(),
+                MementoModelSnapshot.Change.appended(new MementoRef(three, master)))), after.getChangesSince(before.getVersion()));
+        assertEquals(Option.some(List.empty()), after.getChangesSince(after.getVersion()));
+        assertThrows(IllegalArgumentException.class, () -> before.getChangesSince(after.getVersion()));
+
+        // only the most recent changes are logged
+        for (int i = 0; i < MementoTree.CHANGE_LOG_CAPACITY; i++) {
+            model.appendToMasterBranch(mockOriginator("n"));
+        }
+        assertEquals(Option.none(), model.snapshot().getChangesSince(after.getVersion() - 1));
+        assertEquals(MementoTree.CHANGE_LOG_CAPACITY, model.snapshot().getChangesSince(after.getVersion()).get().size());
+    }
+
+    @Test
+    void snapshotStatesAfterRemoval() {
+        MementoModel<Integer> model = new MementoModel<>((base, target) -> b -> b + (target - base), 3, 0);
+        MementoId one = model.appendToMasterBranch(integerOriginator(1));
+        MementoId two = model.appendToMasterBranch(integerOriginator(2));
+        MementoId three = model.appendToMasterBranch(integerOriginator(3));
+        MementoModelSnapshot<Integer> snapshot = model.snapshot();
+
+        // states of removed mementos are dropped by the strategy, while the snapshot's structure is retained
+        model.pruneSubtree(three);
+        assertThrows(IllegalStateException.class, () -> snapshot.getMemento(three).get().getState());
+        assertEquals(2, snapshot.getMemento(two).get().getState().intValue());
+
+        model.clear();
+        assertEquals(List.of(one, two, three), snapshot.getAllMementosFlattened());
+        assertEquals("2", snapshot.getMemento(two).get().getLabel());
+        assertThrows(IllegalStateException.class, () -> snapshot.getMemento(two).get().getState());
+
+        // without a strategy, states are kept by the mementos themselves
+        MementoModel<Integer> plainModel = new MementoModel<>();
+        MementoId plainOne = plainModel.appendToMasterBranch(integerOriginator(1));
+        MementoModelSnapshot<Integer> plainSnapshot = plainModel.snapshot();
+        plainModel.clear();
+        assertEquals(1, plainSnapshot.getMemento(plainOne).get().getState().intValue());
+    }
+
+    @Test
+    void batch() {
+        MementoModel<String> model = new MementoModel<>();
+        MementoId root = model.appendToMasterBranch(mockOriginator("root"));
+        ArrayList<MementoRef> singleEvents = new ArrayList<>();
+        ArrayList<List<MementoRef>> batchEvents = new ArrayList<>();
+        model.addListener(new MementoModel.Listener() {
+            @Override
+            public void modelChanged(MementoRef mementoRef) {
+                singleEvents.add(mementoRef);
+            }
+
+            @Override
+            public void modelChanged(List<MementoRef> mementoRefs) {
+                batchEvents.add(mementoRefs);
+            }
+        });
+
+        MementoBranchId master = model.getMasterBranchId();
+        ArrayList<MementoRef> expectedRefs = new ArrayList<>();
+        model.batch(writer -> {
+            MementoId one = writer.appendToMasterBranch(mockOriginator("1"));
+            expectedRefs.add(new MementoRef(one, master));
+            MementoRef two = writer.appendToNewBranch(one, mockOriginator("2"));
+            expectedRefs.add(two);
+            assertTrue(writer.replace(() -> new Originator.Capture<>(new Memento<>(one, "1'", DUMMY_TOOLTIP, "state"), true)));
+            expectedRefs.add(new MementoRef(one, two.getBranchId()));
+            assertFalse(writer.replace(mockOriginator("unknown")));
+
+            // not visible before the end of the batch
+            assertEquals(List.of(root), model.getAllMementosFlattened());
+        });
+
+        assertTrue(singleEvents.isEmpty());
+        assertEquals(1, batchEvents.size());
+        assertEquals(List.ofAll(expectedRefs), batchEvents.get(0));
+        assertEquals(3, model.getAllMementosFlattened().size());
+        assertEquals("1'", model.getMemento(expectedRefs.get(0).getMementoId()).get().getLabel());
+        assertEquals(3, model.snapshot().getVersion() - 1);
+    }
+
+    @Test
+    void failingBatch() {
+        OffHeapStateStore store = OffHeapStateStore.direct(64);
+        MementoModel<Integer> model = new MementoModel<>(store, integerSerializer());
+        MementoId one = model.appendToMasterBranch(integerOriginator(1));
+
+        assertThrows(IllegalStateException.class, () -> model.batch(batch -> {
+            MementoId two = batch.appendToMasterBranch(integerOriginator(2));
+            batch.appendToNewBranch(two, integerOriginator(3));
+            batch.replace(() -> new Originator.Capture<>(new Memento<>(one, "1", DUMMY_TOOLTIP, 11), false));
+            batch.appendToMasterBranch(() -> {
+                throw new IllegalStateException("Capture failed");
+            });
+        }));
+
+        // the states taken over by the batch have been rolled back
+        assertEquals(List.of(one), model.getAllMementosFlattened());
+        assertEquals(1, model.getMemento(one).get().getState().intValue());
+        assertEquals(Integer.BYTES + Integer.BYTES, store.getLiveBytes());
+    }
+
+    @Test
+    void appendAsync() throws Exception {
+        MementoModel<Integer> model = new MementoModel<>();
+        MementoId root = model.appendToMasterBranch(integerOriginator(0));
+        ArrayList<MementoRef> events = new ArrayList<>();
+        model.addListener(events::add);
+
+        // captures finish in reverse order
+        CountDownLatch secondCaptured = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CompletableFuture<MementoRef> first = model.appendToBranchAsync(model.getMasterBranchId(), () -> {
+            try {
+                secondCaptured.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return integerOriginator(1).createCapture();
+        }, executor);
+        CompletableFuture<MementoRef> second = model.appendToBranchAsync(model.getMasterBranchId(), () -> {
+            Originator.Capture<Integer> capture = integerOriginator(2).createCapture();
+            secondCaptured.countDown();
+            return capture;
+        }, executor);
+        MementoRef fork = model.appendToNewBranchAsync(root, integerOriginator(3), executor).get(1, TimeUnit.MINUTES);
+
+        MementoRef secondRef = second.get(1, TimeUnit.MINUTES);
+        MementoRef firstRef = first.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        // slots have been reserved in call order, and are filled under their reserved ids
+        assertEquals(List.of(root, firstRef.getMementoId(), secondRef.getMementoId()), model.getMementos(model.getMasterBranchId()));
+        assertEquals("1", model.getMemento(firstRef.getMementoId()).get().getLabel());
+        assertEquals(2, model.getMemento(secondRef.getMementoId()).get().getState().intValue());
+        assertEquals(Option.some(root), model.getForkPoint(fork.getBranchId()));
+        assertEquals(3, model.getMemento(fork.getMementoId()).get().getState().intValue());
+        assertFalse(model.isPending(firstRef.getMementoId()));
+
+        // the first memento had to be filled before the second one
+        List<MementoRef> fillEvents = List.ofAll(events).drop(3);
+        assertTrue(fillEvents.indexOf(firstRef) < fillEvents.indexOf(secondRef));
+    }
+
+    @Test
+    void appendAsyncPending() {
+        MementoModel<Integer> model = new MementoModel<>();
+        ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        CompletableFuture<MementoRef> future = model.appendToBranchAsync(model.getMasterBranchId(), integerOriginator(1), tasks::add);
+
+        MementoId pending = model.getMementos(model.getMasterBranchId()).single();
+        assertTrue(model.isPending(pending));
+        assertTrue(model.snapshot().isPending(pending));
+        assertThrows(IllegalStateException.class, () -> model.getMemento(pending).get().getState());
+        // placeholders can not be replaced
+        assertFalse(model.replace(() -> new Originator.Capture<>(new Memento<>(pending, "x", DUMMY_TOOLTIP, 42), true)));
+
+        tasks.poll().run();
+        assertEquals(new MementoRef(pending, model.getMasterBranchId()), future.getNow(null));
+        assertFalse(model.isPending(pending));
+        assertEquals(1, model.getMemento(pending).get().getState().intValue());
+
+        // removed while being captured
+        future = model.appendToBranchAsync(model.getMasterBranchId(), integerOriginator(2), tasks::add);
+        model.clear();
+        tasks.poll().run();
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    void appendAsyncFailure() {
+        MementoModel<Integer> model = new MementoModel<>();
+        ArrayList<MementoRemoval> removals = new ArrayList<>();
+        model.addListener(new MementoModel.Listener() {
+            @Override
+            public void modelChanged(MementoRef mementoRef) {
+            }
+
+            @Override
+            public void mementosRemoved(MementoRemoval removal) {
+                removals.add(removal);
+            }
+        });
+        MementoId root = model.appendToMasterBranch(integerOriginator(0));
+
+        // failed captures remove their placeholder
+        ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        CompletableFuture<MementoRef> failed = model.appendToNewBranchAsync(root, () -> {
+            throw new IllegalStateException("Capture failed");
+        }, tasks::add);
+        assertEquals(1, model.getBranches(root).size());
+        tasks.poll().run();
+        assertTrue(failed.isCompletedExceptionally());
+        assertTrue(model.getBranches(root).isEmpty());
+        assertEquals(1, removals.size());
+
+        // rejected captures, too
+        CompletableFuture<MementoRef> rejected = model.appendToBranchAsync(model.getMasterBranchId(), integerOriginator(1), task -> {
+            throw new RejectedExecutionException();
+        });
+        assertTrue(rejected.isCompletedExceptionally());
+        assertEquals(List.of(root), model.getAllMementosFlattened());
+        assertEquals(2, removals.size());
+
+        // the captured state is stored as it is
+        AtomicInteger loads = new AtomicInteger();
+        model.appendToBranchAsync(model.getMasterBranchId(), () -> new Originator.Capture<>(Memento.lazy(new MementoId.DefaultMementoId(), "lazy", DUMMY_TOOLTIP, loads::incrementAndGet), true), Runnable::run);
+        Memento<Integer> lazy = model.getMemento(model.getMementos(model.getMasterBranchId()).last()).get();
+        assertFalse(lazy.isLoaded());
+        assertEquals(1, lazy.getState().intValue());
+        lazy.release();
+        assertFalse(lazy.isLoaded());
+        assertEquals(2, lazy.getState().intValue());
+    }
+
+    private static Originator<String> textOriginator(String label, String toolTip) {
+        return textOriginator(new MementoId.DefaultMementoId(), label, toolTip);
+    }
+
+    private static Originator<String> textOriginator(MementoId mementoId, String label, String toolTip) {
+        return () -> new Originator.Capture<>(new Memento<>(mementoId, label, toolTip, label), true);
+    }
+
+    private static StateSerializer<Integer> integerSerializer() {
+        return new StateSerializer<Integer>() {
+            @Override
+            public byte[] serialize(Integer state) {
+                return java.nio.ByteBuffer.allocate(Integer.BYTES).putInt(state).array();
+            }
+
+            @Override
+            public Integer deserialize(java.nio.ByteBuffer bytes) {
+                return bytes.getInt();
+            }
+        };
+    }
+
+    private static Originator<Integer> integerOriginator(int state) {
+        return () -> new Originator.Capture<>(new Memento<>(new MementoId.DefaultMementoId(), String.valueOf(state), DUMMY_TOOLTIP, state), true);
+    }
+
+    @Test
+    void pruneSubtree() {
+
+        // 1 - 2 - 3 - 4
+        //     │   └── 3.1 - 3.2
+        //     │       └── 3.1.1
+        //     └── 2.1
+        // └── 1.1
+
+        MementoModel<String> model = new MementoModel<>();
+        MementoBranchId master = model.getMasterBranchId();
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+        MementoId three = model.appendToMasterBranch(mockOriginator("3"));
+        model.appendToMasterBranch(mockOriginator("4"));
+        MementoRef threeOne = model.appendToNewBranch(three, mockOriginator("3.1"));
+        model.appendToBranch(threeOne.getBranchId(), mockOriginator("3.2"));
+        MementoRef threeOneOne = model.appendToNewBranch(threeOne.getMementoId(), mockOriginator("3.1.1"));
+        MementoRef twoOne = model.appendToNewBranch(two, mockOriginator("2.1"));
+        MementoRef oneOne = model.appendToNewBranch(one, mockOriginator("1.1"));
+        assertEquals(5, model.getRowHeight(master));
+
+        java.util.List<MementoRemoval> removals = new ArrayList<>();
+        model.addListener(new MementoModel.Listener() {
+            @Override
+            public void modelChanged(MementoRef mementoRef) {
+            }
+
+            @Override
+            public void mementosRemoved(MementoRemoval removal) {
+                removals.add(removal);
+            }
+        });
+        long version = model.snapshot().getVersion();
+
+        MementoRemoval removal = model.pruneSubtree(three);
+        assertEquals(List.of(removal), List.ofAll(removals));
+        assertEquals(5, removal.getMementoRefs().size());
+        assertTrue(removal.getMementoRefs().contains(threeOneOne));
+        assertEquals(List.of(threeOne.getBranchId(), threeOneOne.getBranchId()), removal.getBranchIds().sortBy(List.of(threeOne.getBranchId(), threeOneOne.getBranchId())::indexOf));
+        assertEquals(MementoModelSnapshot.Change.removed(removal), model.snapshot().getChangesSince(version).get().single());
+
+        assertEquals(List.of(one, two), model.getMementos(master));
+        assertEquals(Option.some(two), model.getTip(master));
+        assertTrue(model.getMemento(three).isEmpty());
+        assertTrue(model.getMementos(threeOne.getBranchId()).isEmpty());
+        assertEquals(List.of(twoOne.getBranchId()), model.getBranches(two));
+        assertEquals(3, model.getRowHeight(master));
+        assertEquals(1, model.getForkedRowHeight(two));
+        assertEquals(Option.some(one), model.lowestCommonAncestor(twoOne.getMementoId(), oneOne.getMementoId()));
+        assertEquals(4, model.getAllMementosFlattened().size());
+
+        // the truncated branch can be extended again
+        MementoId newThree = model.appendToMasterBranch(mockOriginator("3'"));
+        assertEquals(Option.some(two), model.getParent(newThree));
+        assertEquals(Option.some(2), model.getIndex(newThree));
+
+        assertTrue(model.pruneSubtree(three).isEmpty());
+        assertEquals(1, removals.size());
+    }
+
+    @Test
+    void pruneBranch() {
+        MementoModel<String> model = new MementoModel<>();
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoRef a = model.appendToNewBranch(one, mockOriginator("a"));
+        MementoRef b = model.appendToNewBranch(one, mockOriginator("b"));
+        MementoRef c = model.appendToNewBranch(one, mockOriginator("c"));
+        model.appendToNewBranch(b.getMementoId(), mockOriginator("b.1"));
+
+        MementoRemoval removal = model.pruneBranch(b.getBranchId());
+        assertEquals(2, removal.getMementoRefs().size());
+        assertEquals(2, removal.getBranchIds().size());
+        assertEquals(List.of(a.getBranchId(), c.getBranchId()), model.getBranches(one));
+        assertEquals(3, model.getRowHeight(model.getMasterBranchId()));
+
+        model.pruneBranch(c.getBranchId());
+        MementoRef d = model.appendToNewBranch(one, mockOriginator("d"));
+        assertEquals(List.of(a.getBranchId(), d.getBranchId()), model.getBranches(one));
+
+        assertThrows(IllegalArgumentException.class, () -> model.pruneBranch(model.getMasterBranchId()));
+    }
+
+    @Test
+    void pruneWithStateStrategy() {
+        MementoModel<String> model = new MementoModel<>(StateEquivalence.natural());
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        model.appendToMasterBranch(() -> new Originator.Capture<>(new Memento<>(model.newMementoId(), "2", DUMMY_TOOLTIP, "other"), true));
+        model.pruneSubtree(model.getTip(model.getMasterBranchId()).get());
+        assertEquals(1, model.getDedupStatistics().get().getStateCount());
+        assertEquals(1, model.getDedupStatistics().get().getDistinctStateCount());
+
+        model.pruneSubtree(one);
+        assertTrue(model.getMementos(model.getMasterBranchId()).isEmpty());
+        assertEquals(0, model.getDedupStatistics().get().getStateCount());
+        model.appendToMasterBranch(mockOriginator("1'"));
+        assertEquals(1, model.getMementos(model.getMasterBranchId()).size());
+    }
+
+    @Test
+    void compactMaxCount() {
+        MementoModel<String> model = new MementoModel<>();
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+        for (String branch : List.of("x", "y", "z")) {
+            MementoRef first = model.appendToNewBranch(one, mockOriginator(branch + "1"));
+            model.appendToBranch(first.getBranchId(), mockOriginator(branch + "2"));
+        }
+        model.setFocus(two);
+
+        java.util.List<MementoRemoval> removals = new ArrayList<>();
+        model.addListener(new MementoModel.Listener() {
+            @Override
+            public void modelChanged(MementoRef mementoRef) {
+            }
+
+            @Override
+            public void mementosRemoved(MementoRemoval removal) {
+                removals.add(removal);
+            }
+        });
+
+        // the tips of all branches (and thereby their paths) are kept
+        model.setCompactionPolicy(Option.some(CompactionPolicy.maxCount(4).withKeepLastPerBranch(1)));
+        assertTrue(removals.isEmpty());
+        assertEquals(8, model.getAllMementosFlattened().size());
+
+        model.setCompactionPolicy(Option.some(CompactionPolicy.maxCount(4)));
+        assertEquals(1, removals.size());
+        assertEquals(4, removals.get(0).getMementoRefs().size());
+        assertEquals(4, model.getAllMementosFlattened().size());
+        assertEquals(List.of(one, two), model.getMementos(model.getMasterBranchId()));
+
+        // appending compacts automatically once the maximum count is exceeded
+        model.appendToMasterBranch(mockOriginator("3"));
+        assertEquals(2, removals.size());
+        assertEquals(4, model.getAllMementosFlattened().size());
+        assertTrue(model.getMemento(two).isDefined());
+    }
+
+    @Test
+    void pruneReclaimsSlots() {
+        MementoModel<String> model = new MementoModel<>();
+        MementoId root = model.appendToMasterBranch(mockOriginator("root"));
+        java.util.List<MementoRef> keptRefs = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            MementoRef fork = model.appendToNewBranch(root, mockOriginator("fork " + i));
+            MementoId append = model.appendToBranch(fork.getBranchId(), mockOriginator("append " + i));
+            if (i % 10 == 9) {
+                keptRefs.add(new MementoRef(append, fork.getBranchId()));
+            } else {
+                model.pruneBranch(fork.getBranchId());
+            }
+        }
+
+        // slots of removed mementos and branches are not kept forever
+        MementoTopology topology = model.getTree().getTopology();
+        assertEquals(201, model.getAllMementosFlattened().size());
+        assertTrue(topology.getMementoCount() < 3 * 201);
+        assertTrue(topology.getBranchCount() < 3 * 101);
+
+        List<MementoBranchId> branchIds = List.ofAll(keptRefs).map(MementoRef::getBranchId);
+        assertEquals(branchIds, model.getBranches(root));
+        assertEquals(List.of("fork 999", "append 999"), model.getMementos(branchIds.last()).map(id -> model.getMemento(id).get().getLabel()));
+        assertEquals(101, model.getTree().getRowHeight(model.getMasterBranchId()));
+        assertEquals(List.of(keptRefs.get(99)), model.search("append 999"));
+
+        // appending continues after the renumbered mementos
+        MementoId appended = model.appendToBranch(branchIds.head(), mockOriginator("appended"));
+        assertEquals(Option.some(keptRefs.get(0).getMementoId()), model.getParent(appended));
+    }
+
+    @Test
+    void compactMaxAge() {
+        MementoModel<String> model = new MementoModel<>();
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoId two = model.appendToMasterBranch(mockOriginator("2"));
+        model.appendToNewBranch(one, mockOriginator("1.1"));
+
+        model.setCompactionPolicy(Option.some(CompactionPolicy.maxAge(Duration.ofHours(1))));
+        assertEquals(3, model.getAllMementosFlattened().size());
+
+        model.setFocus(two);
+        model.setCompactionPolicy(Option.some(CompactionPolicy.maxAge(Duration.ZERO)));
+        assertEquals(List.of(one, two), model.getAllMementosFlattened());
+    }
+
+    @Test
+    void search() {
+        MementoModel<String> model = new MementoModel<>();
+        MementoId select = model.appendToMasterBranch(textOriginator("Select region", "Rectangular selection"));
+        MementoId rotate = model.appendToMasterBranch(textOriginator("Rotate", "Rotate by 90°"));
+        MementoRef region = model.appendToNewBranch(select, textOriginator("Region growing", "Seeded region-growing"));
+        MementoRef selectRef = model.getMementoRef(select).get();
+        MementoRef rotateRef = model.getMementoRef(rotate).get();
+
+        assertEquals(List.of(selectRef, region), model.search("region"));
+        assertEquals(List.of(selectRef), model.search("SEL re"));
+        assertEquals(List.of(selectRef), model.search("rectangular"));
+        assertEquals(List.of(rotateRef), model.search("90"));
+        assertEquals(List.of(region), model.search("seeded grow"));
+        assertEquals(List.of(), model.search("regions"));
+        assertEquals(List.of(), model.search(" - "));
+
+        // replaced mementos are re-indexed
+        model.replace(textOriginator(rotate, "Flip", "Flip horizontally"));
+        assertEquals(List.of(), model.search("rotate"));
+        assertEquals(List.of(rotateRef), model.search("flip"));
+
+        // pending placeholders are indexed once they have been filled in
+        java.util.List<Runnable> tasks = new ArrayList<>();
+        CompletableFuture<MementoRef> future = model.appendToBranchAsync(region.getBranchId(), textOriginator("Smooth", "Gaussian"), tasks::add);
+        assertEquals(List.of(), model.search("smooth"));
+        tasks.forEach(Runnable::run);
+        assertEquals(List.of(future.join()), model.search("gauss"));
+
+        model.pruneSubtree(region.getMementoId());
+        assertEquals(List.of(selectRef), model.search("region"));
+        assertEquals(List.of(), model.search("smooth"));
+
+        model.clear();
+        assertEquals(List.of(), model.search("select"));
+    }
+
+    @Test
+    void searchLongTokens() {
+        MementoModel<String> model = new MementoModel<>();
+        MementoId first = model.appendToMasterBranch(textOriginator("Thresholding", null));
+        model.appendToMasterBranch(textOriginator("Threshold", null));
+        MementoRef firstRef = model.getMementoRef(first).get();
+
+        // tokens longer than the indexed prefixes are verified against the labels
+        assertEquals(2, model.search("threshold").size());
+        assertEquals(List.of(firstRef), model.search("thresholdi"));
+        assertEquals(List.of(), model.search("thresholds"));
+        assertEquals(List.of(firstRef), model.snapshot().search("thresholding"));
+    }
+
+    @Test
+    void metrics() {
+        MementoModel<String> model = new MementoModel<>();
+        MetricsRecorder recorder = new MetricsRecorder();
+        model.setMetricsSink(recorder);
+        java.util.List<Runnable> tasks = new ArrayList<>();
+        model.addListener(mementoRef -> {
+        });
+        model.addListener(mementoRef -> {
+        }, tasks::add);
+
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        model.appendToMasterBranch(mockOriginator("2"));
+        model.appendToNewBranch(one, mockOriginator("1.1"));
+        assertEquals(3, recorder.getCount(MetricsSink.Timer.CAPTURE));
+        assertEquals(3, recorder.getGauge(MetricsSink.Gauge.MEMENTOS));
+        assertEquals(2, recorder.getGauge(MetricsSink.Gauge.BRANCHES));
+
+        // asynchronous listeners are measured once per (coalesced) delivery
+        assertEquals(3, recorder.getCount(MetricsSink.Timer.LISTENER));
+        tasks.forEach(Runnable::run);
+        assertEquals(4, recorder.getCount(MetricsSink.Timer.LISTENER));
+
+        assertEquals(2, new RowHeightCalculator<>(model).calcRowHeight(0));
+        assertEquals(1, recorder.getCount(MetricsSink.Timer.ROW_HEIGHT));
+        assertEquals(0, recorder.getCount(MetricsSink.Timer.LAYOUT));
+
+        assertTrue(recorder.getPercentileNanos(MetricsSink.Timer.CAPTURE, 50) > 0);
+        assertTrue(recorder.getPercentileNanos(MetricsSink.Timer.CAPTURE, 100) > recorder.getMaxNanos(MetricsSink.Timer.CAPTURE));
+        assertEquals(0, recorder.getPercentileNanos(MetricsSink.Timer.VIEW_UPDATE, 99));
+
+        model.setMetricsSink(MetricsSink.none());
+        model.appendToMasterBranch(mockOriginator("3"));
+        assertEquals(3, recorder.getCount(MetricsSink.Timer.CAPTURE));
+    }
+
     @Test
     void allMementosFlattened() {
         MementoModel<String> model = new MementoModel<>();
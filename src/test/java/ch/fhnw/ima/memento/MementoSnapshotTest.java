@@ -0,0 +1,116 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MementoSnapshotTest {
+
+    private static final StateSerializer<String> SERIALIZER = new StateSerializer<String>() {
+        @Override
+        public byte[] serialize(String state) {
+            return state.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(ByteBuffer bytes) {
+            byte[] array = new byte[bytes.remaining()];
+            bytes.get(array);
+            return new String(array, StandardCharsets.UTF_8);
+        }
+    };
+
+    @Test
+    void writeAndRead() throws IOException {
+        MementoModel<String> model = new MementoModel<>();
+        MementoId one = model.appendToMasterBranch(stringOriginator("1"));
+        MementoId two = model.appendToMasterBranch(stringOriginator("2"));
+        MementoRef three = model.appendToNewBranch(one, stringOriginator("3"));
+        model.appendToBranch(three.getBranchId(), stringOriginator("4"));
+        model.appendToNewBranch(three.getMementoId(), stringOriginator("5"));
+        model.appendToNewBranch(two, () -> new Originator.Capture<>(new Memento<>(new MementoId.DefaultMementoId(), null, null, ""), true));
+
+        Path file = Files.createTempFile("memento", ".snapshot");
+        try {
+            MementoSnapshot.write(model, file, SERIALIZER);
+            MementoModel<String> loaded = MementoSnapshot.read(file, SERIALIZER);
+
+            List<MementoId> master = loaded.getMementos(loaded.getMasterBranchId());
+            assertEquals(List.of("1", "2"), labels(loaded, master));
+            assertEquals("state 1", loaded.getMemento(master.get(0)).get().getState());
+
+            MementoBranchId branchOfOne = loaded.getBranches(master.get(0)).single();
+            List<MementoId> branchMementos = loaded.getMementos(branchOfOne);
+            assertEquals(List.of("3", "4"), labels(loaded, branchMementos));
+            assertEquals("state 4", loaded.getMemento(branchMementos.get(1)).get().getState());
+            assertEquals(List.of("5"), labels(loaded, loaded.getMementos(loaded.getBranches(branchMementos.get(0)).single())));
+
+            MementoId unlabelled = loaded.getMementos(loaded.getBranches(master.get(1)).single()).single();
+            assertNull(loaded.getMemento(unlabelled).get().getLabel());
+            assertEquals("", loaded.getMemento(unlabelled).get().getState());
+
+            assertEquals(model.getAllMementosFlattened().size(), loaded.getAllMementosFlattened().size());
+            assertEquals(List.of(branchMementos.get(1)), loaded.search("4").map(MementoRef::getMementoId));
+            assertEquals(4, loaded.getTree().getRowHeight(loaded.getMasterBranchId()));
+
+            // loaded models can be modified as usual
+            MementoId appended = loaded.appendToBranch(branchOfOne, stringOriginator("6"));
+            assertEquals(Option.some(branchMementos.get(1)), loaded.getParent(appended));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void skipPending() throws IOException {
+        MementoModel<String> model = new MementoModel<>();
+        MementoId one = model.appendToMasterBranch(stringOriginator("1"));
+        java.util.List<Runnable> tasks = new ArrayList<>();
+        model.appendToBranchAsync(model.getMasterBranchId(), stringOriginator("2"), tasks::add);
+        MementoId pending = model.getTip(model.getMasterBranchId()).get();
+        model.appendToMasterBranch(stringOriginator("3"));
+        model.appendToNewBranch(pending, stringOriginator("2.1"));
+        model.appendToNewBranch(one, stringOriginator("1.1"));
+
+        Path file = Files.createTempFile("memento", ".snapshot");
+        try {
+            MementoSnapshot.write(model, file, SERIALIZER);
+            MementoModel<String> loaded = MementoSnapshot.read(file, SERIALIZER);
+            List<MementoId> master = loaded.getMementos(loaded.getMasterBranchId());
+            assertEquals(List.of("1"), labels(loaded, master));
+            assertEquals(List.of("1.1"), labels(loaded, loaded.getMementos(loaded.getBranches(master.get(0)).single())));
+            assertEquals(2, loaded.getAllMementosFlattened().size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void empty() throws IOException {
+        Path file = Files.createTempFile("memento", ".snapshot");
+        try {
+            MementoSnapshot.write(new MementoModel<>(), file, SERIALIZER);
+            assertTrue(MementoSnapshot.read(file, SERIALIZER).getAllMementosFlattened().isEmpty());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static Originator<String> stringOriginator(String label) {
+        return () -> new Originator.Capture<>(new Memento<>(new MementoId.DefaultMementoId(), label, "tool tip", "state " + label), true);
+    }
+
+    private static List<String> labels(MementoModel<String> model, List<MementoId> mementoIds) {
+        return mementoIds.map(id -> model.getMemento(id).get().getLabel());
+    }
+
+}
@@ -0,0 +1,60 @@
+package ch.fhnw.ima.memento;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ch.fhnw.ima.memento.MementoTestUtil.DUMMY_TOOLTIP;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MementoTest {
+
+    @Test
+    void lazy() {
+        AtomicInteger loadCount = new AtomicInteger();
+        Memento<Integer> memento = Memento.lazy(new MementoId.DefaultMementoId(), "lazy", DUMMY_TOOLTIP, loadCount::incrementAndGet);
+        assertFalse(memento.isLoaded());
+        assertEquals(0, loadCount.get());
+
+        // loaded once, then memoized
+        assertEquals(1, memento.getState().intValue());
+        assertEquals(1, memento.getState().intValue());
+        assertTrue(memento.isLoaded());
+
+        // loaded again after release
+        memento.release();
+        assertFalse(memento.isLoaded());
+        assertEquals(2, memento.getState().intValue());
+    }
+
+    @Test
+    void lazyConcurrentRelease() throws InterruptedException {
+        Memento<String> memento = Memento.lazy(new MementoId.DefaultMementoId(), "lazy", DUMMY_TOOLTIP, () -> "state");
+        AtomicBoolean done = new AtomicBoolean();
+        Thread releasing = new Thread(() -> {
+            while (!done.get()) {
+                memento.release();
+            }
+        });
+        releasing.start();
+        try {
+            for (int i = 0; i < 100_000; i++) {
+                assertEquals("state", memento.getState());
+            }
+        } finally {
+            done.set(true);
+            releasing.join();
+        }
+    }
+
+    @Test
+    void eager() {
+        Memento<String> memento = new Memento<>(new MementoId.DefaultMementoId(), "eager", DUMMY_TOOLTIP, "state");
+        assertTrue(memento.isLoaded());
+        memento.release();
+        assertTrue(memento.isLoaded());
+        assertEquals("state", memento.getState());
+    }
+
+}
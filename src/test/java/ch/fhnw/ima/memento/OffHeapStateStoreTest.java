@@ -0,0 +1,115 @@
+package ch.fhnw.ima.memento;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapStateStoreTest {
+
+    @Test
+    void direct() {
+        OffHeapStateStore store = OffHeapStateStore.direct(16);
+        assertStoresStates(store);
+    }
+
+    @Test
+    void memoryMapped() throws IOException {
+        Path file = Files.createTempFile("memento", ".states");
+        try (OffHeapStateStore store = OffHeapStateStore.memoryMapped(file, 16)) {
+            assertStoresStates(store);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void memoryMappedReuse() throws IOException {
+        Path file = Files.createTempFile("memento", ".states");
+        try (OffHeapStateStore store = OffHeapStateStore.memoryMapped(file, 16)) {
+            long first = store.put(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+            long second = store.put(ByteBuffer.wrap(new byte[]{4, 5, 6, 7}));
+            long third = store.put(ByteBuffer.wrap(new byte[]{8, 9, 10, 11, 12}));
+            assertEquals(32, Files.size(file));
+
+            // the first segment is released, and then reused (including its slot) for the next segment
+            store.remove(first);
+            store.remove(second);
+            store.put(ByteBuffer.wrap(new byte[]{13, 14, 15}));
+            long fourth = store.put(ByteBuffer.wrap(new byte[]{16, 17, 18, 19, 20}));
+            assertEquals(first >>> 32, fourth >>> 32);
+            assertEquals(ByteBuffer.wrap(new byte[]{16, 17, 18, 19, 20}), store.get(fourth));
+            assertEquals(32, Files.size(file));
+
+            // buffers returned before clearing stay readable, because the file is not truncated
+            ByteBuffer cleared = store.get(third);
+            store.clear();
+            assertEquals(32, Files.size(file));
+            assertEquals(5, cleared.remaining());
+            cleared.get(4);
+
+            for (int i = 0; i < 4; i++) {
+                store.put(ByteBuffer.wrap(new byte[4]));
+            }
+            assertEquals(32, Files.size(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void concurrentAccess() throws InterruptedException {
+        OffHeapStateStore store = OffHeapStateStore.direct(64);
+        AtomicInteger mismatches = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            byte value = (byte) t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    long handle = store.put(ByteBuffer.wrap(new byte[]{value, value, value}));
+                    if (!ByteBuffer.wrap(new byte[]{value, value, value}).equals(store.get(handle))) {
+                        mismatches.incrementAndGet();
+                    }
+                    store.remove(handle);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, mismatches.get());
+        assertEquals(0, store.getLiveBytes());
+    }
+
+    private static void assertStoresStates(OffHeapStateStore store) {
+        long small = store.put(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        long other = store.put(ByteBuffer.wrap(new byte[]{4, 5, 6, 7}));
+        // exceeds the segment size
+        long large = store.put(ByteBuffer.wrap(new byte[64]));
+
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3}), store.get(small));
+        assertEquals(ByteBuffer.wrap(new byte[]{4, 5, 6, 7}), store.get(other));
+        assertEquals(64, store.get(large).remaining());
+        assertTrue(store.get(small).isReadOnly());
+        assertEquals(3 * Integer.BYTES + 3 + 4 + 64, store.getLiveBytes());
+        assertEquals(16 + 68, store.getAllocatedBytes());
+
+        // segments are released once all their states have been removed
+        store.remove(small);
+        assertEquals(16 + 68, store.getAllocatedBytes());
+        store.remove(other);
+        assertEquals(68, store.getAllocatedBytes());
+        assertThrows(IllegalArgumentException.class, () -> store.get(small));
+
+        store.clear();
+        assertEquals(0, store.getLiveBytes());
+        assertEquals(0, store.getAllocatedBytes());
+    }
+
+}
@@ -0,0 +1,176 @@
+package ch.fhnw.ima.memento;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import org.junit.jupiter.api.Test;
+
+import static ch.fhnw.ima.memento.MementoTestUtil.DUMMY_TOOLTIP;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetainedStatesTest {
+
+    @Test
+    void maxBytes() {
+        RetainedStates<String> states = new RetainedStates<>(RetentionPolicy.maxBytes(10, s -> (long) s.length()));
+        add(states, "1234");
+        add(states, "5678");
+        assertEquals(2, states.getRetainedCount());
+        assertEquals(8, states.getRetainedWeight());
+
+        add(states, "abcd");
+        assertEquals(2, states.getRetainedCount());
+        assertEquals(8, states.getRetainedWeight());
+    }
+
+    @Test
+    void leastRecentlyUsed() {
+        RetainedStates<String> states = new RetainedStates<>(RetentionPolicy.maxCount(2));
+        MementoId one = add(states, "1");
+        MementoId two = add(states, "2");
+        states.getState(one);
+        add(states, "3");
+        assertEquals("1", states.getState(one));
+        assertThrows(IllegalStateException.class, () -> states.getState(two));
+    }
+
+    @Test
+    void leastFrequentlyUsed() {
+        RetainedStates<String> states = new RetainedStates<>(RetentionPolicy.<String>maxCount(2).withEviction(RetentionPolicy.Eviction.LEAST_FREQUENTLY_USED));
+        MementoId one = add(states, "1");
+        MementoId two = add(states, "2");
+        states.getState(one);
+        states.getState(one);
+        states.getState(two);
+        add(states, "3");
+        assertEquals("1", states.getState(one));
+        assertThrows(IllegalStateException.class, () -> states.getState(two));
+    }
+
+    @Test
+    void focusPathLast() {
+        RetainedStates<String> states = new RetainedStates<>(RetentionPolicy.<String>maxCount(2).withEviction(RetentionPolicy.Eviction.FOCUS_PATH_LAST));
+        MementoId one = add(states, "1");
+        MementoId two = add(states, "2");
+        states.setFocus(List.of(one));
+        states.getState(two);
+        add(states, "3");
+        assertEquals("1", states.getState(one));
+        assertThrows(IllegalStateException.class, () -> states.getState(two));
+    }
+
+    @Test
+    void spillTargetOutsideLock() {
+        java.util.Map<MementoId, String> spilled = new java.util.HashMap<>();
+        java.util.concurrent.atomic.AtomicReference<RetainedStates<String>> statesRef = new java.util.concurrent.atomic.AtomicReference<>();
+        RetentionPolicy.SpillTarget<String> spillTarget = new RetentionPolicy.SpillTarget<String>() {
+            @Override
+            public void spill(MementoId mementoId, String state) {
+                assertFalse(Thread.holdsLock(statesRef.get()));
+                spilled.put(mementoId, state);
+            }
+
+            @Override
+            public Option<String> restore(MementoId mementoId) {
+                assertFalse(Thread.holdsLock(statesRef.get()));
+                return Option.of(spilled.get(mementoId));
+            }
+
+            @Override
+            public void remove(MementoId mementoId) {
+                assertFalse(Thread.holdsLock(statesRef.get()));
+                spilled.remove(mementoId);
+            }
+
+            @Override
+            public void clear() {
+                spilled.clear();
+            }
+        };
+        RetainedStates<String> states = new RetainedStates<>(RetentionPolicy.<String>maxCount(1).withSpillTarget(spillTarget)
+                .withRecapturer(mementoId -> {
+                    assertFalse(Thread.holdsLock(statesRef.get()));
+                    return Option.some("recaptured");
+                }));
+        statesRef.set(states);
+
+        MementoId one = add(states, "1");
+        MementoId two = add(states, "2");
+        assertEquals("1", spilled.get(one));
+        assertEquals("1", states.getState(one));
+        assertEquals("2", spilled.get(two));
+
+        // removal is forwarded to the spill target
+        states.remove(two);
+        states.flush();
+        assertFalse(spilled.containsKey(two));
+        assertEquals("recaptured", states.getState(two));
+    }
+
+    @Test
+    void blockingSpillTarget() throws Exception {
+        java.util.concurrent.CountDownLatch spilling = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.CountDownLatch release = new java.util.concurrent.CountDownLatch(1);
+        java.util.Map<MementoId, String> spilled = new java.util.concurrent.ConcurrentHashMap<>();
+        java.util.concurrent.atomic.AtomicReference<MementoModel<String>> modelRef = new java.util.concurrent.atomic.AtomicReference<>();
+        RetentionPolicy.SpillTarget<String> spillTarget = new RetentionPolicy.SpillTarget<String>() {
+            @Override
+            public void spill(MementoId mementoId, String state) {
+                assertFalse(Thread.holdsLock(modelRef.get()));
+                spilling.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                spilled.put(mementoId, state);
+            }
+
+            @Override
+            public Option<String> restore(MementoId mementoId) {
+                return Option.of(spilled.get(mementoId));
+            }
+
+            @Override
+            public void remove(MementoId mementoId) {
+                spilled.remove(mementoId);
+            }
+
+            @Override
+            public void clear() {
+                spilled.clear();
+            }
+        };
+        MementoModel<String> model = new MementoModel<>(RetentionPolicy.<String>maxCount(1).withSpillTarget(spillTarget));
+        modelRef.set(model);
+        MementoId one = model.appendToMasterBranch(originator("1"));
+
+        // the second append evicts the first state, and its thread blocks while spilling it
+        Thread blocked = new Thread(() -> model.appendToMasterBranch(originator("2")));
+        blocked.start();
+        assertTrue(spilling.await(5, java.util.concurrent.TimeUnit.SECONDS));
+
+        // other threads are neither blocked by the model's lock nor by the pending spill
+        MementoId three = model.appendToMasterBranch(originator("3"));
+        assertEquals(3, model.getMementos(model.getMasterBranchId()).size());
+        assertEquals("1", model.getMemento(one).get().getState());
+
+        release.countDown();
+        blocked.join();
+        // the blocked thread has also performed the spills queued meanwhile
+        assertTrue(spilled.containsKey(one));
+        assertEquals("3", model.getMemento(three).get().getState());
+    }
+
+    private static Originator<String> originator(String state) {
+        return () -> new Originator.Capture<>(new Memento<>(new MementoId.DefaultMementoId(), state, DUMMY_TOOLTIP, state), false);
+    }
+
+    private static MementoId add(RetainedStates<String> states, String state) {
+        MementoId mementoId = new MementoId.DefaultMementoId();
+        states.add(new Memento<>(mementoId, state, DUMMY_TOOLTIP, state), Option.none());
+        // like the model does after each modification
+        states.flush();
+        return mementoId;
+    }
+
+}
@@ -1,8 +1,12 @@
 package ch.fhnw.ima.memento;
 
+import io.vavr.collection.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Random;
+
 import static ch.fhnw.ima.memento.MementoTestUtil.mockOriginator;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -94,4 +98,52 @@ class RowHeightCalculatorTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    void rowHeightUpdatedIncrementally() {
+        MementoId one = model.appendToMasterBranch(mockOriginator("1"));
+        MementoRef oneDotOne = model.appendToNewBranch(one, mockOriginator("1.1"));
+        assertEquals(2, calculator.calcRowHeight(0));
+
+        // forking off a nested branch grows all ancestor branches
+        model.appendToNewBranch(oneDotOne.getMementoId(), mockOriginator("1.1.1"));
+        assertEquals(3, calculator.calcRowHeight(0));
+        assertEquals(2, calculator.calcRowHeight(oneDotOne.getBranchId()));
+
+        // appending without forking does not change any heights
+        model.appendToBranch(oneDotOne.getBranchId(), mockOriginator("1.2"));
+        assertEquals(3, calculator.calcRowHeight(0));
+        assertEquals(1, calculator.calcRowHeight(oneDotOne.getBranchId(), 1));
+
+        model.clear();
+        model.appendToMasterBranch(mockOriginator("1"));
+        assertEquals(1, calculator.calcRowHeight(0));
+    }
+
+    @Test
+    void rowHeightRandomTree() {
+        Random random = new Random(42);
+        java.util.List<MementoId> mementoIds = new ArrayList<>();
+        mementoIds.add(model.appendToMasterBranch(mockOriginator("*")));
+        for (int i = 0; i < 1000; i++) {
+            MementoId mementoId = mementoIds.get(random.nextInt(mementoIds.size()));
+            MementoRef ref = model.getMementoRef(mementoId).get();
+            if (i % 10 == 9 && model.getParent(mementoId).isDefined()) {
+                // removals shrink the rows of all ancestor branches
+                model.pruneSubtree(mementoId);
+                mementoIds.retainAll(model.getAllMementosFlattened().asJava());
+            } else if (random.nextInt(4) > 0) {
+                mementoIds.add(model.appendToBranch(ref.getBranchId(), mockOriginator("*")));
+            } else {
+                mementoIds.add(model.appendToNewBranch(mementoId, mockOriginator("*")).getMementoId());
+            }
+        }
+        for (MementoId mementoId : mementoIds) {
+            MementoRef ref = model.getMementoRef(mementoId).get();
+            int index = model.getIndex(mementoId).get();
+            List<MementoId> suffix = model.getMementos(ref.getBranchId()).drop(index);
+            int expected = 1 + suffix.map(calculator::calcForkedRowHeight).sum().intValue();
+            assertEquals(expected, calculator.calcRowHeight(ref.getBranchId(), index));
+        }
+    }
+
+}